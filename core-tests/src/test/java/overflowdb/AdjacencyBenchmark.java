@@ -0,0 +1,392 @@
+package overflowdb;
+
+import overflowdb.testdomains.gratefuldead.Artist;
+import overflowdb.testdomains.gratefuldead.FollowedBy;
+import overflowdb.testdomains.gratefuldead.GratefulDead;
+import overflowdb.testdomains.gratefuldead.Song;
+import overflowdb.testdomains.gratefuldead.SungBy;
+import overflowdb.testdomains.gratefuldead.WrittenBy;
+import overflowdb.util.IteratorUtils;
+import overflowdb.util.MultiIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap usage per edge, throughput of `out`, of edge property and out degree traversals, of edge property updates on hubs, of interleaved and of parallel edge insertion for the adjacent nodes arrays - only run
+ * manually since the results vary depending on the environment, e.g.
+ * `sbt "coreTests/Test/runMain overflowdb.AdjacencyBenchmark"`
+ */
+public class AdjacencyBenchmark {
+  private static final int SONG_COUNT = 200_000;
+  private static final int ARTIST_COUNT = 1_000;
+  private static final int EDGES_PER_SONG = 10;
+
+  public static void main(String[] args) throws InterruptedException {
+    System.out.println(String.format("reference size: %d bytes", AdjacentNodes.REFERENCE_SIZE));
+    for (int run = 0; run < 2; run++) {
+      // WrittenBy has no edge properties, i.e. a stride of 1, while FollowedBy has one property (weight)
+      heapPerEdgeAndOutThroughput(WrittenBy.LABEL, false, false);
+      heapPerEdgeAndOutThroughput(FollowedBy.LABEL, true, false);
+      // distinct values can't share boxes - that's the case where primitive columns would save memory
+      heapPerEdgeAndOutThroughput(FollowedBy.LABEL, true, true);
+      idArraysPerEdgeAndLookupThroughput();
+    }
+    for (int run = 0; run < 2; run++) {
+      edgePropertyTraversal();
+    }
+    for (int degree : new int[]{1_000, 10_000, 50_000, 1_000, 10_000, 50_000}) {
+      hubEdgePropertyUpdates(degree);
+    }
+    for (int run = 0; run < 2; run++) {
+      outDegreeTraversal();
+    }
+    for (int run = 0; run < 2; run++) {
+      iterationAfterEdgeRemoval();
+    }
+    for (int run = 0; run < 2; run++) {
+      interleavedLabelInsertion("default", AdjacencyGrowthPolicy.DEFAULT);
+      interleavedLabelInsertion("geometric(2, 4)", AdjacencyGrowthPolicy.geometric(2, 4));
+    }
+    for (int threadCount : new int[]{1, 4, 16, 1, 4, 16}) {
+      parallelInsertionIntoHubs(threadCount);
+    }
+  }
+
+  /** edges/s when many threads add edges to a few hub nodes at the same time, while another thread traverses them */
+  public static void parallelInsertionIntoHubs(int threadCount) throws InterruptedException {
+    final int hubCount = 4;
+    final int edgesPerThread = 500_000 / threadCount;
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow())) {
+      final Node[] hubs = new Node[hubCount];
+      final Node[] artists = new Node[ARTIST_COUNT];
+      for (int i = 0; i < hubCount; i++) hubs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < ARTIST_COUNT; i++) artists[i] = graph.addNode(Artist.label);
+
+      final AtomicBoolean done = new AtomicBoolean(false);
+      final AtomicLong traversedEdges = new AtomicLong();
+      final Thread reader = new Thread(() -> {
+        while (!done.get()) {
+          for (Node hub : hubs) traversedEdges.addAndGet(IteratorUtils.toArrayList(hub.out()).size());
+        }
+      });
+      final List<Thread> writers = new ArrayList<>(threadCount);
+      for (int t = 0; t < threadCount; t++) {
+        final int threadIndex = t;
+        writers.add(new Thread(() -> {
+          for (int i = 0; i < edgesPerThread; i++) {
+            Node hub = hubs[(threadIndex + i) % hubCount];
+            if (i % 2 == 0) hub.addEdge(FollowedBy.LABEL, hubs[i % hubCount], FollowedBy.WEIGHT, i % 100);
+            else hub.addEdge(WrittenBy.LABEL, artists[i % ARTIST_COUNT]);
+          }
+        }));
+      }
+
+      final long startNanos = System.nanoTime();
+      reader.start();
+      writers.forEach(Thread::start);
+      for (Thread writer : writers) writer.join();
+      final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+      done.set(true);
+      reader.join();
+      System.out.println(String.format("parallel insertion into %d hubs with %2d threads: %,12.0f edges/s (concurrently traversed %,d edges)",
+          hubCount, threadCount, edgesPerThread * threadCount / elapsedSeconds, traversedEdges.get()));
+    }
+  }
+
+  /**
+   * updates/s for setting an edge property on edges of a hub node that are instantiated from the other side, i.e. that
+   * need to look up their blockOffset in the hub's block
+   */
+  public static void hubEdgePropertyUpdates(int degree) {
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow())) {
+      final Node hub = graph.addNode(Song.label);
+      final Node[] songs = new Node[degree];
+      for (int i = 0; i < degree; i++) songs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < degree; i++) hub.addEdge(FollowedBy.LABEL, songs[i], FollowedBy.WEIGHT, i);
+
+      final int updates = 20_000;
+      final long startNanos = System.nanoTime();
+      for (int i = 0; i < updates; i++) {
+        songs[(int) ((i * 7919L) % degree)].inE(FollowedBy.LABEL).next().setProperty(FollowedBy.WEIGHT, i);
+      }
+      final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+      System.out.println(String.format("edge property updates on hub with degree %,7d: %,12.0f updates/s",
+          degree, updates / elapsedSeconds));
+    }
+  }
+
+  /** edges/s for summing up an edge property of all edges: via `outE` and via an {@link EdgeCursor} */
+  public static void edgePropertyTraversal() {
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow())) {
+      final Node[] songs = new Node[SONG_COUNT];
+      for (int i = 0; i < SONG_COUNT; i++) songs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < SONG_COUNT; i++) {
+        for (int j = 1; j <= EDGES_PER_SONG; j++) {
+          songs[i].addEdge(FollowedBy.LABEL, songs[(i * 31 + j) % SONG_COUNT], FollowedBy.WEIGHT, j);
+        }
+      }
+      final long edgeCount = (long) SONG_COUNT * EDGES_PER_SONG;
+      final int passes = 20;
+
+      long checksum = 0;
+      long startNanos = System.nanoTime();
+      for (int pass = 0; pass < passes; pass++) {
+        for (Node song : songs) {
+          final Iterator<Edge> outE = song.outE(FollowedBy.LABEL);
+          while (outE.hasNext()) checksum += (Integer) outE.next().property(FollowedBy.WEIGHT);
+        }
+      }
+      printEdgePropertyThroughput("outE", passes * edgeCount, checksum, startNanos);
+
+      checksum = 0;
+      startNanos = System.nanoTime();
+      for (int pass = 0; pass < passes; pass++) {
+        for (Node song : songs) {
+          final EdgeCursor cursor = song.outEdgeCursor(FollowedBy.LABEL);
+          while (cursor.advance()) checksum += (Integer) cursor.property(FollowedBy.WEIGHT);
+        }
+      }
+      printEdgePropertyThroughput("EdgeCursor", passes * edgeCount, checksum, startNanos);
+    }
+  }
+
+  private static void printEdgePropertyThroughput(String variant, long edgeCount, long checksum, long startNanos) {
+    final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+    System.out.println(String.format("edge property of all edges, %-10s %,12.0f edges/s (checksum %d)",
+        variant, edgeCount / elapsedSeconds, checksum));
+  }
+
+  /**
+   * edges/s for counting the out degree of all nodes: with one iterator per label, chained by a MultiIterator (as
+   * `out()` used to do it), with the fused iterator of `out()`, and with `forEachOut` per label
+   */
+  public static void outDegreeTraversal() {
+    final int songCount = SONG_COUNT;
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow())) {
+      final Node[] songs = new Node[songCount];
+      final Node[] artists = new Node[ARTIST_COUNT];
+      for (int i = 0; i < songCount; i++) songs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < ARTIST_COUNT; i++) artists[i] = graph.addNode(Artist.label);
+      for (int i = 0; i < songCount; i++) {
+        for (int j = 0; j < EDGES_PER_SONG / 2; j++) {
+          songs[i].addEdge(FollowedBy.LABEL, songs[(i * 31 + j) % songCount], FollowedBy.WEIGHT, j);
+        }
+        songs[i].addEdge(SungBy.LABEL, artists[i % ARTIST_COUNT]);
+        songs[i].addEdge(WrittenBy.LABEL, artists[(i * 7) % ARTIST_COUNT]);
+      }
+      final List<Node> nodes = IteratorUtils.toArrayList(graph.nodes());
+      final String[] songOutLabels = {SungBy.LABEL, WrittenBy.LABEL, FollowedBy.LABEL};
+      final int passes = 20;
+
+      long edgeCount = 0;
+      long startNanos = System.nanoTime();
+      for (int pass = 0; pass < passes; pass++) {
+        for (Node node : nodes) {
+          final NodeDb nodeDb = ((NodeRef<?>) node).get();
+          final MultiIterator<Node> out = new MultiIterator<>();
+          for (String label : nodeDb.layoutInformation().allowedOutEdgeLabels()) {
+            out.addIterator(nodeDb.createAdjacentNodeIteratorByOffSet(nodeDb.layoutInformation().outEdgeToOffsetPosition(label)));
+          }
+          while (out.hasNext()) {
+            out.next();
+            edgeCount++;
+          }
+        }
+      }
+      printOutDegreeThroughput("MultiIterator", edgeCount, startNanos);
+
+      edgeCount = 0;
+      startNanos = System.nanoTime();
+      for (int pass = 0; pass < passes; pass++) {
+        for (Node node : nodes) {
+          final Iterator<Node> out = node.out();
+          while (out.hasNext()) {
+            out.next();
+            edgeCount++;
+          }
+        }
+      }
+      printOutDegreeThroughput("out()", edgeCount, startNanos);
+
+      final long[] visitedCount = new long[1];
+      startNanos = System.nanoTime();
+      for (int pass = 0; pass < passes; pass++) {
+        for (Node node : nodes) {
+          if (node.label().equals(Song.label)) {
+            for (String label : songOutLabels) node.forEachOut(label, adjacent -> visitedCount[0]++);
+          }
+        }
+      }
+      printOutDegreeThroughput("forEachOut", visitedCount[0], startNanos);
+    }
+  }
+
+  private static void printOutDegreeThroughput(String variant, long edgeCount, long startNanos) {
+    final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+    System.out.println(String.format("out degree of all nodes, %-13s %,12.0f edges/s (%d edges)",
+        variant, edgeCount / elapsedSeconds, edgeCount));
+  }
+
+  /** edges/s when traversing the remaining edges after 90% of them were removed, before and after compacting */
+  public static void iterationAfterEdgeRemoval() {
+    final int songCount = SONG_COUNT / 10;
+    final int edgesPerSong = EDGES_PER_SONG * 10;
+    final int passes = 20;
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow())) {
+      final Node[] songs = new Node[songCount];
+      final Node[] artists = new Node[ARTIST_COUNT];
+      for (int i = 0; i < songCount; i++) songs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < ARTIST_COUNT; i++) artists[i] = graph.addNode(Artist.label);
+      for (int i = 0; i < songCount; i++) {
+        for (int j = 0; j < edgesPerSong; j++) songs[i].addEdge(WrittenBy.LABEL, artists[(i + j) % ARTIST_COUNT]);
+      }
+      for (Node song : songs) {
+        final List<Edge> edges = IteratorUtils.toArrayList(song.outE(WrittenBy.LABEL));
+        for (int j = 0; j < edges.size(); j++) {
+          if (j % 10 != 0) edges.get(j).remove();
+        }
+      }
+
+      printRemainingEdgesThroughput("with removed", songs, passes);
+      graph.trimAll();
+      printRemainingEdgesThroughput("compacted", songs, passes);
+    }
+  }
+
+  private static void printRemainingEdgesThroughput(String variant, Node[] nodes, int passes) {
+    long edgeCount = 0;
+    final long startNanos = System.nanoTime();
+    for (int pass = 0; pass < passes; pass++) {
+      for (Node node : nodes) {
+        final Iterator<Node> out = node.out();
+        while (out.hasNext()) {
+          out.next();
+          edgeCount++;
+        }
+      }
+    }
+    final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+    System.out.println(String.format("remaining edges after removal, %-12s %,12.0f edges/s (%d edges)",
+        variant, edgeCount / elapsedSeconds, edgeCount));
+  }
+
+  /** edges/s and heap per edge when every song gets edges of three labels in turn, for the given growth policy */
+  public static void interleavedLabelInsertion(String policyName, AdjacencyGrowthPolicy policy) {
+    final int songCount = SONG_COUNT / 10;
+    final int edgesPerLabel = EDGES_PER_SONG * 10;
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow().withAdjacencyGrowthPolicy(policy))) {
+      final Node[] songs = new Node[songCount];
+      final Node[] artists = new Node[ARTIST_COUNT];
+      for (int i = 0; i < songCount; i++) songs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < ARTIST_COUNT; i++) artists[i] = graph.addNode(Artist.label);
+
+      final long memoryBefore = usedMemory();
+      final long startNanos = System.nanoTime();
+      for (int j = 0; j < edgesPerLabel; j++) {
+        for (int i = 0; i < songCount; i++) {
+          songs[i].addEdge(FollowedBy.LABEL, songs[(i * 31 + j) % songCount], FollowedBy.WEIGHT, j);
+          songs[i].addEdge(SungBy.LABEL, artists[(i + j) % ARTIST_COUNT]);
+          songs[i].addEdge(WrittenBy.LABEL, artists[(i * 7 + j) % ARTIST_COUNT]);
+        }
+      }
+      final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+      final long edgeCount = 3L * songCount * edgesPerLabel;
+      System.out.println(String.format("interleaved labels, %-15s %,12.0f edges/s, ~%d heap bytes per edge (both directions)",
+          policyName, edgeCount / elapsedSeconds, (usedMemory() - memoryBefore) / edgeCount));
+    }
+  }
+
+  public static void heapPerEdgeAndOutThroughput(String edgeLabel, boolean withProperty, boolean distinctValues) {
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow())) {
+      final Node[] songs = new Node[SONG_COUNT];
+      final Node[] artists = new Node[ARTIST_COUNT];
+      for (int i = 0; i < SONG_COUNT; i++) songs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < ARTIST_COUNT; i++) artists[i] = graph.addNode(Artist.label);
+      final boolean toArtists = edgeLabel.equals(WrittenBy.LABEL);
+
+      final long memoryBefore = usedMemory();
+      for (int i = 0; i < SONG_COUNT; i++) {
+        for (int j = 1; j <= EDGES_PER_SONG; j++) {
+          Node target = toArtists ? artists[(i * 31 + j) % ARTIST_COUNT] : songs[(i * 31 + j) % SONG_COUNT];
+          if (withProperty) songs[i].addEdge(edgeLabel, target, FollowedBy.WEIGHT, distinctValues ? i * EDGES_PER_SONG + j : j);
+          else songs[i].addEdge(edgeLabel, target);
+        }
+      }
+      final long edgeCount = (long) SONG_COUNT * EDGES_PER_SONG;
+      final long bytesPerEdge = (usedMemory() - memoryBefore) / edgeCount;
+      graph.trimAll();
+      final long bytesPerEdgeTrimmed = (usedMemory() - memoryBefore) / edgeCount;
+
+      final int passes = 20;
+      long checksum = 0;
+      final long startNanos = System.nanoTime();
+      for (int pass = 0; pass < passes; pass++) {
+        for (Node song : songs) {
+          Iterator<Node> out = song.out(edgeLabel);
+          while (out.hasNext()) checksum += out.next().id();
+        }
+      }
+      final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+      System.out.println(String.format("%-10s ~%d heap bytes per edge (both directions), ~%d after trimming, out: %,12.0f edges/s (checksum %d)%s",
+          edgeLabel, bytesPerEdge, bytesPerEdgeTrimmed, passes * edgeCount / elapsedSeconds, checksum, distinctValues ? ", distinct values" : ""));
+    }
+  }
+
+  /**
+   * The primitive alternative for stride-1 labels: adjacent node ids in a `long[]` per node and direction, resolved
+   * via the id index while traversing. Int slot indices aren't an option because compaction moves nodes between slots.
+   */
+  public static void idArraysPerEdgeAndLookupThroughput() {
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow())) {
+      final Node[] songs = new Node[SONG_COUNT];
+      final Node[] artists = new Node[ARTIST_COUNT];
+      for (int i = 0; i < SONG_COUNT; i++) songs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < ARTIST_COUNT; i++) artists[i] = graph.addNode(Artist.label);
+
+      final long memoryBefore = usedMemory();
+      final long[][] outIds = new long[SONG_COUNT][EDGES_PER_SONG];
+      final int[] inCounts = new int[ARTIST_COUNT];
+      for (int i = 0; i < SONG_COUNT; i++) {
+        for (int j = 1; j <= EDGES_PER_SONG; j++) {
+          final int artist = (i * 31 + j) % ARTIST_COUNT;
+          outIds[i][j - 1] = artists[artist].id();
+          inCounts[artist]++;
+        }
+      }
+      final long[][] inIds = new long[ARTIST_COUNT][];
+      for (int a = 0; a < ARTIST_COUNT; a++) inIds[a] = new long[inCounts[a]];
+      Arrays.fill(inCounts, 0);
+      for (int i = 0; i < SONG_COUNT; i++) {
+        for (int j = 1; j <= EDGES_PER_SONG; j++) {
+          final int artist = (i * 31 + j) % ARTIST_COUNT;
+          inIds[artist][inCounts[artist]++] = songs[i].id();
+        }
+      }
+      final long edgeCount = (long) SONG_COUNT * EDGES_PER_SONG;
+      final long bytesPerEdge = (usedMemory() - memoryBefore) / edgeCount;
+
+      final int passes = 20;
+      long checksum = 0;
+      final long startNanos = System.nanoTime();
+      for (int pass = 0; pass < passes; pass++) {
+        for (long[] ids : outIds) {
+          for (long id : ids) checksum += graph.node(id).id();
+        }
+      }
+      final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+      System.out.println(String.format("%-10s ~%d heap bytes per edge (both directions), long[] ids,    out: %,12.0f edges/s (checksum %d, %d in-arrays)",
+          WrittenBy.LABEL, bytesPerEdge, passes * edgeCount / elapsedSeconds, checksum, inIds.length));
+    }
+  }
+
+  private static long usedMemory() {
+    for (int i = 0; i < 3; i++) System.gc();
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,78 @@
+package overflowdb;
+
+import org.junit.Test;
+import overflowdb.testdomains.gratefuldead.Artist;
+import overflowdb.testdomains.gratefuldead.FollowedBy;
+import overflowdb.testdomains.gratefuldead.GratefulDead;
+import overflowdb.testdomains.gratefuldead.Song;
+import overflowdb.testdomains.gratefuldead.SungBy;
+import overflowdb.testdomains.gratefuldead.WrittenBy;
+import overflowdb.util.IteratorUtils;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdjacencyGrowthPolicyTest {
+
+  @Test
+  public void geometricGrowsAllBlocksInUse() {
+    AdjacencyGrowthPolicy policy = AdjacencyGrowthPolicy.geometric(2, 1);
+    int[] lengths = {4, 0, 6, 0};
+    int[] capacities = {4, 0, 8, 0};
+    int[] strideSizes = {1, 1, 2, 2};
+    assertArrayEquals(new int[]{8, 0, 12, 2}, policy.newCapacities(null, lengths, capacities, strideSizes, 3, 2));
+    assertArrayEquals(new int[]{8, 1, 12, 0}, policy.newCapacities(null, lengths, capacities, strideSizes, 1, 1));
+  }
+
+  @Test
+  public void interleavedLabelsCopyLessWithGeometricGrowth() {
+    int defaultCopies = countArrayCopiesForInterleavedInsertion(Config.withoutOverflow());
+    int geometricCopies = countArrayCopiesForInterleavedInsertion(
+        Config.withoutOverflow().withAdjacencyGrowthPolicy(AdjacencyGrowthPolicy.geometric(2, 4)));
+    assertTrue(String.format("expected fewer copies with geometric growth, but got %d (default: %d)", geometricCopies, defaultCopies),
+        geometricCopies < defaultCopies);
+  }
+
+  private int countArrayCopiesForInterleavedInsertion(Config config) {
+    try (Graph graph = GratefulDead.newGraph(config)) {
+      NodeRef<?> song = (NodeRef<?>) graph.addNode(Song.label);
+      Node otherSong = graph.addNode(Song.label);
+      Node artist = graph.addNode(Artist.label);
+      int copies = 0;
+      Object[] array = song.get().getAdjacentNodes().nodesWithEdgeProperties;
+      for (int i = 0; i < 3000; i++) {
+        switch (i % 3) {
+          case 0: song.addEdge(FollowedBy.LABEL, otherSong, FollowedBy.WEIGHT, i / 3); break;
+          case 1: song.addEdge(SungBy.LABEL, artist); break;
+          default: song.addEdge(WrittenBy.LABEL, artist);
+        }
+        Object[] current = song.get().getAdjacentNodes().nodesWithEdgeProperties;
+        if (current != array) {
+          copies++;
+          array = current;
+        }
+      }
+
+      List<Edge> followedBy = IteratorUtils.toArrayList(song.outE(FollowedBy.LABEL));
+      assertEquals(1000, followedBy.size());
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(Integer.valueOf(i), followedBy.get(i).property(FollowedBy.WEIGHT));
+      }
+      assertEquals(1000, IteratorUtils.toArrayList(song.out(SungBy.LABEL)).size());
+      assertEquals(1000, IteratorUtils.toArrayList(song.out(WrittenBy.LABEL)).size());
+      assertEquals(2000, IteratorUtils.toArrayList(artist.in()).size());
+      return copies;
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsInsufficientCapacity() {
+    AdjacencyGrowthPolicy broken = (layout, lengths, capacities, strideSizes, blockToGrow, requiredSlots) -> capacities;
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow().withAdjacencyGrowthPolicy(broken))) {
+      graph.addNode(Song.label).addEdge(WrittenBy.LABEL, graph.addNode(Artist.label));
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package overflowdb;
+
+import org.junit.Test;
+import overflowdb.testdomains.gratefuldead.Artist;
+import overflowdb.testdomains.gratefuldead.FollowedBy;
+import overflowdb.testdomains.gratefuldead.GratefulDead;
+import overflowdb.testdomains.gratefuldead.Song;
+import overflowdb.testdomains.gratefuldead.SungBy;
+import overflowdb.testdomains.gratefuldead.WrittenBy;
+import overflowdb.util.IteratorUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdjacentNodesIteratorTest {
+
+  @Test
+  public void iteratesOverAllBlocksInLayoutOrder() {
+    try (Graph graph = GratefulDead.newGraph()) {
+      Node song = graph.addNode(Song.label);
+      Node song2 = graph.addNode(Song.label);
+      Node song3 = graph.addNode(Song.label);
+      Node singer = graph.addNode(Artist.label);
+      Node writer = graph.addNode(Artist.label);
+      song.addEdge(WrittenBy.LABEL, writer);
+      song.addEdge(FollowedBy.LABEL, song2, FollowedBy.WEIGHT, 1);
+      song.addEdge(SungBy.LABEL, singer);
+      song.addEdge(FollowedBy.LABEL, song3, FollowedBy.WEIGHT, 2);
+      song3.addEdge(FollowedBy.LABEL, song);
+
+      // order of the layout, i.e. SungBy, WrittenBy, FollowedBy
+      assertEquals(Arrays.asList(singer, writer, song2, song3), IteratorUtils.toArrayList(song.out()));
+      assertEquals(Arrays.asList(writer, song2, song3), IteratorUtils.toArrayList(song.out(WrittenBy.LABEL, FollowedBy.LABEL, "unknown")));
+      assertEquals(Collections.singletonList(song3), IteratorUtils.toArrayList(song.in()));
+      assertEquals(Arrays.asList(singer, writer, song2, song3, song3), IteratorUtils.toArrayList(song.both()));
+      assertEquals(Arrays.asList(song2, song3, song3), IteratorUtils.toArrayList(song.both(FollowedBy.LABEL)));
+      assertEquals(Collections.emptyList(), IteratorUtils.toArrayList(song2.out()));
+
+      // removed edges leave gaps in the blocks, which are skipped
+      song.outE(FollowedBy.LABEL).next().remove();
+      song.outE(WrittenBy.LABEL).next().remove();
+      assertEquals(Arrays.asList(singer, song3), IteratorUtils.toArrayList(song.out()));
+
+      List<Node> visited = new ArrayList<>();
+      song.forEachOut(FollowedBy.LABEL, visited::add);
+      song.forEachOut(WrittenBy.LABEL, visited::add);
+      song.forEachOut("unknown", visited::add);
+      song.forEachIn(FollowedBy.LABEL, visited::add);
+      assertEquals(Arrays.asList(song3, song3), visited);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package overflowdb;
+
+import org.junit.Test;
+import overflowdb.testdomains.gratefuldead.FollowedBy;
+import overflowdb.testdomains.gratefuldead.GratefulDead;
+import overflowdb.testdomains.gratefuldead.Song;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Edges that are instantiated from one side only know their blockOffset on that side, and look up the other one via
+ * the occurrence among the edges between the same nodes - for hub nodes that goes through a {@link BlockOffsetIndex}.
+ */
+public class BlockOffsetIndexTest {
+  private static final int TARGET_COUNT = 50;
+
+  @Test
+  public void translatesBlockOffsetsOfHubNodes() {
+    try (Graph graph = GratefulDead.newGraph()) {
+      Node hub = graph.addNode(Song.label);
+      Node[] targets = new Node[TARGET_COUNT];
+      for (int i = 0; i < TARGET_COUNT; i++) targets[i] = graph.addNode(Song.label);
+      // several edges between the hub and each target, interleaved
+      for (int i = 0; i < TARGET_COUNT * 10; i++) {
+        hub.addEdge(FollowedBy.LABEL, targets[i % TARGET_COUNT], FollowedBy.WEIGHT, i);
+      }
+
+      // edges instantiated from the target side: modifying them needs the blockOffset on the hub side
+      updateWeightsFromTargets(targets, 1000);
+      assertWeights(hub, targets, 1000);
+
+      // remove every third edge, from the target side
+      for (Node target : targets) {
+        List<Edge> edges = new ArrayList<>();
+        target.inE(FollowedBy.LABEL).forEachRemaining(edges::add);
+        for (int i = 0; i < edges.size(); i += 3) edges.get(i).remove();
+      }
+      assertEquals(TARGET_COUNT * 6, count(hub.outE(FollowedBy.LABEL)));
+      updateWeightsFromTargets(targets, 2000);
+      assertWeights(hub, targets, 2000);
+
+      // edges that are added after the index was built
+      for (int i = 0; i < TARGET_COUNT * 4; i++) {
+        hub.addEdge(FollowedBy.LABEL, targets[i % TARGET_COUNT], FollowedBy.WEIGHT, i);
+      }
+      updateWeightsFromTargets(targets, 3000);
+      assertWeights(hub, targets, 3000);
+
+      // and the other way round: edges instantiated from the hub side
+      Iterator<Edge> hubEdges = hub.outE(FollowedBy.LABEL);
+      while (hubEdges.hasNext()) {
+        Edge edge = hubEdges.next();
+        edge.setProperty(FollowedBy.WEIGHT, (Integer) edge.property(FollowedBy.WEIGHT) + 1000);
+      }
+      for (int i = 0; i < targets.length; i++) {
+        Iterator<Edge> edges = targets[i].inE(FollowedBy.LABEL);
+        for (int n = 0; edges.hasNext(); n++) {
+          assertEquals(Integer.valueOf(4000 + 100 * i + n), edges.next().property(FollowedBy.WEIGHT));
+        }
+      }
+    }
+  }
+
+  /** sets the weight of the n-th edge to the i-th target to `base + 100 * i + n` */
+  private void updateWeightsFromTargets(Node[] targets, int base) {
+    for (int i = 0; i < targets.length; i++) {
+      Iterator<Edge> edges = targets[i].inE(FollowedBy.LABEL);
+      for (int n = 0; edges.hasNext(); n++) edges.next().setProperty(FollowedBy.WEIGHT, base + 100 * i + n);
+    }
+  }
+
+  private void assertWeights(Node hub, Node[] targets, int base) {
+    int[] occurrences = new int[targets.length];
+    Iterator<Edge> edges = hub.outE(FollowedBy.LABEL);
+    while (edges.hasNext()) {
+      Edge edge = edges.next();
+      int i = (int) (edge.inNode().id() - targets[0].id());
+      assertEquals(Integer.valueOf(base + 100 * i + occurrences[i]++), edge.property(FollowedBy.WEIGHT));
+    }
+  }
+
+  private int count(Iterator<?> iterator) {
+    int count = 0;
+    while (iterator.hasNext()) {
+      iterator.next();
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,61 @@
+package overflowdb;
+
+import org.junit.Test;
+import overflowdb.testdomains.gratefuldead.FollowedBy;
+import overflowdb.testdomains.gratefuldead.GratefulDead;
+import overflowdb.testdomains.gratefuldead.Song;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClearedNodesCacheTest {
+
+  @Test
+  public void shouldRecoverClearedNodesWithoutReadingFromStorage() {
+    try (Graph graph = GratefulDead.newGraph(Config.withDefaults().withClearedNodesCacheSize(10))) {
+      NodeRef song1 = (NodeRef) graph.addNode(Song.label, Song.NAME, "Song 1");
+      NodeRef song2 = (NodeRef) graph.addNode(Song.label, Song.NAME, "Song 2");
+      song1.addEdge(FollowedBy.LABEL, song2);
+      NodeDb song1Db = song1.get();
+
+      graph.referenceManager.clearAllReferences();
+      assertTrue(song1.isCleared());
+      assertTrue(song2.isCleared());
+
+      assertEquals("Song 1", song1.property(Song.NAME));
+      assertTrue("should be the very same instance", song1Db == song1.get());
+      assertEquals(song2, song1.out(FollowedBy.LABEL).next());
+      assertEquals("Song 2", song2.property(Song.NAME));
+
+      ClearedNodesCache cache = graph.clearedNodesCache().get();
+      assertEquals(2, cache.getHitCount());
+      assertEquals(0, cache.getMissCount());
+      assertEquals(0, cache.size());
+    }
+  }
+
+  @Test
+  public void shouldReadFromStorageIfEvictedFromCache() {
+    try (Graph graph = GratefulDead.newGraph(Config.withDefaults().withClearedNodesCacheSize(1))) {
+      NodeRef song1 = (NodeRef) graph.addNode(Song.label, Song.NAME, "Song 1");
+      NodeRef song2 = (NodeRef) graph.addNode(Song.label, Song.NAME, "Song 2");
+
+      graph.referenceManager.clearAllReferences();
+      assertEquals("Song 1", song1.property(Song.NAME));
+      assertEquals("Song 2", song2.property(Song.NAME));
+
+      ClearedNodesCache cache = graph.clearedNodesCache().get();
+      assertEquals(1, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+      assertEquals(0.5f, cache.getHitRate(), 0.001f);
+    }
+  }
+
+  @Test
+  public void shouldBeDisabledByDefault() {
+    try (Graph graph = GratefulDead.newGraph(Config.withDefaults())) {
+      assertFalse(graph.clearedNodesCache().isPresent());
+    }
+  }
+}
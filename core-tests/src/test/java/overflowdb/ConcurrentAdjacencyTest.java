@@ -0,0 +1,95 @@
+package overflowdb;
+
+import org.junit.Test;
+import overflowdb.testdomains.gratefuldead.Artist;
+import overflowdb.testdomains.gratefuldead.FollowedBy;
+import overflowdb.testdomains.gratefuldead.GratefulDead;
+import overflowdb.testdomains.gratefuldead.Song;
+import overflowdb.testdomains.gratefuldead.WrittenBy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Readers traverse a hub node while other threads add edges of different labels to it, which regularly grows the
+ * adjacent nodes array and moves the blocks of the other labels.
+ */
+public class ConcurrentAdjacencyTest {
+  private static final int WRITER_COUNT = 2;
+  private static final int READER_COUNT = 2;
+  private static final int EDGES_PER_WRITER = 30_000;
+
+  @Test
+  public void readersSeeConsistentAdjacencyWhileEdgesAreAdded() throws InterruptedException {
+    try (Graph graph = GratefulDead.newGraph(Config.withoutOverflow())) {
+      final Node hub = graph.addNode(Song.label);
+      final Node[] songs = new Node[100];
+      final Node[] artists = new Node[100];
+      for (int i = 0; i < songs.length; i++) songs[i] = graph.addNode(Song.label);
+      for (int i = 0; i < artists.length; i++) artists[i] = graph.addNode(Artist.label);
+
+      final AtomicBoolean writersDone = new AtomicBoolean(false);
+      final AtomicReference<Throwable> failure = new AtomicReference<>();
+      final List<Thread> writers = new ArrayList<>();
+      final List<Thread> readers = new ArrayList<>();
+      for (int t = 0; t < WRITER_COUNT; t++) {
+        writers.add(new Thread(() -> {
+          for (int i = 0; i < EDGES_PER_WRITER; i++) {
+            // alternate between labels, so that every growth moves the other label's block
+            Node song = songs[i % songs.length];
+            hub.addEdge(FollowedBy.LABEL, song, FollowedBy.WEIGHT, expectedWeight(song));
+            hub.addEdge(WrittenBy.LABEL, artists[i % artists.length]);
+          }
+        }));
+      }
+      for (int t = 0; t < READER_COUNT; t++) {
+        readers.add(new Thread(() -> {
+          try {
+            do {
+              verifyAdjacency(hub);
+            } while (!writersDone.get());
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }));
+      }
+
+      readers.forEach(Thread::start);
+      writers.forEach(Thread::start);
+      for (Thread writer : writers) writer.join();
+      writersDone.set(true);
+      for (Thread reader : readers) reader.join();
+
+      if (failure.get() != null) throw new AssertionError("reader failed", failure.get());
+      final int expectedCount = WRITER_COUNT * EDGES_PER_WRITER;
+      assertEquals(expectedCount, verifyAdjacency(hub));
+      assertEquals(expectedCount * 2L, graph.edgeCount());
+    }
+  }
+
+  /** @return number of FollowedBy edges */
+  private static int verifyAdjacency(Node hub) {
+    int followedByCount = 0;
+    Iterator<Edge> followedBy = hub.outE(FollowedBy.LABEL);
+    while (followedBy.hasNext()) {
+      Edge edge = followedBy.next();
+      assertEquals(Song.label, edge.inNode().label());
+      assertEquals(Integer.valueOf(expectedWeight(edge.inNode())), edge.property(FollowedBy.WEIGHT));
+      followedByCount++;
+    }
+    Iterator<Node> writtenBy = hub.out(WrittenBy.LABEL);
+    while (writtenBy.hasNext()) {
+      assertEquals(Artist.label, writtenBy.next().label());
+    }
+    return followedByCount;
+  }
+
+  private static int expectedWeight(Node song) {
+    return (int) song.id() % 7;
+  }
+}
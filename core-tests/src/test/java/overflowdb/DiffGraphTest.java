@@ -4,8 +4,16 @@ import org.junit.Test;
 import overflowdb.testdomains.simple.SimpleDomain;
 import overflowdb.testdomains.simple.TestEdge;
 import overflowdb.testdomains.simple.TestNode;
+import overflowdb.util.IteratorUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class DiffGraphTest {
 
@@ -51,6 +59,217 @@ public class DiffGraphTest {
     }
   }
 
+  @Test
+  public void trimAfterBatchedUpdate() {
+    try (Graph graph = SimpleDomain.newGraph(Config.withDefaults().withTrimAfterBatchedUpdates())) {
+      BatchedUpdate.DiffGraphBuilder diff = new BatchedUpdate.DiffGraphBuilder();
+      DetachedNodeData n1D = new DetachedNodeGeneric(TestNode.LABEL, TestNode.STRING_PROPERTY, "node 1");
+      DetachedNodeData n2D = new DetachedNodeGeneric(TestNode.LABEL, TestNode.STRING_PROPERTY, "node 2");
+      diff.addEdge(n1D, n2D, TestEdge.LABEL, TestEdge.LONG_PROPERTY, 99L);
+      diff.addEdge(n2D, n1D, TestEdge.LABEL);
+      BatchedUpdate.applyDiff(graph, diff);
+
+      // the nodes are trimmed already
+      assertEquals(0, graph.trimAll());
+      assertEdgeCount(2, graph);
+      assertEquals(Long.valueOf(99), graph.edges(TestEdge.LABEL).next().property(TestEdge.LONG_PROPERTY));
+    }
+  }
+
+  @Test
+  public void reservesAdjacentCapacityForNewEdges() {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      NodeRef<?> hub = (NodeRef<?>) graph.addNode(TestNode.LABEL);
+      hub.addEdge(TestEdge.LABEL, graph.addNode(TestNode.LABEL));
+
+      BatchedUpdate.DiffGraphBuilder diff = new BatchedUpdate.DiffGraphBuilder();
+      for (int i = 0; i < 100; i++) {
+        DetachedNodeData newNode = new DetachedNodeGeneric(TestNode.LABEL);
+        diff.addEdge(hub, newNode, TestEdge.LABEL, TestEdge.LONG_PROPERTY, (long) i);
+        if (i % 2 == 0) diff.addEdge(newNode, hub, TestEdge.LABEL);
+      }
+      BatchedUpdate.applyDiff(graph, diff);
+
+      // grown once, with room for at least 101 out and 50 in edges
+      int strideSize = hub.get().getStrideSize(TestEdge.LABEL);
+      assertTrue(hub.get().getAdjacentNodes().nodesWithEdgeProperties.length >= 151 * strideSize);
+      assertEquals(101, IteratorUtils.toArrayList(hub.out()).size());
+      assertEquals(50, IteratorUtils.toArrayList(hub.in()).size());
+      assertEdgeCount(151, graph);
+    }
+  }
+
+  @Test
+  public void reservesAdjacentCapacityWithSlackAcrossManySmallDiffs() {
+    // the array grows geometrically, whether the hub gets degree hints (more than one new edge) or not
+    for (int edgesPerDiff = 1; edgesPerDiff <= 3; edgesPerDiff++) {
+      int reallocations = reallocationsForManySmallDiffs(1000, edgesPerDiff);
+      assertTrue("reallocated " + reallocations + " times for " + edgesPerDiff + " edges per diff", reallocations <= 12);
+    }
+  }
+
+  private int reallocationsForManySmallDiffs(int diffCount, int edgesPerDiff) {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      NodeRef<?> hub = (NodeRef<?>) graph.addNode(TestNode.LABEL);
+      int reallocations = 0;
+      Object[] nodesWithEdgeProperties = hub.get().getAdjacentNodes().nodesWithEdgeProperties;
+      for (int i = 0; i < diffCount; i++) {
+        BatchedUpdate.DiffGraphBuilder diff = new BatchedUpdate.DiffGraphBuilder();
+        for (int j = 0; j < edgesPerDiff; j++) {
+          diff.addEdge(hub, new DetachedNodeGeneric(TestNode.LABEL), TestEdge.LABEL, TestEdge.LONG_PROPERTY, (long) i);
+        }
+        BatchedUpdate.applyDiff(graph, diff);
+        if (hub.get().getAdjacentNodes().nodesWithEdgeProperties != nodesWithEdgeProperties) {
+          nodesWithEdgeProperties = hub.get().getAdjacentNodes().nodesWithEdgeProperties;
+          reallocations++;
+        }
+      }
+      assertEquals(diffCount * edgesPerDiff, IteratorUtils.toArrayList(hub.out()).size());
+      assertEdgeCount(diffCount * edgesPerDiff, graph);
+      return reallocations;
+    }
+  }
+
+  @Test
+  public void compactsNodesWithManyRemovedEdges() {
+    try (Graph graph = SimpleDomain.newGraph(Config.withDefaults().withCompactAfterBatchedUpdates())) {
+      NodeRef<?> hub = (NodeRef<?>) graph.addNode(TestNode.LABEL);
+      for (int i = 0; i < 10; i++) hub.addEdge(TestEdge.LABEL, graph.addNode(TestNode.LABEL), TestEdge.LONG_PROPERTY, (long) i);
+
+      BatchedUpdate.DiffGraphBuilder diff = new BatchedUpdate.DiffGraphBuilder();
+      Iterator<Edge> edges = hub.outE();
+      for (int i = 0; i < 6; i++) diff.removeEdge(edges.next());
+      BatchedUpdate.applyDiff(graph, diff);
+
+      // the removed edges are dropped at the end of the update, both from the hub and from the other nodes
+      assertEquals(0, hub.get().compactIfSparse());
+      assertEdgeCount(4, graph);
+      assertEquals(4, IteratorUtils.toArrayList(hub.out()).size());
+      assertEquals(Long.valueOf(6), hub.outE().next().property(TestEdge.LONG_PROPERTY));
+    }
+  }
+
+  @Test
+  public void heldEdgesStayValidWithoutCompaction() {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      Node hub = graph.addNode(TestNode.LABEL);
+      List<Node> targets = new ArrayList<>();
+      List<Edge> edges = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        targets.add(graph.addNode(TestNode.LABEL));
+        edges.add(hub.addEdge(TestEdge.LABEL, targets.get(i)));
+      }
+      Edge edgeToB3 = IteratorUtils.toArrayList(hub.outE()).get(3);
+
+      BatchedUpdate.DiffGraphBuilder diff = new BatchedUpdate.DiffGraphBuilder();
+      for (int i = 0; i < 8; i += 2) diff.removeEdge(edges.get(i));
+      BatchedUpdate.applyDiff(graph, diff);
+
+      // compaction is opt-in, i.e. the blockOffsets haven't changed
+      edgeToB3.remove();
+      assertEquals(Arrays.asList(targets.get(1), targets.get(5), targets.get(7)), IteratorUtils.toArrayList(hub.out()));
+      assertEquals(0, IteratorUtils.toArrayList(targets.get(3).in()).size());
+      assertEdgeCount(3, graph);
+    }
+  }
+
+  @Test
+  public void heldEdgePropertiesAcrossTrimAllDoNotAffectOtherEdges() {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      Node hub = graph.addNode(TestNode.LABEL);
+      List<Node> targets = new ArrayList<>();
+      List<Edge> edges = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        targets.add(graph.addNode(TestNode.LABEL));
+        edges.add(hub.addEdge(TestEdge.LABEL, targets.get(i), TestEdge.LONG_PROPERTY, (long) i));
+      }
+      List<Edge> heldEdges = IteratorUtils.toArrayList(hub.outE());
+      Edge edgeToB3 = heldEdges.get(3);
+      Edge edgeToB7 = heldEdges.get(7);
+
+      BatchedUpdate.DiffGraphBuilder diff = new BatchedUpdate.DiffGraphBuilder();
+      for (int i = 0; i < 8; i += 2) diff.removeEdge(edges.get(i));
+      BatchedUpdate.applyDiff(graph, diff);
+      // trimming drops the removed edges: b3 moves from blockOffset 3 to 1, b7 from 7 to 3, i.e. beyond the block
+      graph.trimAll();
+
+      for (Edge outdated : Arrays.asList(edgeToB3, edgeToB7)) {
+        assertOutdated(() -> outdated.property(TestEdge.LONG_PROPERTY));
+        assertOutdated(outdated::propertiesMap);
+        assertOutdated(() -> outdated.setProperty(TestEdge.LONG_PROPERTY, 42L));
+        assertOutdated(() -> outdated.removeProperty(TestEdge.LONG_PROPERTY));
+      }
+
+      // no other edge was modified, on either side
+      List<Long> expectedValues = Arrays.asList(1L, 3L, 5L, 7L);
+      List<Long> outValues = new ArrayList<>();
+      hub.outE().forEachRemaining(edge -> outValues.add((Long) edge.property(TestEdge.LONG_PROPERTY)));
+      assertEquals(expectedValues, outValues);
+      for (int i = 1; i < 8; i += 2) {
+        Edge inEdge = targets.get(i).inE().next();
+        assertEquals((long) i, inEdge.property(TestEdge.LONG_PROPERTY));
+      }
+
+      // edges that are obtained after trimming work as usual
+      Edge edgeToB7Now = IteratorUtils.toArrayList(hub.outE()).get(3);
+      edgeToB7Now.setProperty(TestEdge.LONG_PROPERTY, 42L);
+      assertEquals(42L, (long) targets.get(7).inE().next().property(TestEdge.LONG_PROPERTY));
+    }
+  }
+
+  private static void assertOutdated(Runnable edgeAccess) {
+    try {
+      edgeAccess.run();
+      fail("expected IllegalStateException for outdated edge");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void heldEdgeAcrossCompactingDiffDoesNotRemoveAnotherEdge() {
+    try (Graph graph = SimpleDomain.newGraph(Config.withDefaults().withCompactAfterBatchedUpdates())) {
+      Node hub = graph.addNode(TestNode.LABEL);
+      List<Node> targets = new ArrayList<>();
+      List<Edge> edges = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        targets.add(graph.addNode(TestNode.LABEL));
+        edges.add(hub.addEdge(TestEdge.LABEL, targets.get(i)));
+      }
+      Edge edgeToB3 = IteratorUtils.toArrayList(hub.outE()).get(3);
+
+      BatchedUpdate.DiffGraphBuilder diff = new BatchedUpdate.DiffGraphBuilder();
+      for (int i = 0; i < 8; i += 2) diff.removeEdge(edges.get(i));
+      BatchedUpdate.applyDiff(graph, diff);
+      // the hub lost half of its edges, so it got compacted, and b3 moved from blockOffset 3 to 1
+      assertEquals(0, ((NodeRef<?>) hub).get().compactIfSparse());
+
+      // the held edge is outdated: its blockOffset now refers to the edge to b7
+      boolean failed = false;
+      try {
+        edgeToB3.remove();
+      } catch (IllegalStateException e) {
+        failed = true;
+      }
+      assertTrue(failed);
+
+      // neither side was modified, i.e. the adjacency is still symmetric
+      List<Node> expectedTargets = Arrays.asList(targets.get(1), targets.get(3), targets.get(5), targets.get(7));
+      assertEquals(expectedTargets, IteratorUtils.toArrayList(hub.out()));
+      for (Node target : expectedTargets) {
+        assertEquals(Arrays.asList(hub), IteratorUtils.toArrayList(target.in()));
+      }
+      assertEdgeCount(4, graph);
+
+      // edges that are obtained after the update can be removed
+      hub.outE().forEachRemaining(edge -> { if (edge.inNode().equals(targets.get(3))) edge.remove(); });
+      assertEquals(Arrays.asList(targets.get(1), targets.get(5), targets.get(7)), IteratorUtils.toArrayList(hub.out()));
+      assertEquals(0, IteratorUtils.toArrayList(targets.get(3).in()).size());
+      assertEquals(Arrays.asList(hub), IteratorUtils.toArrayList(targets.get(7).in()));
+      assertEdgeCount(3, graph);
+    }
+  }
+
   private void assertNodeCount(int expected, Graph graph) {
     assertEquals("node count different to expected", expected, graph.nodeCount());
   }
@@ -0,0 +1,97 @@
+package overflowdb;
+
+import org.junit.Test;
+import overflowdb.testdomains.gratefuldead.Artist;
+import overflowdb.testdomains.gratefuldead.FollowedBy;
+import overflowdb.testdomains.gratefuldead.GratefulDead;
+import overflowdb.testdomains.gratefuldead.Song;
+import overflowdb.testdomains.gratefuldead.SungBy;
+import overflowdb.testdomains.simple.SimpleDomain;
+import overflowdb.testdomains.simple.TestEdge;
+import overflowdb.testdomains.simple.TestNode;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EdgeCursorTest {
+
+  @Test
+  public void walksOverEdgesWithoutInstantiatingThem() {
+    try (Graph graph = GratefulDead.newGraph()) {
+      Node song1 = graph.addNode(Song.label);
+      Node song2 = graph.addNode(Song.label);
+      Node song3 = graph.addNode(Song.label);
+      Node artist = graph.addNode(Artist.label);
+      song1.addEdge(FollowedBy.LABEL, song2, FollowedBy.WEIGHT, 2);
+      song1.addEdge(SungBy.LABEL, artist);
+      song1.addEdge(FollowedBy.LABEL, song3, FollowedBy.WEIGHT, 3);
+      song1.addEdge(FollowedBy.LABEL, song2);
+      song1.outE(FollowedBy.LABEL).next().remove();
+
+      // layout order: SungBy first, removed edges are skipped
+      EdgeCursor cursor = song1.outEdgeCursor();
+      assertTrue(cursor.advance());
+      assertEquals(SungBy.LABEL, cursor.label());
+      assertEquals(Direction.OUT, cursor.direction());
+      assertEquals(artist, cursor.otherNode());
+      assertNull(cursor.property(FollowedBy.WEIGHT));
+
+      assertTrue(cursor.advance());
+      assertEquals(FollowedBy.LABEL, cursor.label());
+      assertEquals(song3, cursor.otherNode());
+      assertEquals(Integer.valueOf(3), cursor.property(FollowedBy.WEIGHT));
+      Edge edge = cursor.toEdge();
+      assertEquals(song1, edge.outNode());
+      assertEquals(song3, edge.inNode());
+      assertEquals(Integer.valueOf(3), edge.property(FollowedBy.WEIGHT));
+
+      assertTrue(cursor.advance());
+      assertEquals(song2, cursor.otherNode());
+      assertNull(cursor.property(FollowedBy.WEIGHT));
+      assertFalse(cursor.advance());
+      assertFalse(cursor.advance());
+
+      EdgeCursor inCursor = song3.inEdgeCursor(FollowedBy.LABEL, "unknown");
+      assertTrue(inCursor.advance());
+      assertEquals(Direction.IN, inCursor.direction());
+      assertEquals(song1, inCursor.outNode());
+      assertEquals(song3, inCursor.inNode());
+      assertEquals(Integer.valueOf(3), inCursor.property(FollowedBy.WEIGHT));
+      inCursor.toEdge().setProperty(FollowedBy.WEIGHT, 4);
+      assertFalse(inCursor.advance());
+      assertEquals(Integer.valueOf(4), song1.outE(FollowedBy.LABEL).next().property(FollowedBy.WEIGHT));
+
+      assertFalse(song2.outEdgeCursor().advance());
+    }
+  }
+
+  @Test
+  public void appliesEdgePropertyDefaults() {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      Node n0 = graph.addNode(TestNode.LABEL);
+      Node n1 = graph.addNode(TestNode.LABEL);
+      n0.addEdge(TestEdge.LABEL, n1);
+      n0.addEdge(TestEdge.LABEL, n1, TestEdge.LONG_PROPERTY, 1L);
+      n0.addEdge(TestEdge.LABEL, n1);
+
+      // same values as via `outE`, i.e. the default for edges that don't have the property set
+      EdgeCursor cursor = n0.outEdgeCursor(TestEdge.LABEL);
+      Iterator<Edge> edges = n0.outE(TestEdge.LABEL);
+      for (long expected : new long[]{TestEdge.LONG_PROPERTY_DEFAULT, 1L, TestEdge.LONG_PROPERTY_DEFAULT}) {
+        assertTrue(cursor.advance());
+        assertEquals(Long.valueOf(expected), cursor.property(TestEdge.LONG_PROPERTY));
+        assertEquals(Long.valueOf(expected), edges.next().property(TestEdge.LONG_PROPERTY));
+      }
+      assertFalse(cursor.advance());
+
+      EdgeCursor inCursor = n1.inEdgeCursor(TestEdge.LABEL);
+      assertTrue(inCursor.advance());
+      assertEquals(Long.valueOf(TestEdge.LONG_PROPERTY_DEFAULT), inCursor.property(TestEdge.LONG_PROPERTY));
+      assertNull(inCursor.property("unknown"));
+    }
+  }
+}
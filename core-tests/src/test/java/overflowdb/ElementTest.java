@@ -20,6 +20,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ElementTest {
@@ -555,6 +556,27 @@ public class ElementTest {
     }
   }
 
+  @Test
+  public void stringEdgePropertyValuesAreInterned() {
+    try (Graph graph = GratefulDead.newGraph()) {
+      Node song1 = graph.addNode(Song.label);
+      Node song2 = graph.addNode(Song.label);
+      Node song3 = graph.addNode(Song.label);
+      // edge property values aren't typed in the schema, so a string weight is stored like any other value
+      Edge e1 = song1.addEdge(FollowedBy.LABEL, song2, FollowedBy.WEIGHT, new String("heavy"));
+      Edge e2 = song2.addEdge(FollowedBy.LABEL, song3, FollowedBy.WEIGHT, new String("heavy"));
+      Edge e3 = song3.addEdge(FollowedBy.LABEL, song1);
+      e3.setProperty(FollowedBy.WEIGHT, new String("heavy"));
+
+      Object value1 = song1.outE(FollowedBy.LABEL).next().property(FollowedBy.WEIGHT);
+      assertEquals("heavy", value1);
+      assertSame(value1, song3.inE(FollowedBy.LABEL).next().property(FollowedBy.WEIGHT));
+      assertSame(value1, e2.property(FollowedBy.WEIGHT));
+      assertSame(value1, song3.outE(FollowedBy.LABEL).next().property(FollowedBy.WEIGHT));
+      assertSame(value1, e1.property(FollowedBy.WEIGHT));
+    }
+  }
+
   @Test
   public void shouldAllowToSpecifyIds() {
     try(Graph graph = GratefulDead.newGraph()) {
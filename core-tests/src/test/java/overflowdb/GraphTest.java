@@ -9,12 +9,18 @@ import overflowdb.testdomains.gratefuldead.WrittenBy;
 import overflowdb.testdomains.simple.SimpleDomain;
 import overflowdb.testdomains.simple.TestEdge;
 import overflowdb.testdomains.simple.TestNode;
+import overflowdb.util.IteratorUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class GraphTest {
 
@@ -49,6 +55,9 @@ public class GraphTest {
     song2.remove();
     assertEquals(3, graph.nodeCount());
     assertEquals(1, graph.edgeCount());
+    assertEquals(1, graph.edgeCount(WrittenBy.LABEL));
+    assertEquals(0, graph.edgeCount(FollowedBy.LABEL));
+    assertEquals(1, graph.edgeCountByLabel().size());
 
     Map<String, Integer> nodeCountByLabel = graph.nodeCountByLabel();
     assertEquals(2, nodeCountByLabel.size());
@@ -56,6 +65,164 @@ public class GraphTest {
     assertEquals(Integer.valueOf(1), nodeCountByLabel.get(Song.label));
   }
 
+  @Test
+  public void residentBytesByLabel() {
+    try (Graph graph = GratefulDead.newGraph(Config.withDefaults())) {
+      NodeRef artist = (NodeRef) graph.addNode(Artist.label);
+      NodeRef song1 = (NodeRef) graph.addNode(Song.label);
+      NodeRef song2 = (NodeRef) graph.addNode(Song.label);
+      int sizeBefore = song1.get().estimatedSizeInBytes();
+      song1.addEdge(WrittenBy.LABEL, artist);
+      song1.addEdge(FollowedBy.LABEL, song2);
+      assertTrue(song1.get().estimatedSizeInBytes() > sizeBefore);
+
+      Map<String, Long> bytesByLabel = graph.residentBytesByLabel();
+      assertEquals(2, bytesByLabel.size());
+      assertEquals(Long.valueOf(artist.get().estimatedSizeInBytes()), bytesByLabel.get(Artist.label));
+      assertEquals(Long.valueOf(song1.get().estimatedSizeInBytes() + song2.get().estimatedSizeInBytes()), bytesByLabel.get(Song.label));
+
+      // cleared nodes aren't resident any longer
+      graph.referenceManager.clearAllReferences();
+      assertTrue(graph.residentBytesByLabel().isEmpty());
+    }
+  }
+
+  @Test
+  public void addNodesInBulk() {
+    try (Graph graph = GratefulDead.newGraph(Config.withDefaults())) {
+      Node first = graph.addNode(Song.label, Song.NAME, "first");
+
+      Map<String, Object[]> properties = new HashMap<>();
+      properties.put(Song.NAME, new Object[]{"Song 1", "Song 2", "Song 3"});
+      properties.put(Song.SONG_TYPE, new Object[]{"cover", null, "original"});
+      List<Node> songs = graph.addNodes(Song.label, 3, properties);
+      Node last = graph.addNode(Song.label, Song.NAME, "last");
+
+      assertEquals(3, songs.size());
+      assertEquals(first.id() + 1, songs.get(0).id());
+      assertEquals(first.id() + 3, songs.get(2).id());
+      assertEquals(first.id() + 4, last.id());
+      assertEquals(5, graph.nodeCount(Song.label));
+      assertEquals(songs.get(1), graph.node(first.id() + 2));
+      assertEquals("Song 2", songs.get(1).property(Song.NAME));
+      assertEquals("cover", songs.get(0).property(Song.SONG_TYPE));
+      assertFalse(songs.get(1).propertyOption(Song.SONG_TYPE).isPresent());
+
+      songs.get(0).addEdge(FollowedBy.LABEL, songs.get(1));
+      assertEquals(songs.get(1), songs.get(0).out().next());
+    }
+  }
+
+  @Test
+  public void addNodesInBulkSkipsExplicitlyTakenIds() {
+    try (Graph graph = GratefulDead.newGraph(Config.withDefaults().withIdBlockSize(100))) {
+      Node first = graph.addNode(Song.label);
+      // n.b. doesn't affect the id block that's already leased by this thread
+      Node explicit = graph.addNode(first.id() + 3, Song.label);
+
+      List<Node> songs = graph.addNodes(Song.label, 5, Collections.singletonMap(Song.NAME, new Object[]{"1", "2", "3", "4", "5"}));
+      assertEquals(7, graph.nodeCount());
+      assertEquals(explicit, graph.node(first.id() + 3));
+      for (Node song : songs) {
+        assertTrue(song.id() != explicit.id());
+        assertEquals(song, graph.node(song.id()));
+      }
+      assertEquals("3", songs.get(2).property(Song.NAME));
+    }
+  }
+
+  @Test
+  public void trimAll() {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      Node n1 = graph.addNode(TestNode.LABEL);
+      Node n2 = graph.addNode(TestNode.LABEL);
+      Node n3 = graph.addNode(TestNode.LABEL);
+      n1.addEdge(TestEdge.LABEL, n2);
+      n1.addEdge(TestEdge.LABEL, n3);
+      n2.addEdge(TestEdge.LABEL, n3);
+
+      assertTrue(graph.trimAll() > 0);
+      assertEquals(0, graph.trimAll());
+      assertEquals(3, graph.edgeCount());
+      assertEquals(2, IteratorUtils.toArrayList(n1.out()).size());
+      assertEquals(2, IteratorUtils.toArrayList(n3.in()).size());
+
+      // adding edges after trimming preallocates again
+      n3.addEdge(TestEdge.LABEL, n1);
+      assertTrue(graph.trimAll() > 0);
+      assertEquals(n1, n3.out().next());
+    }
+  }
+
+  @Test
+  public void compactsRemovedEdges() {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      NodeRef<?> hub = (NodeRef<?>) graph.addNode(TestNode.LABEL);
+      List<Node> others = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        Node other = graph.addNode(TestNode.LABEL);
+        others.add(other);
+        hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, (long) i);
+      }
+      graph.trimAll();
+      int strideSize = hub.get().getStrideSize(TestEdge.LABEL);
+      assertEquals(100 * strideSize, hub.get().getAdjacentNodes().nodesWithEdgeProperties.length);
+
+      // removing less than half of the edges doesn't compact yet
+      List<Edge> edges = IteratorUtils.toArrayList(hub.outE());
+      for (int i = 0; i < 40; i++) edges.get(i).remove();
+      assertEquals(0, hub.get().compactIfSparse());
+
+      for (int i = 40; i < 50; i++) edges.get(i).remove();
+      // removing the same edge twice doesn't count twice
+      edges.get(0).remove();
+      assertEquals(50, hub.get().compactIfSparse());
+      assertEquals(0, hub.get().compactIfSparse());
+      // keeps the capacity, but the remaining edges are moved to the start of the block
+      assertEquals(100 * strideSize, hub.get().getAdjacentNodes().nodesWithEdgeProperties.length);
+      assertEquals(others.subList(50, 100), IteratorUtils.toArrayList(hub.out()));
+      assertEquals(50, graph.edgeCount());
+
+      // blockOffsets changed, i.e. edges need to be looked up again
+      edges = IteratorUtils.toArrayList(hub.outE());
+      for (int i = 0; i < 10; i++) edges.get(i).remove();
+      edges.get(10).setProperty(TestEdge.LONG_PROPERTY, 1000L);
+      // trimming drops the removed edges as well
+      graph.trimAll();
+      assertEquals(40 * strideSize, hub.get().getAdjacentNodes().nodesWithEdgeProperties.length);
+      assertEquals(others.subList(60, 100), IteratorUtils.toArrayList(hub.out()));
+      assertEquals(Long.valueOf(1000), hub.outE().next().property(TestEdge.LONG_PROPERTY));
+      assertEquals(Long.valueOf(61), others.get(61).inE().next().property(TestEdge.LONG_PROPERTY));
+      assertEquals(40, graph.edgeCount());
+      for (Node other : others.subList(0, 60)) assertFalse(other.in().hasNext());
+    }
+  }
+
+  @Test
+  public void addNodesWhileIterating() {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      for (int i = 0; i < 10; i++) graph.addNode(TestNode.LABEL);
+
+      // the iterator covers the nodes that exist when it's created, i.e. this terminates
+      int visited = 0;
+      Iterator<Node> nodes = graph.nodes();
+      while (nodes.hasNext()) {
+        nodes.next();
+        graph.addNode(TestNode.LABEL);
+        visited++;
+      }
+      assertEquals(10, visited);
+      assertEquals(20, graph.nodeCount());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addNodesInBulkRequiresValuesForAllNodes() {
+    try (Graph graph = GratefulDead.newGraph()) {
+      graph.addNodes(Song.label, 2, Collections.singletonMap(Song.NAME, new Object[]{"Song 1"}));
+    }
+  }
+
   @Test
   public void shouldDeepCloneGraph() {
     Config config = Config.withoutOverflow();
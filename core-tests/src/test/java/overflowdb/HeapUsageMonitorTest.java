@@ -0,0 +1,109 @@
+package overflowdb;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeapUsageMonitorTest {
+
+  @Test
+  public void heapPressure() {
+    assertEquals(0f, HeapUsageMonitor.heapPressure(0.8f, 0.8f, 0.9f), 0.001f);
+    assertEquals(0.5f, HeapUsageMonitor.heapPressure(0.85f, 0.8f, 0.9f), 0.001f);
+    assertEquals(1f, HeapUsageMonitor.heapPressure(0.9f, 0.8f, 0.9f), 0.001f);
+    assertEquals(1f, HeapUsageMonitor.heapPressure(0.99f, 0.8f, 0.9f), 0.001f);
+    assertEquals(1f, HeapUsageMonitor.heapPressure(0.85f, 0.9f, 0.9f), 0.001f);
+  }
+
+  @Test
+  public void samplerNotifiesAboveSoftThreshold() throws InterruptedException {
+    RecordingListener listener = new RecordingListener();
+    promoteSomeObjectsToOldGen();
+    try (HeapUsageMonitor monitor = new HeapUsageMonitor(0, 100, HeapUsageMonitor.Mode.USAGE_THRESHOLDS, 10, listener)) {
+      assertTrue("listener should have been notified", listener.softNotifications.await(10, TimeUnit.SECONDS));
+      assertEquals(1, listener.hardNotifications.getCount());
+    }
+  }
+
+  @Test
+  public void samplerNotifiesAboveHardThreshold() throws InterruptedException {
+    RecordingListener listener = new RecordingListener();
+    promoteSomeObjectsToOldGen();
+    try (HeapUsageMonitor monitor = new HeapUsageMonitor(0, 0, HeapUsageMonitor.Mode.USAGE_THRESHOLDS, 10, listener)) {
+      assertTrue("listener should have been notified", listener.hardNotifications.await(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void restoresPoolThresholdsOnClose() {
+    List<MemoryPoolMXBean> pools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+          && pool.isCollectionUsageThresholdSupported() && pool.getUsage().getMax() > 0) {
+        pools.add(pool);
+      }
+    }
+    Assume.assumeFalse("no memory pool supports usage thresholds", pools.isEmpty());
+
+    // n.b. a threshold of 0 disables the notifications, i.e. use values that matter for other users of the pools
+    List<long[]> previous = new ArrayList<>();
+    for (MemoryPoolMXBean pool : pools) {
+      long[] thresholds = new long[]{pool.getUsage().getMax() / 3, pool.getUsage().getMax() / 4};
+      pool.setUsageThreshold(thresholds[0]);
+      pool.setCollectionUsageThreshold(thresholds[1]);
+      previous.add(thresholds);
+    }
+    try {
+      try (HeapUsageMonitor monitor = new HeapUsageMonitor(90, 95, HeapUsageMonitor.Mode.USAGE_THRESHOLDS, 0, new RecordingListener())) {
+        for (int i = 0; i < pools.size(); i++) {
+          assertNotEquals(previous.get(i)[0], pools.get(i).getUsageThreshold());
+          assertNotEquals(previous.get(i)[1], pools.get(i).getCollectionUsageThreshold());
+        }
+      }
+      for (int i = 0; i < pools.size(); i++) {
+        assertEquals(previous.get(i)[0], pools.get(i).getUsageThreshold());
+        assertEquals(previous.get(i)[1], pools.get(i).getCollectionUsageThreshold());
+      }
+    } finally {
+      for (MemoryPoolMXBean pool : pools) {
+        pool.setUsageThreshold(0);
+        pool.setCollectionUsageThreshold(0);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void hardThresholdMustNotBeBelowSoftThreshold() {
+    new HeapUsageMonitor(80, 70, HeapUsageMonitor.Mode.USAGE_THRESHOLDS, 0, new RecordingListener());
+  }
+
+  private void promoteSomeObjectsToOldGen() {
+    System.gc();
+  }
+
+  private static class RecordingListener implements HeapUsageMonitor.HeapNotificationListener {
+    final CountDownLatch softNotifications = new CountDownLatch(1);
+    final CountDownLatch hardNotifications = new CountDownLatch(1);
+
+    @Override
+    public void notifyHeapAboveThreshold(float heapPressure) {
+      softNotifications.countDown();
+    }
+
+    @Override
+    public void notifyHeapAboveHardThreshold() {
+      hardNotifications.countDown();
+    }
+  }
+}
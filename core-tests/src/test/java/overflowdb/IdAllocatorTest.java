@@ -0,0 +1,103 @@
+package overflowdb;
+
+import org.junit.Test;
+import overflowdb.testdomains.simple.SimpleDomain;
+import overflowdb.testdomains.simple.TestNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdAllocatorTest {
+
+  @Test
+  public void sequential() {
+    IdAllocator allocator = IdAllocator.sequential();
+    assertEquals(0, allocator.next());
+    assertEquals(1, allocator.nextRange(3));
+    assertEquals(4, allocator.next());
+
+    allocator.reserve(2); // already handed out
+    assertEquals(5, allocator.next());
+    allocator.reserve(10);
+    assertEquals(11, allocator.next());
+  }
+
+  @Test
+  public void perThreadBlocks() throws InterruptedException {
+    IdAllocator allocator = IdAllocator.perThreadBlocks(4);
+    assertEquals(0, allocator.next());
+    assertEquals(1, allocator.nextRange(2));
+    assertEquals(3, allocator.next());
+    assertEquals(4, allocator.next()); // next block
+    assertEquals(8, allocator.nextRange(5)); // doesn't fit into the current block
+    assertEquals(5, allocator.next());
+
+    allocator.reserve(20);
+    AtomicLong idFromOtherThread = new AtomicLong();
+    Thread thread = new Thread(() -> idFromOtherThread.set(allocator.next()));
+    thread.start();
+    thread.join();
+    assertEquals(21, idFromOtherThread.get());
+  }
+
+  @Test
+  public void concurrentAddsGetUniqueDenseIds() throws InterruptedException {
+    final int threadCount = 4;
+    final int nodesPerThread = 10_000;
+    final int blockSize = 100;
+    try (Graph graph = SimpleDomain.newGraph(Config.withDefaults().withIdBlockSize(blockSize))) {
+      final ConcurrentHashMap<Long, Boolean> ids = new ConcurrentHashMap<>();
+      final List<Thread> threads = new ArrayList<>(threadCount);
+      for (int t = 0; t < threadCount; t++) {
+        Thread thread = new Thread(() -> {
+          for (int i = 0; i < nodesPerThread; i++) {
+            ids.put(graph.addNode(TestNode.LABEL).id(), true);
+          }
+        });
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) thread.join();
+
+      assertEquals(threadCount * nodesPerThread, ids.size());
+      assertEquals(threadCount * nodesPerThread, graph.nodeCount());
+      long maxId = ids.keySet().stream().mapToLong(Long::longValue).max().getAsLong();
+      assertTrue("ids should be dense, but max id was " + maxId, maxId < threadCount * (nodesPerThread + blockSize));
+    }
+  }
+
+  @Test
+  public void concurrentImportWithLargeBlocksResolvesAllIdsByArrayIndexing() throws InterruptedException {
+    final int threadCount = 4;
+    final int nodesPerThread = 100_000;
+    try (Graph graph = SimpleDomain.newGraph(Config.withDefaults().withIdBlockSize(100_000))) {
+      final List<Thread> threads = new ArrayList<>(threadCount);
+      for (int t = 0; t < threadCount; t++) {
+        threads.add(new Thread(() -> {
+          for (int i = 0; i < nodesPerThread; i++) graph.addNode(TestNode.LABEL);
+        }));
+      }
+      threads.forEach(Thread::start);
+      for (Thread thread : threads) thread.join();
+
+      assertEquals(threadCount * nodesPerThread, graph.nodeCount());
+      assertEquals(0, Misc.extractNodesList(graph).sparseIdCount());
+      graph.nodes().forEachRemaining(node -> assertEquals(node, graph.node(node.id())));
+    }
+  }
+
+  @Test
+  public void skipsIdsThatWereAddedExplicitly() {
+    try (Graph graph = SimpleDomain.newGraph(Config.withDefaults().withIdBlockSize(10))) {
+      Node first = graph.addNode(TestNode.LABEL);
+      // within the current block of this thread
+      graph.addNode(first.id() + 1, TestNode.LABEL);
+      assertEquals(first.id() + 2, graph.addNode(TestNode.LABEL).id());
+    }
+  }
+}
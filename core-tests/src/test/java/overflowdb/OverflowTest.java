@@ -1,6 +1,7 @@
 package overflowdb;
 
 import overflowdb.testdomains.simple.SimpleDomain;
+import overflowdb.testdomains.simple.TestEdge;
 import overflowdb.testdomains.simple.TestNode;
 
 import java.util.ArrayList;
@@ -34,4 +35,29 @@ public class OverflowTest {
     }
   }
 
+//  @Test
+  // only run manually since the timings vary depending on the environment
+  // allocates aggressively, to verify that the usage threshold monitor (incl. sampler) reacts early enough, i.e.
+  // before the JVM runs out of heap. try with different collectors, e.g. `-XX:+UseG1GC` and `-XX:+UseZGC`
+  // important: use all the following vm opts:  `-Xms256m -Xmx256m`
+  public void shouldNotRunOutOfMemoryWithUsageThresholdMonitoring() {
+    Config config = Config.withDefaults()
+        .withHeapPercentageThreshold(70)
+        .withHardHeapPercentageThreshold(85)
+        .withHeapUsageThresholdMonitoring()
+        .withHeapUsageSamplingIntervalMillis(20);
+    int nodeCount = 1_000_000;
+    try(Graph graph = SimpleDomain.newGraph(config)) {
+      Node previous = null;
+      for (long i = 0; i < nodeCount; i++) {
+        if (i % 10000 == 0) {
+          System.out.println(i + " nodes created; time spent in backpressure: " + graph.backpressureNanos() / 1_000_000 + "ms");
+        }
+        Node n = graph.addNode(TestNode.LABEL, TestNode.INT_LIST_PROPERTY, new int[1000]);
+        if (previous != null) previous.addEdge(TestEdge.LABEL, n);
+        previous = n;
+      }
+    }
+  }
+
 }
@@ -0,0 +1,61 @@
+package overflowdb;
+
+import org.junit.Test;
+import overflowdb.storage.NodesWriter;
+import overflowdb.storage.OdbStorage;
+import overflowdb.testdomains.simple.SimpleDomain;
+import overflowdb.testdomains.simple.TestNode;
+import overflowdb.util.StringInterner;
+
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceManagerTest {
+
+  @Test
+  public void softAndHardNotificationStartOnlyOneClearing() throws InterruptedException {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final OdbStorage storage = OdbStorage.createWithTempFile(new StringInterner());
+    try (Graph graph = SimpleDomain.newGraph()) {
+      final AtomicInteger clearings = new AtomicInteger();
+      final NodesWriter nodesWriter = new NodesWriter(null, storage) {
+        @Override
+        public void writeAndClearBatched(Spliterator<? extends Node> nodes, int estimatedTotalCount) {
+          clearings.incrementAndGet();
+        }
+      };
+      final ReferenceManager referenceManager = new ReferenceManager(storage, nodesWriter, executor);
+      referenceManager.registerRef((NodeRef) graph.addNode(TestNode.LABEL));
+
+      // keep the executor busy, so that the asynchronous clearing is scheduled but doesn't run yet
+      final CountDownLatch release = new CountDownLatch(1);
+      executor.submit(() -> {
+        release.await();
+        return null;
+      });
+      referenceManager.notifyHeapAboveThreshold(0.5f);
+      // the scheduled clearing counts as in progress, i.e. this must not start another one synchronously
+      referenceManager.notifyHeapAboveHardThreshold();
+      assertEquals(0, clearings.get());
+
+      release.countDown();
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+      assertEquals(1, clearings.get());
+
+      // and once it's done, the next notification starts a new one
+      referenceManager.registerRef((NodeRef) graph.addNode(TestNode.LABEL));
+      referenceManager.notifyHeapAboveHardThreshold();
+      assertEquals(2, clearings.get());
+    } finally {
+      storage.close();
+    }
+  }
+}
@@ -11,6 +11,7 @@ import overflowdb.NodeDb;
 import overflowdb.NodeFactory;
 import overflowdb.NodeLayoutInformation;
 import overflowdb.NodeRef;
+import overflowdb.util.IteratorUtils;
 
 import java.io.File;
 import java.io.IOException;
@@ -91,7 +92,8 @@ public class BackwardsCompatibilityTest {
     {
       Graph graph = SchemaV1.newEmptyGraph(config);
       assertEquals(2, graph.nodeCount());
-      assertEquals(1, graph.edgeCount());
+      // n.b. `edgeCount` doesn't deserialize the nodes, but iterating over the edges does
+      assertEquals(1, IteratorUtils.toArrayList(graph.edges()).size());
 
       graph.close();
     }
@@ -120,7 +122,8 @@ public class BackwardsCompatibilityTest {
     {
       Graph graph = SchemaV1.newEmptyGraph(config);
       assertEquals(2, graph.nodeCount());
-      assertEquals(1, graph.edgeCount());
+      // n.b. `edgeCount` doesn't deserialize the nodes, but iterating over the edges does
+      assertEquals(1, IteratorUtils.toArrayList(graph.edges()).size());
 
       graph.close();
     }
@@ -5,11 +5,13 @@ import overflowdb.Config;
 import overflowdb.Edge;
 import overflowdb.Graph;
 import overflowdb.Node;
+import overflowdb.NodeRef;
 import overflowdb.formats.graphml.GraphMLImporter;
 import overflowdb.testdomains.gratefuldead.FollowedBy;
 import overflowdb.testdomains.gratefuldead.GratefulDead;
 import overflowdb.testdomains.gratefuldead.Song;
 import overflowdb.util.IteratorUtils;
+import overflowdb.util.StringInterner;
 
 import java.io.File;
 import java.io.IOException;
@@ -19,6 +21,7 @@ import java.util.function.Function;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * save and restore a graph from disk overlay
@@ -89,6 +92,27 @@ public class GraphSaveRestoreTest {
     }
   }
 
+  @Test
+  public void shouldCountEdgesIfCountsWereNotPersisted() throws IOException {
+    final File storageFile = Files.createTempFile("overflowdb", "bin").toFile();
+    storageFile.deleteOnExit();
+
+    try (Graph graph = openGratefulDeadGraph(storageFile, false)) {
+      loadGraphMl(graph);
+    }
+
+    // simulate a graph that wasn't closed properly
+    OdbStorage storage = OdbStorage.createWithSpecificLocation(storageFile, new StringInterner());
+    assertTrue(storage.getEdgeCounts().isPresent());
+    storage.invalidateEdgeCounts();
+    storage.close();
+
+    try (Graph graph = openGratefulDeadGraph(storageFile, true)) {
+      assertEquals(8049, graph.edgeCount());
+      assertEquals(7047, graph.edgeCount(FollowedBy.LABEL));
+    }
+  }
+
   @Test
   public void shouldOnlySerializeChangedNodes() throws IOException {
     final File storageFile = Files.createTempFile("overflowdb", "bin").toFile();
@@ -171,6 +195,45 @@ public class GraphSaveRestoreTest {
     assertFalse("node should have been deleted from storage", getSongs(graph, "new song").hasNext());
   }
 
+  @Test
+  public void shouldPersistDirtyNodesInBackgroundWithWriteBehind() throws IOException, InterruptedException {
+    final File storageFile = Files.createTempFile("overflowdb", "bin").toFile();
+    storageFile.deleteOnExit();
+
+    Config config = Config.withoutOverflow()
+        .withSerializationStatsEnabled()
+        .withWriteBehindIntervalMillis(10)
+        .withStorageLocation(storageFile.getAbsolutePath());
+    try (Graph graph = GratefulDead.newGraph(config)) {
+      loadGraphMl(graph);
+      awaitAllNodesClean(graph);
+      int serializedCount = graph.nodeSerializer.getSerializedCount();
+      assertTrue(serializedCount >= 808);
+
+      // only the changed node should be written again
+      getSongs(graph, "YOUNG BLOOD").next().setProperty(Song.PERFORMANCES, 5);
+      awaitAllNodesClean(graph);
+      assertEquals(serializedCount + 1, graph.nodeSerializer.getSerializedCount());
+
+      graph.close();
+      // nothing left to persist on close
+      assertEquals(serializedCount + 1, graph.nodeSerializer.getSerializedCount());
+    }
+
+    try (Graph graph = openGratefulDeadGraph(storageFile, false)) {
+      assertEquals(808, graph.nodeCount());
+      assertEquals(5, (int) getSongs(graph, "YOUNG BLOOD").next().property(Song.PERFORMANCES));
+    }
+  }
+
+  private void awaitAllNodesClean(Graph graph) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (IteratorUtils.toArrayList(graph.nodes()).stream().anyMatch(node -> ((NodeRef) node).get().isDirty())) {
+      assertTrue("timed out waiting for write-behind", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
   private void modifyAndCloseGraph(File storageFile, Function<Graph, Integer> graphModifications) {
     Graph graph = openGratefulDeadGraph(storageFile, false);
     int expectedSerializationCount = graphModifications.apply(graph);
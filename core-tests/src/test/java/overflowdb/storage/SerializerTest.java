@@ -22,6 +22,7 @@ import java.util.function.Function;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class SerializerTest {
 
@@ -121,6 +122,38 @@ public class SerializerTest {
     }
   }
 
+  @Test
+  public void sizeEstimateCountsSerializedPropertiesOnly() throws IOException {
+    try (Graph graph = SimpleDomain.newGraph()) {
+      NodeSerializer serializer = new NodeSerializer(false, graph.getStorage());
+      NodeDeserializer deserializer = newDeserializer(graph);
+
+      TestNode testNode1 = (TestNode) graph.addNode(TestNode.LABEL, TestNode.STRING_PROPERTY, "StringValue");
+      TestNode testNode2 = (TestNode) graph.addNode(TestNode.LABEL);
+      for (long i = 0; i < 100; i++) {
+        testNode1.addEdge(TestEdge.LABEL, testNode2, TestEdge.LONG_PROPERTY, Long.MAX_VALUE - i);
+      }
+      TestNodeDb testNode1Db = testNode1.get();
+      TestNodeDb testNode2Db = testNode2.get();
+      final int sizeBefore1 = testNode1Db.estimatedSizeInBytes();
+      final int sizeBefore2 = testNode2Db.estimatedSizeInBytes();
+
+      // the edges are already accounted for by the adjacent nodes array, only the serialized properties come on top
+      final byte[] bytes1 = serializer.serialize(testNode1Db);
+      final int propertiesSize1 = testNode1Db.estimatedSizeInBytes() - sizeBefore1;
+      assertTrue(propertiesSize1 > "StringValue".length());
+      assertTrue(propertiesSize1 < 32);
+      serializer.serialize(testNode2Db);
+      assertTrue(testNode2Db.estimatedSizeInBytes() - sizeBefore2 < 8);
+
+      // the deserialized node records the same properties size
+      final TestNodeDb deserialized1 = (TestNodeDb) deserializer.deserialize(bytes1);
+      assertTrue(deserialized1.estimatedSizeInBytes() <= sizeBefore1 + propertiesSize1);
+      assertTrue(bytes1.length > 1000);
+      assertTrue(deserialized1.estimatedSizeInBytes() < bytes1.length);
+    }
+  }
+
   @Test
   public void serializeWithDefaultPropertyValues() throws IOException {
     File storageLocation = File.createTempFile("overflowdb-test", "bin");
@@ -0,0 +1,35 @@
+package overflowdb.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NodeIdIndexTest {
+
+  @Test
+  public void slotsBeyondIntRange() {
+    for (boolean offHeap : new boolean[]{false, true}) {
+      NodeIdIndex index = new NodeIdIndex(offHeap);
+      long largeSlot = NodeIdIndex.MAX_SLOTS - 1;
+      long denseId = 5;
+      long sparseId = Long.MAX_VALUE - 5;
+
+      assertEquals(NodeIdIndex.NO_SLOT, index.putIfAbsent(denseId, largeSlot));
+      assertEquals(NodeIdIndex.NO_SLOT, index.putIfAbsent(sparseId, 1L << 31));
+      assertEquals(largeSlot, index.get(denseId));
+      assertEquals(1L << 31, index.get(sparseId));
+      assertEquals(largeSlot, index.putIfAbsent(denseId, 0));
+
+      index.replace(denseId, 3_000_000_000L);
+      index.replace(sparseId, 0);
+      assertEquals(3_000_000_000L, index.get(denseId));
+      assertEquals(0, index.get(sparseId));
+
+      assertEquals(3_000_000_000L, index.remove(denseId));
+      assertEquals(0, index.remove(sparseId));
+      assertEquals(NodeIdIndex.NO_SLOT, index.get(denseId));
+      assertEquals(NodeIdIndex.NO_SLOT, index.get(sparseId));
+      assertEquals(NodeIdIndex.NO_SLOT, index.remove(sparseId));
+    }
+  }
+}
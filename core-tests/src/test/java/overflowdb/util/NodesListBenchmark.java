@@ -0,0 +1,190 @@
+package overflowdb.util;
+
+import overflowdb.Config;
+import overflowdb.Graph;
+import overflowdb.Node;
+import overflowdb.NodeRef;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Benchmarks for {@link NodesList} - only run manually since the timings vary depending on the environment, e.g.
+ * `sbt "coreTests/Test/runMain overflowdb.util.NodesListBenchmark"`
+ */
+public class NodesListBenchmark {
+  private static final Graph dummyGraph = Graph.open(Config.withoutOverflow(), new ArrayList<>(), new ArrayList<>());
+
+  public static void main(String[] args) throws InterruptedException {
+    parallelIngest();
+    labelTraversal();
+    nodeByIdLatencyAndMemory();
+    mixedRemoveAndLabelLookup();
+    compactionPauses();
+  }
+
+  /**
+   * nodes/s when adding nodes to a NodesList from multiple threads in parallel, every thread adds a consecutive range
+   * of ids - either reserved upfront like the id blocks that are leased with {@link Config#withIdBlockSize}, or not
+   */
+  public static void parallelIngest() throws InterruptedException {
+    final int nodeCount = 4_000_000;
+    final Node[] nodes = createDummyRefs(nodeCount);
+
+    for (boolean reserveIds : new boolean[]{true, false}) {
+      for (int threadCount : new int[]{1, 4, 16, 64, 1, 4, 16, 64}) {
+        NodesList nodesList = new NodesList();
+        if (reserveIds) nodesList.reserveDenseIds(0, nodeCount);
+        long elapsedNanos = addInParallel(nodesList, nodes, threadCount);
+        if (nodesList.size() != nodeCount) throw new AssertionError("expected " + nodeCount + " nodes, but got " + nodesList.size());
+        System.out.println(String.format("parallel ingest with %2d threads, %-12s: %,12.0f nodes/s",
+            threadCount, reserveIds ? "reserved ids" : "ids as added", nodeCount / (elapsedNanos / 1e9)));
+      }
+    }
+  }
+
+  /** nodes/s when iterating over all nodes of a label with {@link NodesList#labelIterator(String)}, single threaded */
+  public static void labelTraversal() {
+    final int nodeCount = 4_000_000;
+    NodesList nodesList = new NodesList();
+    for (Node node : createDummyRefs(nodeCount)) nodesList.add(node);
+
+    for (int run = 0; run < 5; run++) {
+      long checksum = 0;
+      final long startNanos = System.nanoTime();
+      for (int label = 0; label < 10; label++) {
+        Iterator<Node> iterator = nodesList.labelIterator("LABEL" + label);
+        while (iterator.hasNext()) checksum += iterator.next().id();
+      }
+      final long elapsedNanos = System.nanoTime() - startNanos;
+      System.out.println(String.format("label traversal: %,12.0f nodes/s (checksum %d)",
+          nodeCount / (elapsedNanos / 1e9), checksum));
+    }
+  }
+
+  /**
+   * latency of `nodeById` and memory overhead per node for dense ids (as handed out by Graph) compared to sparse ids,
+   * which take the hash map path, either on-heap or off-heap
+   */
+  public static void nodeByIdLatencyAndMemory() {
+    final int nodeCount = 2_000_000;
+    final long sparseIdOffset = 1L << 40;
+    for (int run = 0; run < 2; run++) {
+      for (String variant : new String[]{"dense", "sparse", "sparse off-heap"}) {
+        final boolean dense = variant.equals("dense");
+        final Node[] nodes = new Node[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+          long id = dense ? i : sparseIdOffset + i * 7919L;
+          nodes[i] = createDummyRef(id, "LABEL");
+        }
+
+        final long memoryBefore = usedMemory();
+        NodesList nodesList = new NodesList(10000, variant.endsWith("off-heap"));
+        for (Node node : nodes) nodesList.add(node);
+        final long memoryPerNode = (usedMemory() - memoryBefore) / nodeCount;
+
+        final int lookupCount = 20_000_000;
+        long checksum = 0;
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < lookupCount; i++) {
+          checksum += nodesList.nodeById(nodes[(i * 31) % nodeCount].id()).id();
+        }
+        final double nanosPerLookup = (double) (System.nanoTime() - startNanos) / lookupCount;
+        System.out.println(String.format("nodeById with %-15s ids: %5.1fns per lookup, ~%d heap bytes per node in NodesList (checksum %d)",
+            variant, nanosPerLookup, memoryPerNode, checksum));
+      }
+    }
+  }
+
+  /** ops/s for a workload that interleaves node removals with label lookups */
+  public static void mixedRemoveAndLabelLookup() {
+    final int nodeCount = 1_000_000;
+    final int removalCount = 200_000;
+    for (int run = 0; run < 2; run++) {
+      final Node[] nodes = createDummyRefs(nodeCount);
+      NodesList nodesList = new NodesList();
+      for (Node node : nodes) nodesList.add(node);
+
+      long checksum = 0;
+      final long startNanos = System.nanoTime();
+      for (int i = 0; i < removalCount; i++) {
+        Node node = nodes[(int) ((i * 7919L) % nodeCount)];
+        nodesList.remove(node);
+        checksum += nodesList.cardinality(node.label()) + nodesList.labelIterator(node.label()).next().id();
+      }
+      final long elapsedNanos = System.nanoTime() - startNanos;
+      System.out.println(String.format("mixed remove/label lookup: %,12.0f ops/s (checksum %d)",
+          removalCount / (elapsedNanos / 1e9), checksum));
+    }
+  }
+
+  /** pause times caused by compaction while removing most nodes */
+  public static void compactionPauses() {
+    final int nodeCount = 4_000_000;
+    final int removalCount = nodeCount * 9 / 10;
+    for (int run = 0; run < 2; run++) {
+      final Node[] nodes = createDummyRefs(nodeCount);
+      NodesList nodesList = new NodesList();
+      for (Node node : nodes) nodesList.add(node);
+
+      final long startNanos = System.nanoTime();
+      for (int i = 0; i < removalCount; i++) {
+        nodesList.remove(nodes[(int) ((i * 7919L) % nodeCount)]);
+      }
+      final long elapsedNanos = System.nanoTime() - startNanos;
+      System.out.println(String.format("remove 90%% of nodes: %,12.0f removals/s, compaction pauses: %,.1fms total, %,.3fms max",
+          removalCount / (elapsedNanos / 1e9), nodesList.getCompactionPauseNanos() / 1e6, nodesList.getMaxCompactionPauseNanos() / 1e6));
+    }
+  }
+
+  private static long usedMemory() {
+    for (int i = 0; i < 3; i++) System.gc();
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static long addInParallel(NodesList nodesList, Node[] nodes, int threadCount) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> threads = new ArrayList<>(threadCount);
+    final int nodesPerThread = nodes.length / threadCount;
+    for (int t = 0; t < threadCount; t++) {
+      final int from = t * nodesPerThread;
+      final int until = t == threadCount - 1 ? nodes.length : from + nodesPerThread;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        for (int i = from; i < until; i++) {
+          nodesList.add(nodes[i]);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) thread.join();
+    return System.nanoTime() - startNanos;
+  }
+
+  static Node[] createDummyRefs(int count) {
+    Node[] nodes = new Node[count];
+    for (int i = 0; i < count; i++) {
+      nodes[i] = createDummyRef(i, "LABEL" + (i % 10));
+    }
+    return nodes;
+  }
+
+  static NodeRef createDummyRef(long id, String label) {
+    return new NodeRef(dummyGraph, id) {
+      public String label() {
+        return label;
+      }
+    };
+  }
+}
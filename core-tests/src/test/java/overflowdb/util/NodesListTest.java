@@ -1,16 +1,28 @@
 package overflowdb.util;
 
 import org.junit.Test;
+import overflowdb.Node;
 import overflowdb.NodeRef;
 import overflowdb.Config;
 import overflowdb.Graph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
 import java.util.Vector;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.StreamSupport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class NodesListTest {
 
@@ -108,6 +120,250 @@ public class NodesListTest {
     assertEquals(ref3, nl.nodeById(3L));
   }
 
+  @Test
+  public void denseAndSparseIds() {
+    denseAndSparseIds(new NodesList());
+  }
+
+  @Test
+  public void denseAndSparseIdsWithOffHeapIndex() {
+    denseAndSparseIds(new NodesList(10000, true));
+  }
+
+  private void denseAndSparseIds(NodesList nl) {
+
+    // added before the dense part covers its id range, i.e. goes into the sparse part
+    NodeRef early = createDummyRef(20000L, "A");
+    NodeRef negative = createDummyRef(-5L, "A");
+    NodeRef huge = createDummyRef(Long.MAX_VALUE, "A");
+    nl.add(early);
+    nl.add(negative);
+    nl.add(huge);
+    for (int i = 0; i < 40000; i++) {
+      if (i != 20000) nl.add(createDummyRef(i, "B"));
+    }
+
+    assertEquals(40002, nl.size());
+    assertEquals(early, nl.nodeById(20000L));
+    assertEquals(negative, nl.nodeById(-5L));
+    assertEquals(huge, nl.nodeById(Long.MAX_VALUE));
+    assertEquals(39999L, nl.nodeById(39999L).id());
+    assertNull(nl.nodeById(40000L));
+
+    nl.remove(early);
+    nl.remove(nl.nodeById(123L));
+    assertNull(nl.nodeById(20000L));
+    assertNull(nl.nodeById(123L));
+    assertEquals(124L, nl.nodeById(124L).id());
+    assertEquals(40000, nl.size());
+  }
+
+  @Test
+  public void removeNodesMaintainsLabelIndex() {
+    NodesList nl = new NodesList();
+    NodeRef ref1 = createDummyRef(1L, "A");
+    NodeRef ref2 = createDummyRef(2L, "A");
+    NodeRef ref3 = createDummyRef(3L, "A");
+    NodeRef ref4 = createDummyRef(4L, "B");
+    nl.add(ref1);
+    nl.add(ref2);
+    nl.add(ref3);
+    nl.add(ref4);
+
+    // the remaining nodes keep their order
+    nl.remove(ref1);
+    assertEquals(Arrays.asList(ref2, ref3), nl.nodesByLabel("A"));
+    nl.remove(ref3);
+    assertEquals(Arrays.asList(ref2), nl.nodesByLabel("A"));
+    nl.remove(ref2);
+    assertTrue(nl.nodesByLabel("A").isEmpty());
+    assertEquals(Arrays.asList(ref4), nl.nodesByLabel("B"));
+    assertEquals(1, nl.cardinality("B"));
+    assertEquals(new HashSet<>(Arrays.asList("B")), nl.nodeLabels());
+
+    // positions must survive compaction
+    for (int i = 10; i < 30; i++) nl.add(createDummyRef(i, "A"));
+    nl.remove(nl.nodeById(10));
+    nl.compact();
+    nl.remove(nl.nodeById(20));
+    nl.remove(nl.nodeById(29));
+    assertEquals(17, nl.cardinality("A"));
+    for (Node node : nl.nodesByLabel("A")) {
+      assertEquals(node, nl.nodeById(node.id()));
+    }
+  }
+
+  @Test
+  public void removeEarlierNodesWhileIteratingOverLabel() {
+    NodesList nl = new NodesList();
+    for (int i = 0; i < 100; i++) {
+      nl.add(createDummyRef(i, i % 2 == 0 ? "A" : "B"));
+    }
+
+    // remove nodes that have been returned already, including enough of them to compact the label index
+    List<Long> visited = new ArrayList<>();
+    Iterator<Node> iter = nl.labelIterator("A");
+    while (iter.hasNext()) {
+      Node node = iter.next();
+      visited.add(node.id());
+      if (visited.size() > 1) nl.remove(nl.nodeById(visited.get(visited.size() - 2)));
+    }
+    List<Long> expected = new ArrayList<>();
+    for (long i = 0; i < 100; i += 2) expected.add(i);
+    assertEquals(expected, visited);
+    assertEquals(1, nl.cardinality("A"));
+    assertEquals(Arrays.asList(nl.nodeById(98)), nl.nodesByLabel("A"));
+    assertEquals(50, nl.cardinality("B"));
+
+    // the same for the spliterator
+    Spliterator<Node> spliterator = nl.labelSpliterator("B");
+    List<Long> visitedB = new ArrayList<>();
+    spliterator.forEachRemaining(node -> {
+      visitedB.add(node.id());
+      if (node.id() > 1) nl.remove(nl.nodeById(node.id() - 2));
+    });
+    assertEquals(50, visitedB.size());
+    assertEquals(1, nl.cardinality("B"));
+  }
+
+  @Test
+  public void removeNodesWhileIteratingOverLabel() {
+    NodesList nl = new NodesList();
+    for (int i = 0; i < 100; i++) {
+      nl.add(createDummyRef(i, i % 2 == 0 ? "A" : "B"));
+    }
+
+    int visited = 0;
+    Iterator<Node> iter = nl.labelIterator("A");
+    while (iter.hasNext()) {
+      Node node = iter.next();
+      if (node.id() % 4 == 0) nl.remove(node);
+      visited++;
+    }
+    assertEquals(50, visited);
+    assertEquals(25, nl.cardinality("A"));
+    assertEquals(50, nl.cardinality("B"));
+  }
+
+  @Test
+  public void iteratorIsWeaklyConsistent() {
+    NodesList nl = new NodesList(2);
+    for (int i = 0; i < 10; i++) nl.add(createDummyRef(i, "A"));
+
+    Iterator<Node> live = nl.iterator();
+    Iterator<Node> snapshot = nl.snapshotIterator();
+    assertEquals(0L, live.next().id());
+
+    // concurrent modifications: remove a node that hasn't been visited yet, and append some more (incl. new segments)
+    nl.remove(nl.nodeById(5));
+    for (int i = 10; i < 100; i++) nl.add(createDummyRef(i, "A"));
+
+    int liveCount = 1;
+    while (live.hasNext()) {
+      assertTrue(live.next().id() != 5);
+      liveCount++;
+    }
+    // slot of the removed node has been reused by one of the new ones, the appended ones are beyond the iterator's range
+    assertEquals(10, liveCount);
+
+    int snapshotCount = 0;
+    while (snapshot.hasNext()) {
+      snapshot.next();
+      snapshotCount++;
+    }
+    assertEquals(10, snapshotCount);
+  }
+
+  @Test
+  public void iteratorAccountsForNodesMovedByCompaction() {
+    NodesList nl = new NodesList();
+    final int nodeCount = 100_000;
+    for (int i = 0; i < nodeCount; i++) nl.add(createDummyRef(i, "A"));
+
+    Iterator<Node> iterator = nl.iterator();
+    for (int i = 0; i < 1000; i++) iterator.next();
+    Spliterator<Node> spliterator = nl.spliterator();
+    Spliterator<Node> prefix = spliterator.trySplit();
+
+    // remove most nodes, except for the ones at the end: these get moved into the empty slots
+    for (int i = 0; i < 90_000; i++) nl.remove(nl.nodeById(i));
+    assertTrue("should have compacted", nl._elementDataSize() < nodeCount);
+    assertTrue(nl.getCompactionPauseNanos() > 0);
+    assertTrue(nl.getMaxCompactionPauseNanos() <= nl.getCompactionPauseNanos());
+
+    HashSet<Long> ids = new HashSet<>();
+    iterator.forEachRemaining(node -> {
+      if (node.id() >= 90_000) assertTrue("returned twice: " + node, ids.add(node.id()));
+    });
+    assertEquals(10_000, ids.size());
+
+    ids.clear();
+    prefix.forEachRemaining(node -> assertTrue("returned twice: " + node, ids.add(node.id())));
+    spliterator.forEachRemaining(node -> assertTrue("returned twice: " + node, ids.add(node.id())));
+    assertEquals(10_000, ids.size());
+
+    for (long id = 90_000; id < nodeCount; id++) assertEquals(id, nl.nodeById(id).id());
+    assertEquals(10_000, nl.nodesByLabel("A").size());
+  }
+
+  @Test
+  public void removeAllNodesWhileIterating() {
+    NodesList nl = new NodesList();
+    for (int i = 0; i < 100_000; i++) nl.add(createDummyRef(i, "A"));
+
+    Iterator<Node> iterator = nl.iterator();
+    while (iterator.hasNext()) nl.remove(iterator.next());
+    assertEquals(0, nl.size());
+    assertEquals(0, nl.nodesByLabel("A").size());
+  }
+
+  @Test
+  public void spliteratorSplitsAlongSlotRanges() {
+    NodesList nl = new NodesList();
+    final int nodeCount = 10_000;
+    for (int i = 0; i < nodeCount; i++) nl.add(createDummyRef(i, "A" + (i % 2)));
+    for (int i = 0; i < nodeCount; i += 10) nl.remove(nl.nodeById(i));
+
+    Spliterator<Node> spliterator = nl.spliterator();
+    assertEquals(9_000, spliterator.estimateSize());
+    Spliterator<Node> prefix = spliterator.trySplit();
+    assertNotNull(prefix);
+    assertEquals(9_000, prefix.estimateSize() + spliterator.estimateSize(), 1);
+
+    HashSet<Long> ids = new HashSet<>();
+    prefix.forEachRemaining(node -> assertTrue(ids.add(node.id())));
+    spliterator.forEachRemaining(node -> assertTrue(ids.add(node.id())));
+    assertEquals(9_000, ids.size());
+
+    assertEquals(9_000, StreamSupport.stream(nl.spliterator(), true).count());
+    assertEquals(4_000, StreamSupport.stream(nl.labelSpliterator("A0"), true).distinct().count());
+    assertEquals(5_000, StreamSupport.stream(nl.labelSpliterator("A1"), true).distinct().count());
+    assertEquals(0, StreamSupport.stream(nl.labelSpliterator("B"), true).count());
+  }
+
+  @Test
+  public void addAll() {
+    NodesList nl = new NodesList(10);
+    nl.add(createDummyRef(0, "A"));
+    nl.addAll(Arrays.asList(createDummyRef(1, "A"), createDummyRef(2, "A"), createDummyRef(3, "B"), createDummyRef(4, "A")));
+    assertEquals(5, nl.size());
+    assertEquals(4, nl.cardinality("A"));
+    assertEquals(1, nl.cardinality("B"));
+    assertEquals(3L, nl.nodeById(3).id());
+
+    try {
+      nl.addAll(Arrays.asList(createDummyRef(5, "A"), createDummyRef(2, "A"), createDummyRef(6, "A")));
+      fail("expected AssertionError for duplicate id");
+    } catch (AssertionError e) {
+      // expected - the nodes before the duplicate have been added, the others haven't
+    }
+    assertEquals(6, nl.size());
+    assertEquals(5, nl.cardinality("A"));
+    assertNull(nl.nodeById(6));
+    nl.remove(nl.nodeById(5));
+    assertEquals(5, nl.size());
+  }
+
   @Test(expected = AssertionError.class)
   public void idsAreUnique() {
     NodesList nl = new NodesList();
@@ -183,6 +439,128 @@ public class NodesListTest {
 
 
 
+  @Test
+  public void concurrentAddRemoveAndLookup() throws InterruptedException {
+    NodesList nl = new NodesList(10);
+    final int writerCount = 4;
+    final int nodesPerWriter = 50_000;
+    final AtomicBoolean writersDone = new AtomicBoolean(false);
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+    List<Thread> writers = new ArrayList<>();
+    for (int t = 0; t < writerCount; t++) {
+      final long firstId = (long) t * nodesPerWriter;
+      writers.add(new Thread(() -> {
+        try {
+          for (long id = firstId; id < firstId + nodesPerWriter; id++) {
+            NodeRef node = createDummyRef(id, id % 2 == 0 ? "A" : "B");
+            nl.add(node);
+            assertEquals(node, nl.nodeById(id));
+            // remove every third node again, a bit later, so that removals, compaction and adds interleave
+            if (id % 3 == 0 && id - 300 >= firstId) nl.remove(nl.nodeById(id - 300));
+          }
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      }));
+    }
+    // readers walk the label index and look up nodes while the writers are busy
+    List<Thread> readers = new ArrayList<>();
+    for (String label : Arrays.asList("A", "B")) {
+      readers.add(new Thread(() -> {
+        try {
+          while (!writersDone.get()) {
+            Iterator<Node> iterator = nl.labelIterator(label);
+            while (iterator.hasNext()) assertEquals(label, iterator.next().label());
+            StreamSupport.stream(nl.labelSpliterator(label), true).forEach(node -> assertEquals(label, node.label()));
+            long id = ThreadLocalRandom.current().nextLong(writerCount * nodesPerWriter);
+            Node node = nl.nodeById(id);
+            if (node != null) assertEquals(id, node.id());
+          }
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      }));
+    }
+    readers.forEach(Thread::start);
+    writers.forEach(Thread::start);
+    for (Thread writer : writers) writer.join();
+    writersDone.set(true);
+    for (Thread reader : readers) reader.join();
+    assertEquals(Collections.emptyList(), errors);
+
+    HashSet<Long> expectedIds = new HashSet<>();
+    for (int t = 0; t < writerCount; t++) {
+      final long firstId = (long) t * nodesPerWriter;
+      for (long id = firstId; id < firstId + nodesPerWriter; id++) {
+        if (id % 3 != 0 || id >= firstId + nodesPerWriter - 300) expectedIds.add(id);
+      }
+    }
+    assertEquals(expectedIds.size(), nl.size());
+    for (long id = 0; id < writerCount * nodesPerWriter; id++) {
+      Node node = nl.nodeById(id);
+      if (expectedIds.contains(id)) assertEquals(id, node.id());
+      else assertNull(node);
+    }
+    HashSet<Long> idsByLabel = new HashSet<>();
+    for (String label : Arrays.asList("A", "B")) {
+      Iterator<Node> iterator = nl.labelIterator(label);
+      int count = 0;
+      while (iterator.hasNext()) {
+        assertTrue(idsByLabel.add(iterator.next().id()));
+        count++;
+      }
+      assertEquals(count, nl.cardinality(label));
+    }
+    assertEquals(expectedIds, idsByLabel);
+  }
+
+  @Test
+  public void slotsAreAddressableBeyondIntRange() {
+    for (int minBaseCapacity : Arrays.asList(1, 10_000, 1 << 20)) {
+      NodesList.Slots slots = new NodesList.Slots(minBaseCapacity);
+      long[] indexes = {0, 15, 16, 10_000, (1L << 30) - 1, 1L << 30, Integer.MAX_VALUE, 1L << 31, (1L << 31) + 1,
+          3L << 30, (3L << 30) + 5, NodeIdIndex.MAX_SLOTS - 1};
+      long previousSegmentEnd = 0;
+      for (int segmentIndex = 0; previousSegmentEnd < NodeIdIndex.MAX_SLOTS; segmentIndex++) {
+        // segments are adjacent, and never exceed the maximum array size
+        assertEquals(previousSegmentEnd, slots.segmentStart(segmentIndex));
+        assertTrue(slots.segmentLength(segmentIndex) <= 1 << 30);
+        previousSegmentEnd = slots.segmentStart(segmentIndex) + slots.segmentLength(segmentIndex);
+      }
+      for (long index : indexes) {
+        int segmentIndex = slots.segmentIndex(index);
+        assertTrue(index >= slots.segmentStart(segmentIndex));
+        assertTrue(index < slots.segmentStart(segmentIndex) + slots.segmentLength(segmentIndex));
+      }
+    }
+  }
+
+  @Test
+  public void longBitSet() {
+    NodesList.LongBitSet bits = new NodesList.LongBitSet();
+    long beyondInt = (1L << 31) + 7;
+    assertEquals(-1, bits.nextSetBit(0));
+    assertEquals(beyondInt, bits.previousClearBit(beyondInt));
+    assertEquals(-1, bits.previousClearBit(-1));
+
+    bits.set(3);
+    bits.set(beyondInt);
+    bits.set(beyondInt - 1);
+    assertEquals(3, bits.nextSetBit(0));
+    assertEquals(beyondInt - 1, bits.nextSetBit(4));
+    assertEquals(beyondInt - 2, bits.previousClearBit(beyondInt));
+    assertEquals(beyondInt + 1, bits.previousClearBit(beyondInt + 1));
+
+    bits.clear(4, beyondInt);
+    assertEquals(beyondInt, bits.nextSetBit(4));
+    bits.clear(beyondInt);
+    assertEquals(-1, bits.nextSetBit(4));
+    assertEquals(3, bits.nextSetBit(0));
+    bits.clear(0, 4);
+    assertEquals(-1, bits.nextSetBit(0));
+  }
+
   private NodeRef createDummyRef(long id, String label) {
     return new NodeRef(dummyGraph, id) {
       public String label() {
@@ -0,0 +1,65 @@
+package overflowdb.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class OffHeapLongIntMapTest {
+  private static final int NO_ENTRY = -1;
+
+  @Test
+  public void basicOperations() {
+    OffHeapLongIntMap map = new OffHeapLongIntMap(4, NO_ENTRY);
+    assertEquals(NO_ENTRY, map.get(42));
+    assertEquals(NO_ENTRY, map.putIfAbsent(42, 0));
+    assertEquals(0, map.putIfAbsent(42, 1));
+    assertEquals(0, map.get(42));
+    assertEquals(0, map.put(42, 2));
+    assertEquals(2, map.get(42));
+    assertEquals(NO_ENTRY, map.put(Long.MIN_VALUE, 3));
+    assertEquals(2, map.size());
+
+    assertEquals(2, map.remove(42));
+    assertEquals(NO_ENTRY, map.remove(42));
+    assertEquals(NO_ENTRY, map.get(42));
+    assertEquals(3, map.get(Long.MIN_VALUE));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void behavesLikeHashMap() {
+    // small key range and initial capacity: lots of collisions, grows and removals within clusters
+    final Random random = new Random(42);
+    final OffHeapLongIntMap map = new OffHeapLongIntMap(1, NO_ENTRY);
+    final Map<Long, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 200_000; i++) {
+      final long key = random.nextInt(5_000) * 1_000_003L;
+      final int value = random.nextInt(Integer.MAX_VALUE);
+      switch (random.nextInt(3)) {
+        case 0:
+          assertEquals(expected.getOrDefault(key, NO_ENTRY).intValue(), map.put(key, value));
+          expected.put(key, value);
+          break;
+        case 1:
+          assertEquals(expected.getOrDefault(key, NO_ENTRY).intValue(), map.putIfAbsent(key, value));
+          expected.putIfAbsent(key, value);
+          break;
+        default:
+          assertEquals(expected.getOrDefault(key, NO_ENTRY).intValue(), map.remove(key));
+          expected.remove(key);
+      }
+    }
+
+    assertEquals(expected.size(), map.size());
+    List<Long> keys = new ArrayList<>(expected.keySet());
+    for (long key : keys) {
+      assertEquals(expected.get(key).intValue(), map.get(key));
+    }
+  }
+}
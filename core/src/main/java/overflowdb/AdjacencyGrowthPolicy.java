@@ -0,0 +1,56 @@
+package overflowdb;
+
+/**
+ * Decides how much room the blocks of a node's adjacent nodes array get when one of them is full, see
+ * {@link Config#withAdjacencyGrowthPolicy}.
+ * There's one block per edge label and direction (by offset position, i.e. out labels first, then in labels - see
+ * {@link NodeLayoutInformation}), and every edge takes up one stride within its block: the adjacent node, followed by
+ * the edge properties. Growing reallocates and copies the whole array, so if nodes get edges of several labels in turn
+ * it pays off to reserve room for the other blocks at the same time, see {@link #geometric}.
+ */
+public interface AdjacencyGrowthPolicy {
+
+  /**
+   * @param lengths       used slots per block, including the ones of removed edges
+   * @param capacities    current slots per block
+   * @param strideSizes   slots per edge, per block
+   * @param blockToGrow   the block that needs more room
+   * @param requiredSlots number of free slots that `blockToGrow` needs at least
+   * @return new capacity for each block: at least its length, and for `blockToGrow` its length plus `requiredSlots`.
+   * Should be multiples of the stride sizes.
+   */
+  int[] newCapacities(NodeLayoutInformation layout, int[] lengths, int[] capacities, int[] strideSizes,
+                      int blockToGrow, int requiredSlots);
+
+  /** only grows the full block, by twice its length plus one edge */
+  AdjacencyGrowthPolicy DEFAULT = (layout, lengths, capacities, strideSizes, blockToGrow, requiredSlots) -> {
+    final int[] newCapacities = capacities.clone();
+    newCapacities[blockToGrow] = Integer.max(
+        capacities[blockToGrow] + (lengths[blockToGrow] + strideSizes[blockToGrow]) * 2,
+        lengths[blockToGrow] + requiredSlots);
+    return newCapacities;
+  };
+
+  /**
+   * Whenever one block is full, grows all blocks that are in use to `factor` times their number of edges, with room for
+   * at least `minFreeEdges` more edges each. That way the array is copied O(log(edges)) times, rather than
+   * O(labels * log(edges)) times if the labels are added in turn.
+   */
+  static AdjacencyGrowthPolicy geometric(double factor, int minFreeEdges) {
+    if (factor < 1) throw new IllegalArgumentException("factor must be at least 1, but was " + factor);
+    if (minFreeEdges < 0) throw new IllegalArgumentException("minFreeEdges must not be negative, but was " + minFreeEdges);
+    return (layout, lengths, capacities, strideSizes, blockToGrow, requiredSlots) -> {
+      final int[] newCapacities = capacities.clone();
+      for (int i = 0; i < lengths.length; i++) {
+        if (lengths[i] > 0 || i == blockToGrow) {
+          final int strideSize = strideSizes[i];
+          final long edges = lengths[i] / strideSize;
+          final long targetEdges = Long.max((long) Math.ceil(edges * factor), edges + minFreeEdges);
+          newCapacities[i] = (int) Long.max(capacities[i], Long.min(targetEdges * strideSize, Integer.MAX_VALUE));
+        }
+      }
+      newCapacities[blockToGrow] = Integer.max(newCapacities[blockToGrow], lengths[blockToGrow] + requiredSlots);
+      return newCapacities;
+    };
+  }
+}
@@ -1,8 +1,17 @@
 package overflowdb;
 
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+
 /**
  * AdjacentNodes is the storage container for adjacent nodes, used in NodeDb.
  *
+ * Readers don't lock, they read whichever instance NodeDb published last. Therefor the offsets of a published instance
+ * are never modified: adding an edge writes to free slots behind the end of its block, and then publishes a copy with
+ * the new block length, see {@link #withOffset}. Only the slots of existing edges are modified in place, which is a
+ * single reference write each (e.g. setting an edge property, or nulling out a removed edge).
+ *
  * This class is really package private; it is only formally public to simplify internal organization of overflowdb.
  */
 public class AdjacentNodes {
@@ -30,6 +39,36 @@ public class AdjacentNodes {
     this.nodesWithEdgeProperties = nodesWithEdgeProperties;
     this.offsets = offsets;
   }
+  /**
+   * Size of a reference in bytes: 4 with compressed oops, which the JVM uses by default for heaps below 32g, otherwise 8.
+   * That's what each adjacent node costs, i.e. as long as oops are compressed, storing adjacent nodes as node refs is
+   * as compact as storing them as int indexes, without the need to resolve them while traversing. Heaps between 32g and
+   * 64g can keep compressed oops with `-XX:ObjectAlignmentInBytes=16`.
+   * Without compressed oops a ref costs as much as a long id, and ids would still need resolving on every traversal
+   * step (about half the `out` throughput, see `AdjacencyBenchmark`), so there's no primitive representation either way.
+   */
+  static final int REFERENCE_SIZE = detectReferenceSize();
+
+  private static int detectReferenceSize() {
+    try {
+      HotSpotDiagnosticMXBean diagnosticBean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      return Boolean.parseBoolean(diagnosticBean.getVMOption("UseCompressedOops").getValue()) ? 4 : 8;
+    } catch (RuntimeException | LinkageError e) {
+      // not a HotSpot JVM - assume the default
+      return 4;
+    }
+  }
+
+  /** rough estimate of the heap usage of both arrays, in bytes */
+  int estimatedSizeInBytes() {
+    final int arrayHeaderSize = 16;
+    int offsetsSize;
+    if (offsets instanceof byte[]) offsetsSize = ((byte[]) offsets).length;
+    else if (offsets instanceof short[]) offsetsSize = 2 * ((short[]) offsets).length;
+    else offsetsSize = 4 * ((int[]) offsets).length;
+    return 2 * arrayHeaderSize + REFERENCE_SIZE * nodesWithEdgeProperties.length + offsetsSize;
+  }
+
   /**
    * getOffset(2 * kindOffset) gets the offset into nodesWithEdgeProperties of the desired kindOffset (get the kindOffset from layout info)
    * getOffset(2 * kindOffset + 1) gets the length of the relevant slice in nodesWithEdgeProperties of the desired kindOffset (get the kindOffset from layout info)
@@ -44,7 +83,25 @@ public class AdjacentNodes {
     } else throw new RuntimeException("corrupt state: offsets of type " + offsets.getClass().getName());
   }
 
+  /** copy-on-write variant of {@link #setOffset}, for instances that may be read concurrently */
+  AdjacentNodes withOffset(int pos, int val) {
+    return new AdjacentNodes(nodesWithEdgeProperties, copyOffsets()).setOffset(pos, val);
+  }
+
+  /** @return a copy with the given array, and a copy of the offsets that can be modified in place */
+  AdjacentNodes withNodesWithEdgeProperties(Object[] nodesWithEdgeProperties) {
+    return new AdjacentNodes(nodesWithEdgeProperties, copyOffsets());
+  }
+
+  private Object copyOffsets() {
+    if (offsets instanceof byte[]) return ((byte[]) offsets).clone();
+    else if (offsets instanceof short[]) return ((short[]) offsets).clone();
+    else if (offsets instanceof int[]) return ((int[]) offsets).clone();
+    else throw new RuntimeException("corrupt state: offsets of type " + offsets.getClass().getName());
+  }
+
   /** Attempts to update AdjacentNodes in-place and return this; otherwise, create a new AdjacentNodes and return that.
+   * Only for instances that aren't published yet, see {@link #withOffset}.
    * */
   AdjacentNodes setOffset(int pos, int val){
     if(offsets instanceof byte[]) {
@@ -0,0 +1,87 @@
+package overflowdb;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the adjacent nodes of several label blocks of one {@link AdjacentNodes} instance, block after block,
+ * e.g. all OUT blocks for {@link NodeDb#out()}.
+ * Does the same as a MultiIterator of one ArrayOffsetIterator per block, but in a single (monomorphic) object.
+ * Like ArrayOffsetIterator it skips removed edges, i.e. `null` entries.
+ */
+final class AdjacentNodesIterator<A> implements Iterator<A> {
+  private final AdjacentNodes adjacentNodes;
+  private final Object[] array;
+  private final NodeLayoutInformation layout;
+
+  /** offset positions of the blocks to iterate over, or `null` for all positions from `positionIndex` until `untilPositionIndex` */
+  private final int[] offsetPositions;
+  private final int untilPositionIndex;
+  private int positionIndex;
+
+  private int current;
+  private int blockEnd;
+  private int strideSize;
+
+  /** used for peeking */
+  private A nextCached;
+
+  /** iterates over the blocks with offset positions `fromOffsetPos` (inclusive) until `untilOffsetPos` (exclusive) */
+  AdjacentNodesIterator(AdjacentNodes adjacentNodes, NodeLayoutInformation layout, int fromOffsetPos, int untilOffsetPos) {
+    this(adjacentNodes, layout, null, fromOffsetPos, untilOffsetPos);
+  }
+
+  /** iterates over the blocks with the given offset positions, in that order - `-1` entries are skipped */
+  AdjacentNodesIterator(AdjacentNodes adjacentNodes, NodeLayoutInformation layout, int[] offsetPositions) {
+    this(adjacentNodes, layout, offsetPositions, 0, offsetPositions.length);
+  }
+
+  private AdjacentNodesIterator(AdjacentNodes adjacentNodes, NodeLayoutInformation layout, int[] offsetPositions,
+                                int fromPositionIndex, int untilPositionIndex) {
+    this.adjacentNodes = adjacentNodes;
+    this.array = adjacentNodes.nodesWithEdgeProperties;
+    this.layout = layout;
+    this.offsetPositions = offsetPositions;
+    this.untilPositionIndex = untilPositionIndex;
+    this.positionIndex = fromPositionIndex - 1;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextCached != null) return true;
+    while (true) {
+      while (current < blockEnd) {
+        final Object next = array[current];
+        current += strideSize;
+        // n.b. may be `null`, e.g. if an edge was deleted
+        if (next != null) {
+          nextCached = (A) next;
+          return true;
+        }
+      }
+      if (!nextBlock()) return false;
+    }
+  }
+
+  @Override
+  public A next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    final A ret = nextCached;
+    nextCached = null;
+    return ret;
+  }
+
+  /** @return false if there are no more blocks */
+  private boolean nextBlock() {
+    while (++positionIndex < untilPositionIndex) {
+      final int offsetPos = offsetPositions == null ? positionIndex : offsetPositions[positionIndex];
+      if (offsetPos != -1) {
+        current = adjacentNodes.getOffset(2 * offsetPos);
+        blockEnd = current + adjacentNodes.getOffset(2 * offsetPos + 1);
+        strideSize = layout.getEdgePropertyCountByOffsetPos(offsetPos) + 1;
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -248,19 +248,91 @@ public class BatchedUpdate {
          * removed multiple times in the same Diff. */
         private Set<RemoveNode> removedNodes = new HashSet<>();
 
+        /** Nodes to trim at the end, if configured - see {@link Config#withTrimAfterBatchedUpdates()} */
+        private final Set<Node> nodesToTrim;
+
+        /** Nodes to compact at the end, if configured - see {@link Config#withCompactAfterBatchedUpdates()} */
+        private final Set<Node> nodesToCompact;
+
+        /** Number of new edges per node (or detached node), label and direction in this diff, as {@link DegreeHints}.
+         * Nodes that only get a single new edge map to its {@link CreateEdge} instead: adding that one edge grows the
+         * array just like reserving room for it would. Entries are removed once the capacity is reserved, i.e. when the
+         * first of those edges is added. */
+        private final Map<Object, Object> degreeHints = new IdentityHashMap<>();
+
         DiffGraphApplier(Graph graph, DiffOrBuilder diff, KeyPool keyPool, ModificationListener listener) {
             this.diff = diff;
             this.keyPool = keyPool;
             this.listener = listener;
             this.graph = graph;
+            this.nodesToTrim = graph.isTrimAfterBatchedUpdates() ? new HashSet<>() : null;
+            // n.b. trimming drops the removed edges as well
+            this.nodesToCompact = graph.isCompactAfterBatchedUpdates() && nodesToTrim == null ? new HashSet<>() : null;
+        }
+
+        /** Counts the new edges per node, so that each node's adjacent nodes array is grown once, with at least the
+         * capacity it needs, rather than grown repeatedly while applying the diff. */
+        private void collectDegreeHints() {
+            for (Iterator<Change> it = diff.iterator(); it.hasNext(); ) {
+                Change change = it.next();
+                if (change instanceof CreateEdge) {
+                    CreateEdge create = (CreateEdge) change;
+                    Object srcKey = degreeHintsKey(create.src);
+                    Object dstKey = degreeHintsKey(create.dst);
+                    if (srcKey == dstKey) {
+                        degreeHintsFor(srcKey).add(Direction.OUT, create.label, 1).add(Direction.IN, create.label, 1);
+                    } else {
+                        addDegreeHint(srcKey, create, Direction.OUT);
+                        addDegreeHint(dstKey, create, Direction.IN);
+                    }
+                }
+            }
+        }
+
+        private void addDegreeHint(Object key, CreateEdge create, Direction direction) {
+            if (degreeHints.putIfAbsent(key, create) != null) {
+                degreeHintsFor(key).add(direction, create.label, 1);
+            }
+        }
+
+        /** @return the hints for the given node, converting a single previously seen edge if need be */
+        private DegreeHints degreeHintsFor(Object key) {
+            Object existing = degreeHints.get(key);
+            if (existing instanceof DegreeHints) return (DegreeHints) existing;
+            DegreeHints hints = new DegreeHints();
+            if (existing != null) {
+                CreateEdge first = (CreateEdge) existing;
+                hints.add(degreeHintsKey(first.src) == key ? Direction.OUT : Direction.IN, first.label, 1);
+            }
+            degreeHints.put(key, hints);
+            return hints;
+        }
+
+        private void reserveAdjacentCapacity(NodeOrDetachedNode nodeOrDetached, Node node) {
+            Object hints = degreeHints.remove(degreeHintsKey(nodeOrDetached));
+            if (hints instanceof DegreeHints) {
+                graph.reserveAdjacentCapacity(node, (DegreeHints) hints);
+            }
+        }
+
+        private static Object degreeHintsKey(NodeOrDetachedNode nodeOrDetached) {
+            return nodeOrDetached instanceof NodeDb ? ((NodeDb) nodeOrDetached).ref : nodeOrDetached;
         }
 
         AppliedDiff run() {
             try {
+                collectDegreeHints();
                 for (Iterator<Change> it = diff.iterator(); it.hasNext(); ) {
                     Change change = it.next();
                     applyChange(change);
                 }
+                // n.b. only now, since trimming and compacting change the blockOffsets that the edges in the diff refer to
+                if (nodesToTrim != null) {
+                    nodesToTrim.forEach(Graph::trimIfResident);
+                }
+                if (nodesToCompact != null) {
+                    nodesToCompact.forEach(Graph::compactIfResident);
+                }
             } finally {
                 if (listener != null)
                     listener.finish();
@@ -309,11 +381,19 @@ public class BatchedUpdate {
                 Node src = create.src instanceof DetachedNodeData ? mapDetached((DetachedNodeData) create.src) : (Node) create.src;
                 Node dst = create.dst instanceof DetachedNodeData ? mapDetached((DetachedNodeData) create.dst) : (Node) create.dst;
                 drainDeferred();
+                reserveAdjacentCapacity(create.src, src);
+                reserveAdjacentCapacity(create.dst, dst);
+                if (nodesToTrim != null) {
+                    nodesToTrim.add(src);
+                    nodesToTrim.add(dst);
+                }
                 Object[] properties = create.propertiesAndKeys == null ? emptyArray : create.propertiesAndKeys;
                 if (listener != null) {
                     Edge edge = src.addEdgeInternal(create.label, dst, properties);
                     listener.onAfterAddNewEdge(edge);
                 } else {
+                    /* no Edge instance is created here, so we need to apply the backpressure ourselves */
+                    graph.applyBackpressureMaybe();
                     src.addEdgeSilentInternal(create.label, dst, properties);
                 }
             } else if (change instanceof RemoveEdge) {
@@ -322,6 +402,13 @@ public class BatchedUpdate {
                 if (listener != null)
                     listener.onBeforeRemoveEdge(remove.edge);
                 remove.edge.removeInternal();
+                if (nodesToTrim != null) {
+                    nodesToTrim.add(remove.edge.outNode());
+                    nodesToTrim.add(remove.edge.inNode());
+                } else if (nodesToCompact != null) {
+                    nodesToCompact.add(remove.edge.outNode());
+                    nodesToCompact.add(remove.edge.inNode());
+                }
             } else if (change instanceof RemoveNode) {
                 nChanges += 1;
                 if (!removedNodes.contains(change)) {
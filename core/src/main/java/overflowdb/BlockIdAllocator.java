@@ -0,0 +1,62 @@
+package overflowdb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** see {@link IdAllocator#perThreadBlocks} */
+class BlockIdAllocator implements IdAllocator {
+  /** notified about every leased range of ids, in the order they're leased */
+  interface LeaseListener {
+    void onLease(long firstId, long endId);
+  }
+
+  private final int blockSize;
+  private final LeaseListener leaseListener;
+  private final AtomicLong nextBlockStart = new AtomicLong(0);
+  /** per thread: {next id, end of block (exclusive)} */
+  private final ThreadLocal<long[]> currentBlock = ThreadLocal.withInitial(() -> new long[2]);
+
+  BlockIdAllocator(int blockSize) {
+    this(blockSize, (firstId, endId) -> {});
+  }
+
+  BlockIdAllocator(int blockSize, LeaseListener leaseListener) {
+    if (blockSize < 1) throw new IllegalArgumentException("blockSize must be positive, but was " + blockSize);
+    this.blockSize = blockSize;
+    this.leaseListener = leaseListener;
+  }
+
+  @Override
+  public long next() {
+    final long[] block = currentBlock.get();
+    if (block[0] == block[1]) {
+      final long start = lease(blockSize);
+      block[0] = start;
+      block[1] = start + blockSize;
+    }
+    return block[0]++;
+  }
+
+  @Override
+  public long nextRange(int count) {
+    final long[] block = currentBlock.get();
+    if (block[1] - block[0] >= count) {
+      final long start = block[0];
+      block[0] += count;
+      return start;
+    }
+    // doesn't fit into the current block: lease a dedicated range, and keep the current block for subsequent ids
+    return lease(count);
+  }
+
+  /** n.b. synchronized so that the listener sees the leases in order - that's once per block, i.e. rare */
+  private synchronized long lease(int count) {
+    final long start = nextBlockStart.getAndAdd(count);
+    leaseListener.onLease(start, start + count);
+    return start;
+  }
+
+  @Override
+  public void reserve(long id) {
+    if (nextBlockStart.get() <= id) nextBlockStart.accumulateAndGet(id + 1, Long::max);
+  }
+}
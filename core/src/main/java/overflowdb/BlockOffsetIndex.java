@@ -0,0 +1,116 @@
+package overflowdb;
+
+import java.util.Arrays;
+
+/**
+ * Index of the adjacent nodes within one label block of a node with many edges, so that translating between
+ * blockOffset and occurrence (see {@link NodeDb#blockOffsetToOccurrence} and {@link NodeDb#occurrenceToBlockOffset})
+ * takes O(log(degree)) rather than a scan over the whole block.
+ *
+ * Holds one sorted long per edge: the hash of the adjacent node's id in the upper 32 bits and the edge's index within
+ * the block in the lower 32 bits, i.e. the edges to one adjacent node are next to each other, in the order of the block.
+ * Only covers the first `indexedLength` slots of the block, as of its creation - edges that are added later are
+ * scanned linearly, until the index is rebuilt, see {@link #isOutdated}.
+ * Since hashes may collide and edges may have been removed in the meantime, every entry is checked against the block.
+ * Immutable, and stays valid as long as the blockOffsets of the block don't change - growing and trimming the array
+ * keep those, compacting it doesn't.
+ */
+final class BlockOffsetIndex {
+  /** blocks with fewer edges are just scanned */
+  static final int MIN_EDGES = 64;
+
+  private final long[] hashAndEdgeIndex;
+  private final int indexedLength;
+
+  private BlockOffsetIndex(long[] hashAndEdgeIndex, int indexedLength) {
+    this.hashAndEdgeIndex = hashAndEdgeIndex;
+    this.indexedLength = indexedLength;
+  }
+
+  static BlockOffsetIndex build(Object[] array, int start, int length, int strideSize) {
+    long[] entries = new long[length / strideSize];
+    int count = 0;
+    for (int blockOffset = 0; blockOffset < length; blockOffset += strideSize) {
+      final NodeRef adjacentNode = (NodeRef) array[start + blockOffset];
+      if (adjacentNode != null) {
+        entries[count++] = entry(hash(adjacentNode.id()), blockOffset / strideSize);
+      }
+    }
+    if (count < entries.length) entries = Arrays.copyOf(entries, count);
+    Arrays.sort(entries);
+    return new BlockOffsetIndex(entries, length);
+  }
+
+  /** number of slots at the start of the block that are indexed, i.e. slots from here on need to be scanned */
+  int indexedLength() {
+    return indexedLength;
+  }
+
+  /** rebuild once the not indexed part of the block is large enough to make scanning it noticeable */
+  boolean isOutdated(int blockLength) {
+    return blockLength - indexedLength > indexedLength / 8;
+  }
+
+  /**
+   * @return number of (live) edges to `adjacentNode` in the indexed part of the block before `blockOffsetLimit`
+   * (exclusive)
+   */
+  int countOccurrences(Object[] array, int start, int strideSize, NodeRef adjacentNode, int blockOffsetLimit) {
+    final int hash = hash(adjacentNode.id());
+    int count = 0;
+    for (int i = firstEntry(hash); i < hashAndEdgeIndex.length && hashOf(hashAndEdgeIndex[i]) == hash; i++) {
+      final int blockOffset = edgeIndexOf(hashAndEdgeIndex[i]) * strideSize;
+      if (blockOffset >= blockOffsetLimit) break;
+      if (isEdgeTo(array, start + blockOffset, adjacentNode)) count++;
+    }
+    return count;
+  }
+
+  /**
+   * @return blockOffset of the given occurrence of edges to `adjacentNode` in the indexed part of the block, or if
+   * there are fewer: `-1 - number of occurrences`
+   */
+  int findOccurrence(Object[] array, int start, int strideSize, NodeRef adjacentNode, int occurrence, int blockLength) {
+    final int hash = hash(adjacentNode.id());
+    int currentOccurrence = 0;
+    for (int i = firstEntry(hash); i < hashAndEdgeIndex.length && hashOf(hashAndEdgeIndex[i]) == hash; i++) {
+      final int blockOffset = edgeIndexOf(hashAndEdgeIndex[i]) * strideSize;
+      if (blockOffset >= blockLength) break;
+      if (isEdgeTo(array, start + blockOffset, adjacentNode)) {
+        if (currentOccurrence == occurrence) return blockOffset;
+        currentOccurrence++;
+      }
+    }
+    return -1 - currentOccurrence;
+  }
+
+  private static boolean isEdgeTo(Object[] array, int index, NodeRef adjacentNode) {
+    final NodeRef candidate = (NodeRef) array[index];
+    return candidate != null && candidate.id() == adjacentNode.id();
+  }
+
+  /** index of the first entry with the given hash, or of the next larger one */
+  private int firstEntry(int hash) {
+    final int i = Arrays.binarySearch(hashAndEdgeIndex, entry(hash, 0));
+    // all entries with this hash are >= entry(hash, 0), which itself exists if the first edge of the block has this hash
+    return i >= 0 ? i : -i - 1;
+  }
+
+  private static long entry(int hash, int edgeIndex) {
+    return ((long) hash << 32) | edgeIndex;
+  }
+
+  private static int hashOf(long entry) {
+    return (int) (entry >> 32);
+  }
+
+  private static int edgeIndexOf(long entry) {
+    return (int) entry;
+  }
+
+  /** same mixing as {@link NodeDb#hashCode()} */
+  private static int hash(long id) {
+    long tmp = (id ^ (id >>> 33) ^ 0xc89f69faaa76b9b7L) * 0xa3ceded266465a8dL;
+    return ((int) tmp) ^ ((int) (tmp >>> 32));
+  }
+}
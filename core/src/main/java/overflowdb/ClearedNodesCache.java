@@ -0,0 +1,85 @@
+package overflowdb;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Intermediate tier between resident and overflowed nodes: when a {@link NodeRef} is cleared, its {@link NodeDb} is
+ * kept here via a {@link SoftReference}. If the node is accessed again before the garbage collector needed that memory,
+ * we can just reuse the existing instance, rather than reading and deserializing it from storage.
+ * The cache is bounded: once it's full, the entries that have been cleared the longest time ago are dropped.
+ *
+ * Note that the softly reachable nodes still count towards heap usage until the GC actually collects them, so a
+ * large cache may cause {@link HeapUsageMonitor} to report memory pressure more often.
+ */
+public class ClearedNodesCache {
+  private final int maxSize;
+  private final Map<Long, SoftReference<NodeDb>> nodes;
+  private final AtomicLong hitCount = new AtomicLong(0);
+  private final AtomicLong missCount = new AtomicLong(0);
+
+  public ClearedNodesCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("cache size must be positive, but was " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.nodes = new LinkedHashMap<Long, SoftReference<NodeDb>>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, SoftReference<NodeDb>> eldest) {
+        return size() > ClearedNodesCache.this.maxSize;
+      }
+    };
+  }
+
+  synchronized void put(long id, NodeDb node) {
+    nodes.put(id, new SoftReference<>(node));
+  }
+
+  /** @return the cleared node if it's still available, otherwise null. Either way, the entry is removed from the cache. */
+  NodeDb take(long id) {
+    final SoftReference<NodeDb> softRef;
+    synchronized (this) {
+      softRef = nodes.remove(id);
+    }
+    final NodeDb node = softRef != null ? softRef.get() : null;
+    if (node != null) hitCount.incrementAndGet();
+    else missCount.incrementAndGet();
+    return node;
+  }
+
+  synchronized void clear() {
+    nodes.clear();
+  }
+
+  public synchronized int size() {
+    return nodes.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** number of nodes that were recovered from the cache, i.e. didn't need to be read from storage */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** number of nodes that had to be read from storage */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public float getHitRate() {
+    long hits = hitCount.get();
+    long total = hits + missCount.get();
+    return total == 0 ? 0f : (float) hits / total;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ClearedNodesCache(size=%d/%d, hits=%d, misses=%d, hitRate=%.2f%%)",
+        size(), maxSize, getHitCount(), getMissCount(), 100f * getHitRate());
+  }
+}
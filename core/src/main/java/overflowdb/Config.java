@@ -6,8 +6,23 @@ import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 
 public class Config {
+  public static final int DEFAULT_MAX_BACKPRESSURE_DELAY_MICROS = 1000;
+  public static final int DEFAULT_HARD_HEAP_PERCENTAGE_THRESHOLD = 95;
+
   private boolean overflowEnabled = true;
   private int heapPercentageThreshold = 80;
+  private int hardHeapPercentageThreshold = DEFAULT_HARD_HEAP_PERCENTAGE_THRESHOLD;
+  private HeapUsageMonitor.Mode heapMonitoringMode = HeapUsageMonitor.Mode.GC_NOTIFICATIONS;
+  private long heapUsageSamplingIntervalMillis = 0;
+  private int maxBackpressureDelayMicros = DEFAULT_MAX_BACKPRESSURE_DELAY_MICROS;
+  private long writeBehindIntervalMillis = 0;
+  private int clearedNodesCacheSize = 0;
+  private long releaseBytes = 0;
+  private boolean offHeapNodeIdIndex = false;
+  private int idBlockSize = 0;
+  private boolean trimAfterBatchedUpdates = false;
+  private boolean compactAfterBatchedUpdates = false;
+  private AdjacencyGrowthPolicy adjacencyGrowthPolicy = AdjacencyGrowthPolicy.DEFAULT;
   private Optional<Path> storageLocation = Optional.empty();
   private boolean serializationStatsEnabled = false;
   private Optional<ExecutorService> executorService = Optional.empty();
@@ -35,6 +50,139 @@ public class Config {
     return this;
   }
 
+  /**
+   * when heap is above this threshold, OdbGraph will clear references synchronously, i.e. creating new nodes/edges
+   * is blocked until some references have been cleared.
+   * Must be larger than or equal to the heapPercentageThreshold.
+   * defaults to 95, i.e. 95%
+   */
+  public Config withHardHeapPercentageThreshold(int threshold) {
+    this.hardHeapPercentageThreshold = threshold;
+    return this;
+  }
+
+  /**
+   * Use collection usage thresholds on the old generation memory pool(s) rather than GC notifications to detect when
+   * we're low on heap, see {@link HeapUsageMonitor.Mode#USAGE_THRESHOLDS}.
+   */
+  public Config withHeapUsageThresholdMonitoring() {
+    this.heapMonitoringMode = HeapUsageMonitor.Mode.USAGE_THRESHOLDS;
+    return this;
+  }
+
+  /**
+   * Additionally sample the old generation usage in the given interval, so that we can react before the next GC.
+   * Only used together with {@link #withHeapUsageThresholdMonitoring()}.
+   * defaults to 0, i.e. no sampling
+   */
+  public Config withHeapUsageSamplingIntervalMillis(long intervalMillis) {
+    this.heapUsageSamplingIntervalMillis = intervalMillis;
+    return this;
+  }
+
+  /**
+   * While references are being cleared, creating new nodes/edges is slowed down by a delay that is proportional to the
+   * heap pressure, up to this maximum per node/edge. Only if the heap is critically full, callers are blocked until
+   * clearing has completed.
+   * defaults to 1000, i.e. 1ms
+   */
+  public Config withMaxBackpressureDelayMicros(int maxBackpressureDelayMicros) {
+    this.maxBackpressureDelayMicros = maxBackpressureDelayMicros;
+    return this;
+  }
+
+  /**
+   * Persist dirty nodes in the background in the given interval, without clearing them. They can then be cleared
+   * cheaply if the heap fills up, and closing the graph has less work to do.
+   * defaults to 0, i.e. dirty nodes are only persisted when they're cleared or when the graph is closed
+   */
+  public Config withWriteBehindIntervalMillis(long intervalMillis) {
+    this.writeBehindIntervalMillis = intervalMillis;
+    return this;
+  }
+
+  /**
+   * When running low on memory, clear the oldest nodes until their estimated size (see
+   * {@link NodeDb#estimatedSizeInBytes()}) adds up to this many bytes, rather than clearing a fixed number of nodes.
+   * defaults to 0, i.e. clear {@link ReferenceManager#releaseCount} nodes at a time
+   */
+  public Config withReleaseBytes(long releaseBytes) {
+    this.releaseBytes = releaseBytes;
+    return this;
+  }
+
+  /**
+   * Keep up to this many cleared nodes softly reachable, so that they don't need to be read from storage if they're
+   * accessed again before the garbage collector needed their memory, see {@link ClearedNodesCache}.
+   * Only used if overflow is enabled.
+   * defaults to 0, i.e. disabled
+   */
+  public Config withClearedNodesCacheSize(int size) {
+    this.clearedNodesCacheSize = size;
+    return this;
+  }
+
+  /**
+   * Keep the index from node id to node outside of the heap, as far as the ids are not dense (i.e. not assigned by
+   * the graph). That's more compact and isn't traversed by the garbage collector, which matters for graphs with many
+   * millions of nodes with custom ids.
+   * Note that the index lives in direct buffers, which are limited by `-XX:MaxDirectMemorySize` (defaults to the max
+   * heap size, i.e. `-Xmx`), so size that accordingly. The buffers that are replaced when the index grows are only
+   * released once they're garbage collected.
+   * defaults to false
+   */
+  public Config withOffHeapNodeIdIndex() {
+    this.offHeapNodeIdIndex = true;
+    return this;
+  }
+
+  /**
+   * Assign node ids from per-thread blocks of this size, so that threads that add nodes concurrently don't contend on
+   * a single id counter, see {@link IdAllocator#perThreadBlocks}. Ids are then no longer assigned in order, and each
+   * thread may leave a gap of up to this many unused ids.
+   * defaults to 0, i.e. ids are assigned sequentially from a single counter
+   */
+  public Config withIdBlockSize(int blockSize) {
+    this.idBlockSize = blockSize;
+    return this;
+  }
+
+  /**
+   * Trim all nodes that got new or removed edges in {@link BatchedUpdate#applyDiff} at the end of the update, i.e.
+   * release the spare capacity and removed edges of their adjacent nodes arrays, see {@link Graph#trimAll()}. Saves memory if there are few large
+   * updates, but adds copying if nodes get new edges in many small updates.
+   * Dropping the removed edges changes the blockOffsets of the remaining ones, i.e. {@link Edge} instances of those
+   * nodes that were obtained before the update must not be used afterwards.
+   * defaults to false
+   */
+  public Config withTrimAfterBatchedUpdates() {
+    this.trimAfterBatchedUpdates = true;
+    return this;
+  }
+
+  /**
+   * Compact all nodes that lost edges in {@link BatchedUpdate#applyDiff} at the end of the update, i.e. drop the
+   * removed edges from blocks where they make up at least half of the edges, see {@link NodeDb#compactIfSparse()}.
+   * Keeps iterating over heavily pruned nodes proportional to their remaining edges.
+   * Compacting changes the blockOffsets of the remaining edges, i.e. {@link Edge} instances of those nodes that were
+   * obtained before the update must not be used afterwards - removing them fails with an IllegalStateException.
+   * defaults to false
+   */
+  public Config withCompactAfterBatchedUpdates() {
+    this.compactAfterBatchedUpdates = true;
+    return this;
+  }
+
+  /**
+   * How much room to reserve in the adjacent nodes arrays when they need to grow, see {@link AdjacencyGrowthPolicy}.
+   * E.g. {@link AdjacencyGrowthPolicy#geometric} avoids many copies if nodes get edges of several labels in turn.
+   * defaults to {@link AdjacencyGrowthPolicy#DEFAULT}, which only grows the block of the edge that's being added
+   */
+  public Config withAdjacencyGrowthPolicy(AdjacencyGrowthPolicy policy) {
+    this.adjacencyGrowthPolicy = policy;
+    return this;
+  }
+
   /* If specified, OdbGraph will be saved there on `close`.
    * To load from that location, just instantiate a new OdbGraph with the same location. */
   public Config withStorageLocation(Path path) {
@@ -60,6 +208,54 @@ public class Config {
     return heapPercentageThreshold;
   }
 
+  public int getHardHeapPercentageThreshold() {
+    return hardHeapPercentageThreshold;
+  }
+
+  public HeapUsageMonitor.Mode getHeapMonitoringMode() {
+    return heapMonitoringMode;
+  }
+
+  public long getHeapUsageSamplingIntervalMillis() {
+    return heapUsageSamplingIntervalMillis;
+  }
+
+  public int getMaxBackpressureDelayMicros() {
+    return maxBackpressureDelayMicros;
+  }
+
+  public long getWriteBehindIntervalMillis() {
+    return writeBehindIntervalMillis;
+  }
+
+  public long getReleaseBytes() {
+    return releaseBytes;
+  }
+
+  public boolean isOffHeapNodeIdIndex() {
+    return offHeapNodeIdIndex;
+  }
+
+  public int getIdBlockSize() {
+    return idBlockSize;
+  }
+
+  public boolean isTrimAfterBatchedUpdates() {
+    return trimAfterBatchedUpdates;
+  }
+
+  public boolean isCompactAfterBatchedUpdates() {
+    return compactAfterBatchedUpdates;
+  }
+
+  public AdjacencyGrowthPolicy getAdjacencyGrowthPolicy() {
+    return adjacencyGrowthPolicy;
+  }
+
+  public int getClearedNodesCacheSize() {
+    return clearedNodesCacheSize;
+  }
+
   public Optional<Path> getStorageLocation() {
     return storageLocation;
   }
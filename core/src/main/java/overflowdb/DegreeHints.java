@@ -0,0 +1,53 @@
+package overflowdb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Number of edges per label and direction that are about to be added to a node, so that its adjacent nodes array can
+ * be sized for all of them at once rather than grown incrementally - see
+ * {@link NodeDb#reserveAdjacentCapacity(DegreeHints)} and {@link Graph#reserveAdjacentCapacity(Node, DegreeHints)}.
+ */
+public class DegreeHints {
+  private final Map<String, Integer> outDegrees = new HashMap<>(4);
+  private final Map<String, Integer> inDegrees = new HashMap<>(4);
+
+  public DegreeHints add(Direction direction, String edgeLabel, int edgeCount) {
+    if (edgeCount < 0) throw new IllegalArgumentException("edgeCount must not be negative, but was " + edgeCount);
+    degrees(direction).merge(edgeLabel, edgeCount, Integer::sum);
+    return this;
+  }
+
+  public int get(Direction direction, String edgeLabel) {
+    return degrees(direction).getOrDefault(edgeLabel, 0);
+  }
+
+  public boolean isEmpty() {
+    return outDegrees.isEmpty() && inDegrees.isEmpty();
+  }
+
+  /**
+   * @return number of edges per offset position of the given layout, i.e. out labels first, then in labels.
+   * Labels that the layout doesn't support are ignored: adding those edges will fail anyway.
+   */
+  int[] edgeCountsByOffsetPos(NodeLayoutInformation layout) {
+    final int[] edgeCounts = new int[layout.numberOfDifferentAdjacentTypes()];
+    outDegrees.forEach((label, count) -> {
+      final Integer offsetPos = layout.outEdgeToOffsetPosition(label);
+      if (offsetPos != null) edgeCounts[offsetPos] += count;
+    });
+    inDegrees.forEach((label, count) -> {
+      final Integer offsetPos = layout.inEdgeToOffsetPosition(label);
+      if (offsetPos != null) edgeCounts[offsetPos] += count;
+    });
+    return edgeCounts;
+  }
+
+  private Map<String, Integer> degrees(Direction direction) {
+    switch (direction) {
+      case OUT: return outDegrees;
+      case IN: return inDegrees;
+      default: throw new IllegalArgumentException("degree hints are per direction, but got " + direction);
+    }
+  }
+}
@@ -85,17 +85,10 @@ public abstract class Edge extends Element {
   @Override
   protected void setPropertyImpl(String key, Object value) {
     // TODO check if it's an allowed property key
-    if (inBlockOffset != UNINITIALIZED_BLOCK_OFFSET) {
-      if (outBlockOffset == UNINITIALIZED_BLOCK_OFFSET) {
-        initializeOutFromInOffset();
-      }
-    } else if (outBlockOffset != UNINITIALIZED_BLOCK_OFFSET) {
-      if (inBlockOffset == UNINITIALIZED_BLOCK_OFFSET) {
-        initializeInFromOutOffset();
-      }
-    } else {
+    if (inBlockOffset == UNINITIALIZED_BLOCK_OFFSET && outBlockOffset == UNINITIALIZED_BLOCK_OFFSET) {
       throw new RuntimeException("Cannot set property. In and out block offset uninitialized.");
     }
+    fixupAndCheckBlockOffsets();
     inNode.get().setEdgeProperty(Direction.IN, label, key, value, inBlockOffset);
     outNode.get().setEdgeProperty(Direction.OUT, label, key, value, outBlockOffset);
   }
@@ -107,23 +100,49 @@ public abstract class Edge extends Element {
 
   @Override
   protected void removePropertyImpl(String key) {
+    fixupAndCheckBlockOffsets();
     inNode.get().removeEdgeProperty(Direction.IN, label, key, inBlockOffset);
     outNode.get().removeEdgeProperty(Direction.OUT, label, key, outBlockOffset);
   }
 
   @Override
   protected void removeImpl() {
-    fixupBlockOffsets();
-    outNode.get().removeEdge(Direction.OUT, label(), outBlockOffset);
-    inNode.get().removeEdge(Direction.IN, label(), inBlockOffset);
+    fixupAndCheckBlockOffsets();
+    outNode.get().removeEdge(Direction.OUT, label(), outBlockOffset, inNode);
+    inNode.get().removeEdge(Direction.IN, label(), inBlockOffset, outNode);
+  }
+
+  /**
+   * To be called before modifying either side, so that an outdated edge (i.e. one that was obtained before its nodes
+   * were trimmed or compacted) can't leave one half of it behind, or modify a different edge.
+   * @throws IllegalStateException if a blockOffset is outdated, see {@link NodeDb#checkBlockOffset}
+   */
+  private void fixupAndCheckBlockOffsets() {
+    // the uninitialized blockOffset is derived from the other one, i.e. that needs to be checked first
+    checkInitializedBlockOffsets();
+    if (inBlockOffset == UNINITIALIZED_BLOCK_OFFSET || outBlockOffset == UNINITIALIZED_BLOCK_OFFSET) {
+      fixupBlockOffsets();
+      checkInitializedBlockOffsets();
+    }
+  }
+
+  private void checkInitializedBlockOffsets() {
+    if (outBlockOffset != UNINITIALIZED_BLOCK_OFFSET) {
+      outNode.get().checkBlockOffset(Direction.OUT, label(), outBlockOffset, inNode);
+    }
+    if (inBlockOffset != UNINITIALIZED_BLOCK_OFFSET) {
+      inNode.get().checkBlockOffset(Direction.IN, label(), inBlockOffset, outNode);
+    }
   }
 
   @Override
   public Map<String, Object> propertiesMap() {
     final Map<String, Object> properties;
     if (inBlockOffset != -1) {
+      inNode.get().checkBlockOffset(Direction.IN, label, inBlockOffset, outNode);
       properties = inNode.get().edgePropertyMap(Direction.IN, this, getInBlockOffset());
     } else if (outBlockOffset != -1) {
+      outNode.get().checkBlockOffset(Direction.OUT, label, outBlockOffset, inNode);
       properties = outNode.get().edgePropertyMap(Direction.OUT, this, getOutBlockOffset());
     } else {
       throw new RuntimeException("Cannot get properties. In and out block offset uninitialized.");
@@ -143,8 +162,10 @@ public abstract class Edge extends Element {
   public Object property(String propertyKey) {
     final Object value;
     if (inBlockOffset != -1) {
+      inNode.get().checkBlockOffset(Direction.IN, label, inBlockOffset, outNode);
       value = inNode.get().edgeProperty(Direction.IN, this, inBlockOffset, propertyKey);
     } else if (outBlockOffset != -1) {
+      outNode.get().checkBlockOffset(Direction.OUT, label, outBlockOffset, inNode);
       value = outNode.get().edgeProperty(Direction.OUT, this, outBlockOffset, propertyKey);
     } else {
       throw new RuntimeException("Cannot get property. In and out block offset unitialized.");
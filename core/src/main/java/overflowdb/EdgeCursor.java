@@ -0,0 +1,164 @@
+package overflowdb;
+
+/**
+ * Walks over the edges of a node without instantiating an {@link Edge} for each of them - the edges are read directly
+ * from the node's adjacent nodes, e.g. for traversals that only need the other node or an edge property.
+ * Created by {@link Node#outEdgeCursor(String...)} and {@link Node#inEdgeCursor(String...)}. Like the iterators, it
+ * works on the adjacent nodes as of its creation, skips removed edges, and isn't thread safe itself.
+ *
+ * Usage:
+ * <pre>{@code
+ * EdgeCursor cursor = node.outEdgeCursor("FOLLOWED_BY");
+ * while (cursor.advance()) {
+ *   Integer weight = cursor.property("weight");
+ *   ...
+ * }
+ * }</pre>
+ * All accessors refer to the current edge, i.e. they're only valid after {@link #advance()} returned true.
+ */
+public final class EdgeCursor {
+  private final NodeRef thisRef;
+  private final Object[] array;
+  private final AdjacentNodes adjacentNodes;
+  private final NodeLayoutInformation layout;
+  private final int outLabelCount;
+
+  /** offset positions of the blocks to walk over, in that order - `-1` entries are skipped */
+  private final int[] offsetPositions;
+  private int positionIndex = -1;
+
+  /** current block */
+  private int blockStart;
+  private int blockEnd;
+  private int strideSize;
+  private String label;
+  private Direction direction;
+
+  /** index of the current edge's adjacent node in `array`, or the end of the current block if not positioned */
+  private int current;
+
+  /** cached property offset and default value of the last requested key, for the current block */
+  private String lastPropertyKey;
+  private int lastPropertyOffset;
+  private Object lastPropertyDefault;
+  private boolean lastPropertyDefaultResolved;
+
+  EdgeCursor(NodeRef thisRef, AdjacentNodes adjacentNodes, NodeLayoutInformation layout, int[] offsetPositions) {
+    this.thisRef = thisRef;
+    this.adjacentNodes = adjacentNodes;
+    this.array = adjacentNodes.nodesWithEdgeProperties;
+    this.layout = layout;
+    this.outLabelCount = layout.allowedOutEdgeLabels().length;
+    this.offsetPositions = offsetPositions;
+  }
+
+  /**
+   * Moves to the next edge.
+   * @return false if there are no more edges
+   */
+  public boolean advance() {
+    while (true) {
+      current += strideSize;
+      while (current < blockEnd) {
+        // n.b. may be `null`, e.g. if an edge was deleted
+        if (array[current] != null) return true;
+        current += strideSize;
+      }
+      if (!nextBlock()) return false;
+      current = blockStart - strideSize;
+    }
+  }
+
+  private boolean nextBlock() {
+    while (++positionIndex < offsetPositions.length) {
+      final int offsetPos = offsetPositions[positionIndex];
+      if (offsetPos != -1) {
+        blockStart = adjacentNodes.getOffset(2 * offsetPos);
+        blockEnd = blockStart + adjacentNodes.getOffset(2 * offsetPos + 1);
+        strideSize = layout.getEdgePropertyCountByOffsetPos(offsetPos) + 1;
+        if (offsetPos < outLabelCount) {
+          direction = Direction.OUT;
+          label = layout.allowedOutEdgeLabels()[offsetPos];
+        } else {
+          direction = Direction.IN;
+          label = layout.allowedInEdgeLabels()[offsetPos - outLabelCount];
+        }
+        lastPropertyKey = null;
+        return true;
+      }
+    }
+    positionIndex = offsetPositions.length;
+    blockEnd = current = strideSize = 0;
+    return false;
+  }
+
+  public String label() {
+    return label;
+  }
+
+  /** direction of the current edge, as seen from this node */
+  public Direction direction() {
+    return direction;
+  }
+
+  /** the node this cursor was created for */
+  public NodeRef thisNode() {
+    return thisRef;
+  }
+
+  /** the node at the other end of the current edge */
+  public NodeRef otherNode() {
+    return (NodeRef) array[current];
+  }
+
+  public NodeRef outNode() {
+    return direction == Direction.OUT ? thisRef : otherNode();
+  }
+
+  public NodeRef inNode() {
+    return direction == Direction.OUT ? otherNode() : thisRef;
+  }
+
+  /**
+   * @return the property value of the current edge, or the edge's default value if it's not set, just like
+   * {@link Edge#property(String)}: `null` if there's neither, or the edge doesn't support the property
+   */
+  public <P> P property(String key) {
+    if (key != lastPropertyKey) {
+      lastPropertyOffset = layout.getEdgePropertyOffsetRelativeToAdjacentNodeRef(label, key);
+      lastPropertyKey = key;
+      lastPropertyDefaultResolved = false;
+    }
+    final Object value = lastPropertyOffset == -1 ? null : array[current + lastPropertyOffset];
+    if (value != null) return (P) value;
+    if (!lastPropertyDefaultResolved) {
+      // defaults are defined by the (generated) edge classes, i.e. we need an instance - but only one per block
+      lastPropertyDefault = toEdge().propertyDefaultValue(key);
+      lastPropertyDefaultResolved = true;
+    }
+    return (P) lastPropertyDefault;
+  }
+
+  public <P> P property(PropertyKey<P> key) {
+    return property(key.name);
+  }
+
+  /** offset of the current edge within its block, as used by {@link Edge} */
+  public int blockOffset() {
+    return current - blockStart;
+  }
+
+  /** instantiates the current edge, e.g. to modify it */
+  public Edge toEdge() {
+    final NodeRef otherRef = otherNode();
+    final Edge edge;
+    if (direction == Direction.OUT) {
+      edge = thisRef.get().instantiateDummyEdge(label, thisRef, otherRef);
+      edge.setOutBlockOffset(blockOffset());
+    } else {
+      edge = thisRef.get().instantiateDummyEdge(label, otherRef, thisRef);
+      edge.setInBlockOffset(blockOffset());
+    }
+    return edge;
+  }
+}
@@ -1,29 +1,35 @@
 package overflowdb;
 
-import gnu.trove.iterator.TObjectIntIterator;
-import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.iterator.TObjectLongIterator;
+import gnu.trove.map.hash.TObjectLongHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import overflowdb.storage.NodeDeserializer;
 import overflowdb.storage.NodeSerializer;
 import overflowdb.storage.NodesWriter;
 import overflowdb.storage.OdbStorage;
+import overflowdb.storage.WriteBehindFlusher;
 import overflowdb.util.*;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class Graph implements AutoCloseable {
   private static final Logger logger = LoggerFactory.getLogger(Graph.class);
 
-  protected final AtomicLong currentId = new AtomicLong(-1L);
-  final NodesList nodes = new NodesList();
+  protected final IdAllocator idAllocator;
+  final NodesList nodes;
+  final EdgeCounts edgeCounts = new EdgeCounts();
+  final AdjacencyGrowthPolicy adjacencyGrowthPolicy;
   public final IndexManager indexManager = new IndexManager(this);
   private final Config config;
   private volatile boolean closed = false;
+  /** whether nodes were added with explicit ids, i.e. allocated ids may be taken already */
+  private volatile boolean explicitIdsAdded = false;
 
   protected final Map<String, NodeFactory> nodeFactoryByLabel;
   protected final Map<String, EdgeFactory> edgeFactoryByLabel;
@@ -35,7 +41,9 @@ public final class Graph implements AutoCloseable {
   protected final Optional<HeapUsageMonitor> heapUsageMonitor;
   protected final boolean overflowEnabled;
   protected final ReferenceManager referenceManager;
+  final ClearedNodesCache clearedNodesCache; // not using Optional only due to performance reasons, see referenceManager
   protected final NodesWriter nodesWriter;
+  protected final Optional<WriteBehindFlusher> writeBehindFlusher;
 
   /**
    * @param convertPropertyForPersistence applied to all element property values by @{@link NodeSerializer} prior
@@ -64,6 +72,12 @@ public final class Graph implements AutoCloseable {
                 Map<String, EdgeFactory> edgeFactoryByLabel,
                 Function<Object, Object> convertPropertyForPersistence) {
     this.config = config;
+    this.nodes = new NodesList(NodesList.DEFAULT_CAPACITY, config.isOffHeapNodeIdIndex());
+    // blocks are used out of order by different threads: announce them, so that their ids are resolved by array indexing
+    this.idAllocator = config.getIdBlockSize() > 0
+        ? new BlockIdAllocator(config.getIdBlockSize(), nodes::reserveDenseIds)
+        : IdAllocator.sequential();
+    this.adjacencyGrowthPolicy = config.getAdjacencyGrowthPolicy();
     this.nodeFactoryByLabel = nodeFactoryByLabel;
     this.edgeFactoryByLabel = edgeFactoryByLabel;
     this.stringInterner = new StringInterner();
@@ -83,11 +97,24 @@ public final class Graph implements AutoCloseable {
       } else {
         this.referenceManager = new ReferenceManager(storage, nodesWriter);
       }
-      this.heapUsageMonitor = Optional.of(new HeapUsageMonitor(config.getHeapPercentageThreshold(), this.referenceManager));
+      this.referenceManager.setMaxBackpressureDelayMicros(config.getMaxBackpressureDelayMicros());
+      this.referenceManager.setReleaseBytes(config.getReleaseBytes());
+      this.heapUsageMonitor = Optional.of(new HeapUsageMonitor(config, this.referenceManager));
+      this.clearedNodesCache = config.getClearedNodesCacheSize() > 0
+          ? new ClearedNodesCache(config.getClearedNodesCacheSize())
+          : null;
     } else {
       this.referenceManager = null; // not using Optional only due to performance reasons - it's invoked *a lot*
       this.heapUsageMonitor = Optional.empty();
+      this.clearedNodesCache = null;
     }
+
+    if (config.getWriteBehindIntervalMillis() > 0) {
+      this.writeBehindFlusher = Optional.of(new WriteBehindFlusher(nodesWriter, this::nodes, config.getWriteBehindIntervalMillis()));
+    } else {
+      this.writeBehindFlusher = Optional.empty();
+    }
+    config.getStorageLocation().ifPresent(l -> initEdgeCounts(storage));
   }
 
   private void initElementCollections(OdbStorage storage) {
@@ -98,7 +125,7 @@ public final class Graph implements AutoCloseable {
       logger.info(String.format("initializing %d nodes from existing storage", serializedNodesCount));
     }
     int importCount = 0;
-    long maxId = currentId.get();
+    long maxId = -1;
 
     final Iterator<Map.Entry<Long, byte[]>> serializedVertexIter = serializedNodes.iterator();
     while (serializedVertexIter.hasNext()) {
@@ -116,12 +143,34 @@ public final class Graph implements AutoCloseable {
       }
     }
 
-    currentId.set(maxId + 1);
+    idAllocator.reserve(maxId);
     indexManager.initializeStoredIndices(storage);
     long elapsedMillis = System.currentTimeMillis() - start;
     logger.debug(String.format("initialized %s from existing storage in %sms", this, elapsedMillis));
   }
 
+  /**
+   * Edge counts are persisted on regular shutdown. If they're missing (e.g. because the previous run didn't shut down
+   * properly) we need to count them, which means deserializing all nodes.
+   * n.b. called once the reference manager is initialized, so that the deserialized nodes can be cleared again
+   */
+  private void initEdgeCounts(OdbStorage storage) {
+    Optional<Map<String, Long>> persistedCounts = storage.getEdgeCounts();
+    if (persistedCounts.isPresent()) {
+      persistedCounts.get().forEach(edgeCounts::add);
+    } else if (nodeCount() > 0) {
+      logger.warn("storage doesn't contain edge counts, e.g. because the graph wasn't closed properly - counting all edges");
+      nodes().forEachRemaining(node -> {
+        NodeDb nodeDb = getNodeDb(node);
+        for (String label : nodeDb.layoutInformation().allowedOutEdgeLabels()) {
+          edgeCounts.add(label, nodeDb.outEdgeCount(label));
+        }
+      });
+    }
+    // from here on the persisted counts will get outdated - they're only persisted again on regular shutdown
+    storage.invalidateEdgeCounts();
+  }
+
 
   ////////////// STRUCTURE API METHODS //////////////////
 
@@ -130,7 +179,12 @@ public final class Graph implements AutoCloseable {
    * Will automatically assign an ID - this is the safest option to avoid ID clashes.
    */
   public Node addNode(final String label, final Object... keyValues) {
-    return addNodeInternal(currentId.incrementAndGet(), label, keyValues);
+    long id = idAllocator.next();
+    while (explicitIdsAdded && nodes.contains(id)) {
+      // taken by a node that was added with an explicit id
+      id = idAllocator.next();
+    }
+    return addNodeInternal(id, label, keyValues);
   }
 
   /**
@@ -141,13 +195,8 @@ public final class Graph implements AutoCloseable {
     if (nodes.contains(id)) {
       throw new IllegalArgumentException(String.format("Node with id already exists: %s", id));
     }
-
-    long currentIdBefore = currentId.get();
-    long currentIdAfter = Long.max(id, currentId.get());
-    if (!currentId.compareAndSet(currentIdBefore, currentIdAfter)) {
-      // concurrent thread must have changed `currentId` - try again
-      return addNode(id, label, keyValues);
-    }
+    explicitIdsAdded = true;
+    idAllocator.reserve(id);
     return addNodeInternal(id, label, keyValues);
   }
 
@@ -160,6 +209,71 @@ public final class Graph implements AutoCloseable {
     return node;
   }
 
+  /**
+   * Add many nodes with the same label at once, which is considerably cheaper than adding them one by one: their ids are
+   * reserved as one consecutive range, and the internal collections are locked and resized only once.
+   *
+   * @param propertyColumns property values by key, with one value per node, i.e. `propertyColumns.get(key)[i]` is the
+   *                        value for the i-th node. `null` values are skipped.
+   * @return the new nodes, in the order of the property values
+   */
+  public List<Node> addNodes(final String label, final int count, final Map<String, Object[]> propertyColumns) {
+    if (isClosed()) {
+      throw new AssertionError("graph is closed - no more mutation allowed");
+    }
+    if (!nodeFactoryByLabel.containsKey(label)) {
+      throw new IllegalArgumentException("No NodeFactory for label=" + label + " available.");
+    }
+    propertyColumns.forEach((key, values) -> {
+      if (values.length < count)
+        throw new IllegalArgumentException(String.format("expected %d values for property `%s`, but got %d", count, key, values.length));
+    });
+
+    final NodeFactory factory = nodeFactoryByLabel.get(label);
+    long firstId = idAllocator.nextRange(count);
+    while (explicitIdsAdded && containsAnyId(firstId, count)) {
+      // some of those are taken by nodes that were added with an explicit id
+      firstId = idAllocator.nextRange(count);
+    }
+    final List<NodeRef> refs = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final NodeDb node = factory.createNode(this, firstId + i, null);
+      for (Map.Entry<String, Object[]> column : propertyColumns.entrySet()) {
+        final Object value = column.getValue()[i];
+        if (value != null) node.setPropertyInternal(column.getKey(), value);
+      }
+      refs.add(node.ref);
+    }
+
+    try {
+      nodes.addAll(refs);
+    } catch (AssertionError e) {
+      // a node with one of our ids was added concurrently: take out the nodes that made it in before that one
+      for (NodeRef ref : refs) {
+        if (nodes.nodeById(ref.id()) == ref) nodes.remove(ref);
+      }
+      throw new IllegalArgumentException("a node with one of the ids " + firstId + ".." + (firstId + count - 1) +
+          " was added concurrently", e);
+    }
+    // n.b. only now that they're part of the graph
+    if (referenceManager != null && !isClosed()) {
+      referenceManager.registerRefs(refs);
+    }
+    return Collections.unmodifiableList(refs);
+  }
+
+  private boolean containsAnyId(long firstId, int count) {
+    for (long id = firstId; id < firstId + count; id++) {
+      if (nodes.contains(id)) return true;
+    }
+    return false;
+  }
+
+  /** hands out the ids for nodes that are added without an explicit id, see {@link Config#withIdBlockSize} */
+  public IdAllocator idAllocator() {
+    return idAllocator;
+  }
+
   public DetachedNodeData createDetached(String label){
     if (!nodeFactoryByLabel.containsKey(label)) {
       throw new IllegalArgumentException("No NodeFactory for label=" + label + " available.");
@@ -193,6 +307,31 @@ public final class Graph implements AutoCloseable {
     }
   }
 
+  /** total time that node/edge creation was slowed down or blocked by backpressure, in nanoseconds */
+  public long backpressureNanos() {
+    return referenceManager != null ? referenceManager.getTotalBackpressureNanos() : 0;
+  }
+
+  /** total time that removing nodes was blocked by incremental compaction of the nodes list, in nanoseconds */
+  public long compactionPauseNanos() {
+    return nodes.getCompactionPauseNanos();
+  }
+
+  /** longest single pause caused by incremental compaction of the nodes list, in nanoseconds */
+  public long maxCompactionPauseNanos() {
+    return nodes.getMaxCompactionPauseNanos();
+  }
+
+  /** statistics (e.g. hit rate) of the cache for cleared nodes, if enabled via {@link Config#withClearedNodesCacheSize} */
+  public Optional<ClearedNodesCache> clearedNodesCache() {
+    return Optional.ofNullable(clearedNodesCache);
+  }
+
+  /** total number of dirty nodes that have been persisted in the background, see {@link Config#withWriteBehindIntervalMillis} */
+  public long writeBehindNodeCount() {
+    return writeBehindFlusher.map(WriteBehindFlusher::getWrittenNodeCount).orElse(0L);
+  }
+
   /* Register NodeRef at ReferenceManager, so it can be cleared on low memory */
   public void registerNodeRef(NodeRef ref) {
     if (referenceManager != null && !isClosed()) {
@@ -202,7 +341,7 @@ public final class Graph implements AutoCloseable {
 
   @Override
   public String toString() {
-    return String.format("%s [%d nodes]", getClass().getSimpleName(), nodeCount());
+    return String.format("%s [%d nodes]", getClass().getSimpleName(), nodeCountLong());
   }
 
   /**
@@ -227,6 +366,7 @@ public final class Graph implements AutoCloseable {
     logger.info("shutdown: start");
     try {
       heapUsageMonitor.ifPresent(monitor -> monitor.close());
+      writeBehindFlusher.ifPresent(flusher -> flusher.close());
       if (config.getStorageLocation().isPresent()) {
 
         /* persist to disk: if overflow is enabled, ReferenceManager takes care of that
@@ -237,18 +377,28 @@ public final class Graph implements AutoCloseable {
         } else {
           nodes.persistAll(nodesWriter);
         }
+        storage.persistEdgeCounts(edgeCounts.countByLabel());
       }
     } finally {
       if (referenceManager != null) {
         referenceManager.close();
       }
+      if (clearedNodesCache != null) {
+        logger.debug(clearedNodesCache.toString());
+        clearedNodesCache.clear();
+      }
       storage.close();
     }
     logger.info("shutdown finished");
   }
 
-  /** overall number of nodes */
+  /** overall number of nodes, or `Integer.MAX_VALUE` if there are more - see {@link #nodeCountLong()} */
   public int nodeCount() {
+    return (int) Long.min(Integer.MAX_VALUE, nodes.size());
+  }
+
+  /** overall number of nodes, which may exceed `Integer.MAX_VALUE` */
+  public long nodeCountLong() {
     return nodes.size();
   }
 
@@ -262,33 +412,34 @@ public final class Graph implements AutoCloseable {
     Set<String> nodeLabels = nodes.nodeLabels();
     HashMap counts = new HashMap<String, Integer>(nodeLabels.size());
     for (String label : nodeLabels) {
-      counts.put(label, nodes.nodesByLabel(label).size());
+      counts.put(label, nodes.cardinality(label));
     }
     return counts;
   }
 
-  /** calculates the number of edges in the graph
-   * Note: this is an expensive operation, because edges are stored as part of the nodes
-   */
+  /** overall number of edges - maintained while edges are added/removed, i.e. this doesn't need to iterate over the nodes */
   public int edgeCount() {
-    int edgeCount = 0;
-    final Iterator<Node> nodes = nodes();
-    while (nodes.hasNext()) {
-      NodeDb node = getNodeDb(nodes.next());
-      edgeCount += node.outEdgeCount();
-    }
-    return edgeCount;
+    return (int) edgeCounts.totalCount();
   }
 
-  /** number of edges grouped by label */
-  public Map<String, Integer> edgeCountByLabel() {
-    TObjectIntHashMap<String> counts = new TObjectIntHashMap<>();
-    edges().forEachRemaining(edge ->
-      counts.adjustOrPutValue(edge.label(), 1, 1)
-    );
+  /** number of edges for given label */
+  public int edgeCount(String label) {
+    return (int) edgeCounts.count(label);
+  }
+
+  /** estimated heap usage of the nodes that are currently in memory, grouped by label, in bytes
+   * see {@link NodeDb#estimatedSizeInBytes()}
+   * Note: this is an expensive operation, because it iterates over all nodes
+   */
+  public Map<String, Long> residentBytesByLabel() {
+    TObjectLongHashMap<String> bytes = new TObjectLongHashMap<>();
+    nodes().forEachRemaining(node -> {
+      int size = ((NodeRef) node).residentSizeInBytes();
+      if (size > 0) bytes.adjustOrPutValue(node.label(), size, size);
+    });
 
-    Map<String, Integer> ret = new HashMap<>(counts.size());
-    TObjectIntIterator<String> iterator = counts.iterator();
+    Map<String, Long> ret = new HashMap<>(bytes.size());
+    TObjectLongIterator<String> iterator = bytes.iterator();
     while (iterator.hasNext()) {
       iterator.advance();
       ret.put(iterator.key(), iterator.value());
@@ -296,6 +447,14 @@ public final class Graph implements AutoCloseable {
     return ret;
   }
 
+  /** number of edges grouped by label */
+  public Map<String, Integer> edgeCountByLabel() {
+    Map<String, Long> countByLabel = edgeCounts.countByLabel();
+    Map<String, Integer> ret = new HashMap<>(countByLabel.size());
+    countByLabel.forEach((label, count) -> ret.put(label, count.intValue()));
+    return ret;
+  }
+
   /** Iterator over all edges - alias for `edges` */
   public Iterator<Edge> E() {
     return edges();
@@ -311,16 +470,114 @@ public final class Graph implements AutoCloseable {
     return IteratorUtils.flatMap(nodes(), node -> node.outE(label));
   }
 
+  /** Spliterator over all nodes, splits along ranges of the internal node array - weakly consistent like {@link #nodes()} */
+  public Spliterator<Node> nodeSpliterator() {
+    return nodes.spliterator();
+  }
+
+  /** Spliterator over all nodes with given label */
+  public Spliterator<Node> nodeSpliterator(String label) {
+    return nodes.labelSpliterator(label);
+  }
+
+  /** Spliterator over all edges, splits along ranges of their (outgoing) nodes */
+  public Spliterator<Edge> edgeSpliterator() {
+    return new FlatMapSpliterator<>(nodeSpliterator(), Node::outE);
+  }
+
+  /** Spliterator over all edges with given label */
+  public Spliterator<Edge> edgeSpliterator(String label) {
+    return new FlatMapSpliterator<>(nodeSpliterator(), node -> node.outE(label));
+  }
+
+  /** Parallel stream of all nodes, e.g. for whole-graph passes that should use all cores */
+  public Stream<Node> parallelNodes() {
+    return StreamSupport.stream(nodeSpliterator(), true);
+  }
+
+  /** Parallel stream of all nodes with given label */
+  public Stream<Node> parallelNodes(String label) {
+    return StreamSupport.stream(nodeSpliterator(label), true);
+  }
+
+  /** Parallel stream of all edges */
+  public Stream<Edge> parallelEdges() {
+    return StreamSupport.stream(edgeSpliterator(), true);
+  }
+
+  /** Parallel stream of all edges with given label */
+  public Stream<Edge> parallelEdges(String label) {
+    return StreamSupport.stream(edgeSpliterator(label), true);
+  }
+
+  /**
+   * Trims all nodes that are in memory, i.e. releases the spare capacity that's preallocated when adding edges and
+   * the slots of removed edges (see {@link NodeDb#trim()}), which typically makes up a large share of the adjacent
+   * nodes arrays after a bulk import.
+   * Runs in parallel. Nodes that are overflowed to disk are left alone: they're persisted without spare capacity and
+   * trimmed when they're read back in.
+   * @return number of released slots in the adjacent nodes arrays
+   */
+  public long trimAll() {
+    long start = System.currentTimeMillis();
+    final long releasedSlots = parallelNodes().mapToLong(Graph::trimIfResident).sum();
+    logger.debug(String.format("trimmed all nodes in %dms: released %d slots", System.currentTimeMillis() - start, releasedSlots));
+    return releasedSlots;
+  }
+
+  /** @return number of released slots, see {@link #trimAll()} */
+  static long trimIfResident(Node node) {
+    final NodeDb nodeDb = node instanceof NodeRef ? ((NodeRef<?>) node).getOption().orElse(null) : (NodeDb) node;
+    if (nodeDb == null) return 0;
+    final long sizes = nodeDb.trim();
+    return (sizes >>> 32) - (sizes & 0xFFFFFFFFL);
+  }
+
+  /** @return number of dropped removed edges, see {@link NodeDb#compactIfSparse()} */
+  static int compactIfResident(Node node) {
+    final NodeDb nodeDb = node instanceof NodeRef ? ((NodeRef<?>) node).getOption().orElse(null) : (NodeDb) node;
+    return nodeDb == null ? 0 : nodeDb.compactIfSparse();
+  }
+
+  /**
+   * Makes room in the node's adjacent nodes array for the edges that are about to be added, so that it's allocated
+   * once rather than grown repeatedly - see {@link NodeDb#reserveAdjacentCapacity(DegreeHints)}.
+   * Loads the node from storage if it's overflowed.
+   */
+  public void reserveAdjacentCapacity(Node node, DegreeHints degreeHints) {
+    if (degreeHints.isEmpty()) return;
+    final NodeDb nodeDb = node instanceof NodeRef ? ((NodeRef<?>) node).get() : (NodeDb) node;
+    nodeDb.reserveAdjacentCapacity(degreeHints);
+  }
+
+  boolean isTrimAfterBatchedUpdates() {
+    return config.isTrimAfterBatchedUpdates();
+  }
+
+  boolean isCompactAfterBatchedUpdates() {
+    return config.isCompactAfterBatchedUpdates();
+  }
+
   /** Iterator over all nodes - alias for `nodes` */
   public Iterator<Node> V() {
     return nodes();
   }
 
-  /** Iterator over all nodes */
+  /** Iterator over all nodes
+   * weakly consistent: doesn't copy anything, tolerates concurrent additions and removals, but may or may not reflect them
+   */
   public final Iterator<Node> nodes() {
     return nodes.iterator();
   }
 
+  /** Iterator over a snapshot of all nodes, i.e. it's not affected by subsequent additions or removals at all
+   * Note: this copies the internal array, so it's rather expensive for large graphs, and not possible at all for graphs
+   * with more than `Integer.MAX_VALUE` nodes
+   */
+  public final Iterator<Node> nodesSnapshot() {
+    return nodes.snapshotIterator();
+  }
+
   /** Iterator over nodes with provided ids - alias for `nodes(ids...)`
    * note: does not return any nodes if no ids are provided */
   public Iterator<Node> V(long... ids) {
@@ -348,7 +605,7 @@ public final class Graph implements AutoCloseable {
   }
 
   public Iterator<Node> nodes(final String label) {
-    return nodes.nodesByLabel(label).iterator();
+    return nodes.labelIterator(label);
   }
 
   public Iterator<Node> nodes(final String... labels) {
@@ -378,10 +635,7 @@ public final class Graph implements AutoCloseable {
   }
 
   private final void addNodesToMultiIterator(final MultiIterator<Node> multiIterator, final String label) {
-    final Collection<Node> ret = nodes.nodesByLabel(label);
-    if (ret != null) {
-      multiIterator.addIterator(ret.iterator());
-    }
+    multiIterator.addIterator(nodes.labelIterator(label));
   }
 
   public boolean isClosed() {
@@ -4,38 +4,112 @@ import com.sun.management.GarbageCollectionNotificationInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import overflowdb.util.NamedThreadFactory;
 
 import javax.management.ListenerNotFoundException;
 import javax.management.NotificationEmitter;
 import javax.management.NotificationListener;
 import javax.management.openmbean.CompositeData;
 import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * watches GC activity, and when we're low on available heap space, it instructs the ReferenceManager to
  * clear some references, in order to avoid an OutOfMemoryError
+ *
+ * There are two modes, see {@link Mode}. In both modes we differentiate between two thresholds:
+ * above the soft threshold we ask the listener to clear some references in the background, above the hard threshold
+ * we ask it to clear references synchronously. Hard notifications are always delivered on a separate thread owned
+ * by this monitor, so that the listener may block without stalling any JVM-internal notification threads.
  */
 public class HeapUsageMonitor implements AutoCloseable {
   interface HeapNotificationListener {
-    void notifyHeapAboveThreshold();
+    /**
+     * @param heapPressure how far the heap usage is above the soft threshold: 0 means right at the soft threshold,
+     *                     1 means the heap is at the hard threshold
+     */
+    void notifyHeapAboveThreshold(float heapPressure);
+
+    /** heap usage is above the hard threshold, references should be cleared synchronously */
+    void notifyHeapAboveHardThreshold();
+  }
+
+  public enum Mode {
+    /** check the heap usage after each GC, as reported by GC notifications - this is the default */
+    GC_NOTIFICATIONS,
+    /** use the collection usage threshold of the old generation memory pool(s), optionally combined with a periodic
+     * sampler (see {@link Config#withHeapUsageSamplingIntervalMillis}). This reacts earlier than GC notifications,
+     * especially with concurrent collectors like G1 or ZGC, where the old generation may fill up long before the
+     * next GC notification arrives. */
+    USAGE_THRESHOLDS
   }
 
   private final Logger logger = LoggerFactory.getLogger(getClass());
   private final Map<NotificationEmitter, NotificationListener> gcNotificationListeners = new HashMap<>(2);
+  private final float heapUsageThreshold;
+  private final float hardHeapUsageThreshold;
+  private final HeapNotificationListener notificationListener;
+  private final List<MemoryPoolMXBean> oldGenPools = new ArrayList<>(2);
+  /** usage and collection usage thresholds of the {@link #oldGenPools} before we changed them - they're JVM-global,
+   * i.e. we restore them on {@link #close()} */
+  private final List<long[]> previousPoolThresholds = new ArrayList<>(2);
+  private final ScheduledExecutorService executorService =
+      Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("overflowdb-heap-usage-monitor"));
+  /** ensures we don't queue up more hard notifications while one is still pending */
+  private final AtomicBoolean hardNotificationPending = new AtomicBoolean(false);
 
   public HeapUsageMonitor(int heapPercentageThreshold, HeapNotificationListener notificationListener) {
+    this(heapPercentageThreshold, Config.DEFAULT_HARD_HEAP_PERCENTAGE_THRESHOLD, Mode.GC_NOTIFICATIONS, 0, notificationListener);
+  }
+
+  public HeapUsageMonitor(Config config, HeapNotificationListener notificationListener) {
+    this(config.getHeapPercentageThreshold(),
+        config.getHardHeapPercentageThreshold(),
+        config.getHeapMonitoringMode(),
+        config.getHeapUsageSamplingIntervalMillis(),
+        notificationListener);
+  }
+
+  /**
+   * @param samplingIntervalMillis only used in mode {@link Mode#USAGE_THRESHOLDS}; 0 disables the periodic sampler
+   */
+  public HeapUsageMonitor(int heapPercentageThreshold,
+                          int hardHeapPercentageThreshold,
+                          Mode mode,
+                          long samplingIntervalMillis,
+                          HeapNotificationListener notificationListener) {
     if (heapPercentageThreshold < 0 || heapPercentageThreshold > 100) {
       throw new IllegalArgumentException("heapPercentageThreshold must be between 0 and 100, but is " + heapPercentageThreshold);
     }
-    float heapUsageThreshold = (float) heapPercentageThreshold / 100f;
-    installGCMonitoring(heapUsageThreshold, notificationListener);
+    if (hardHeapPercentageThreshold < heapPercentageThreshold || hardHeapPercentageThreshold > 100) {
+      throw new IllegalArgumentException(String.format(
+          "hardHeapPercentageThreshold must be between heapPercentageThreshold (%d) and 100, but is %d",
+          heapPercentageThreshold, hardHeapPercentageThreshold));
+    }
+    this.heapUsageThreshold = (float) heapPercentageThreshold / 100f;
+    this.hardHeapUsageThreshold = (float) hardHeapPercentageThreshold / 100f;
+    this.notificationListener = notificationListener;
+
+    if (mode == Mode.USAGE_THRESHOLDS) {
+      installUsageThresholdMonitoring(samplingIntervalMillis);
+    } else {
+      installGCMonitoring(heapUsageThreshold, notificationListener);
+    }
   }
 
   /**
@@ -44,7 +118,7 @@ public class HeapUsageMonitor implements AutoCloseable {
    * @param heapUsageThreshold range 0.0 - 1.0
    */
   protected void installGCMonitoring(float heapUsageThreshold, HeapNotificationListener notificationListener) {
-    List<GarbageCollectorMXBean> gcbeans = java.lang.management.ManagementFactory.getGarbageCollectorMXBeans();
+    List<GarbageCollectorMXBean> gcbeans = ManagementFactory.getGarbageCollectorMXBeans();
     for (GarbageCollectorMXBean gcbean : gcbeans) {
       NotificationListener listener = createNotificationListener(heapUsageThreshold, notificationListener);
       NotificationEmitter emitter = (NotificationEmitter) gcbean;
@@ -55,6 +129,86 @@ public class HeapUsageMonitor implements AutoCloseable {
     logger.info("installed GC monitors. will clear references if heap (after GC) is larger than " + heapUsageThresholdPercent + "%");
   }
 
+  /**
+   * set usage and collection usage thresholds on the old generation memory pool(s), i.e. the heap pools that support
+   * usage thresholds (eden and survivor spaces don't), and listen for the corresponding notifications.
+   * The usage threshold is crossed as soon as the old generation grows beyond it (e.g. by promotions during a young
+   * GC), while the collection usage threshold only considers the usage after the old generation has been collected.
+   */
+  protected void installUsageThresholdMonitoring(long samplingIntervalMillis) {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      long max = pool.getUsage().getMax();
+      if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+          && pool.isCollectionUsageThresholdSupported() && max > 0) {
+        previousPoolThresholds.add(new long[]{pool.getUsageThreshold(), pool.getCollectionUsageThreshold()});
+        pool.setUsageThreshold((long) (max * heapUsageThreshold));
+        pool.setCollectionUsageThreshold((long) (max * heapUsageThreshold));
+        oldGenPools.add(pool);
+      }
+    }
+    if (oldGenPools.isEmpty()) {
+      logger.warn("no memory pool supports collection usage thresholds - falling back to GC notifications");
+      installGCMonitoring(heapUsageThreshold, notificationListener);
+      return;
+    }
+
+    Map<String, String> capturedMDC = MDC.getCopyOfContextMap();
+    NotificationListener listener = (notification, handback) -> {
+      if (notification.getType().equals(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED)) {
+        withMDC(capturedMDC, () -> checkHeapUsage(oldGenUsage(), "threshold exceeded"));
+      } else if (notification.getType().equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED)) {
+        withMDC(capturedMDC, () -> checkHeapUsage(oldGenCollectionUsage(), "after GC"));
+      }
+    };
+    NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+    emitter.addNotificationListener(listener, null, null);
+    gcNotificationListeners.put(emitter, listener);
+
+    if (samplingIntervalMillis > 0) {
+      executorService.scheduleWithFixedDelay(
+          () -> checkHeapUsage(oldGenUsage(), "sampled"), samplingIntervalMillis, samplingIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    int softPercent = (int) Math.floor(heapUsageThreshold * 100f);
+    int hardPercent = (int) Math.floor(hardHeapUsageThreshold * 100f);
+    logger.info(String.format("installed usage threshold monitors on %s (sampling interval: %dms). will clear references " +
+        "in the background if old generation usage is larger than %d%%, and synchronously if it's larger than %d%%",
+        poolNames(), samplingIntervalMillis, softPercent, hardPercent));
+  }
+
+  private String poolNames() {
+    List<String> names = new ArrayList<>(oldGenPools.size());
+    for (MemoryPoolMXBean pool : oldGenPools) names.add(pool.getName());
+    return String.join(", ", names);
+  }
+
+  /** usage of the old generation pools after the most recent GC, range 0.0 - 1.0 */
+  private float oldGenCollectionUsage() {
+    long used = 0;
+    long max = 0;
+    for (MemoryPoolMXBean pool : oldGenPools) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (usage != null) {
+        used += usage.getUsed();
+        max += usage.getMax();
+      }
+    }
+    return max > 0 ? (float) used / (float) max : 0f;
+  }
+
+  /** current usage of the old generation pools, range 0.0 - 1.0
+   * n.b. this includes garbage that hasn't been collected yet, i.e. it errs on the side of caution */
+  private float oldGenUsage() {
+    long used = 0;
+    long max = 0;
+    for (MemoryPoolMXBean pool : oldGenPools) {
+      MemoryUsage usage = pool.getUsage();
+      used += usage.getUsed();
+      max += usage.getMax();
+    }
+    return max > 0 ? (float) used / (float) max : 0f;
+  }
+
   private NotificationListener createNotificationListener(float heapUsageThreshold, HeapNotificationListener notificationListener) {
     //we have no control where the notificationListeners will run -- presumably some thread belonging to GC / JVM.
     //so we need to capture MDC now
@@ -76,32 +230,64 @@ public class HeapUsageMonitor implements AutoCloseable {
           }
         }
         float heapUsage = (float) totalMemUsed / (float) totalMemMax;
-        int heapUsagePercent = (int) Math.floor(heapUsage * 100f);
         if (heapUsage > heapUsageThreshold) {
-          Map<String, String> oldMDC = MDC.getCopyOfContextMap();
-          try{
-            //logback chokes on null-maps
-            if(capturedMDC != null) MDC.setContextMap(capturedMDC);
-            else MDC.clear();
-            String msg = "heap usage after GC: " + heapUsagePercent + "% -> will clear some references (if possible)";
-            if (heapUsagePercent > 95) logger.warn(msg);
-            else logger.info(msg);
-
-            notificationListener.notifyHeapAboveThreshold();
-          } finally{
-            //logback chokes on null-maps
-            if(oldMDC != null) MDC.setContextMap(oldMDC);
-            else MDC.clear();
-          }
+          withMDC(capturedMDC, () -> checkHeapUsage(heapUsage, "after GC"));
         } else {
           // note: this message won't have correct MDC, but that shouldn't matter too much
+          int heapUsagePercent = (int) Math.floor(heapUsage * 100f);
           logger.trace("heap usage after GC: " + heapUsagePercent + "%");
         }
       }
     };
   }
 
+  /**
+   * notify the listener if the given heap usage is above the soft or hard threshold
+   * @param heapUsage range 0.0 - 1.0
+   */
+  private void checkHeapUsage(float heapUsage, String context) {
+    int heapUsagePercent = (int) Math.floor(heapUsage * 100f);
+    if (heapUsage > hardHeapUsageThreshold) {
+      if (hardNotificationPending.compareAndSet(false, true)) {
+        logger.warn("heap usage (" + context + "): " + heapUsagePercent + "% -> will clear some references synchronously (if possible)");
+        executorService.execute(() -> {
+          hardNotificationPending.set(false);
+          notificationListener.notifyHeapAboveHardThreshold();
+        });
+      }
+    } else if (heapUsage > heapUsageThreshold) {
+      logger.info("heap usage (" + context + "): " + heapUsagePercent + "% -> will clear some references (if possible)");
+      notificationListener.notifyHeapAboveThreshold(heapPressure(heapUsage, heapUsageThreshold, hardHeapUsageThreshold));
+    } else {
+      logger.trace("heap usage (" + context + "): " + heapUsagePercent + "%");
+    }
+  }
+
+  private void withMDC(Map<String, String> capturedMDC, Runnable runnable) {
+    Map<String, String> oldMDC = MDC.getCopyOfContextMap();
+    try {
+      //logback chokes on null-maps
+      if (capturedMDC != null) MDC.setContextMap(capturedMDC);
+      else MDC.clear();
+      runnable.run();
+    } finally {
+      //logback chokes on null-maps
+      if (oldMDC != null) MDC.setContextMap(oldMDC);
+      else MDC.clear();
+    }
+  }
+
+  /** @return how far the heap usage is above the soft threshold, between 0 and 1 */
+  static float heapPressure(float heapUsage, float heapUsageThreshold, float hardHeapUsageThreshold) {
+    if (heapUsage >= hardHeapUsageThreshold || heapUsageThreshold >= hardHeapUsageThreshold) {
+      return 1f;
+    }
+    float pressure = (heapUsage - heapUsageThreshold) / (hardHeapUsageThreshold - heapUsageThreshold);
+    return Float.max(0f, Float.min(1f, pressure));
+  }
+
   public void close() {
+    executorService.shutdownNow();
     while (!gcNotificationListeners.isEmpty()) {
       Map.Entry<NotificationEmitter, NotificationListener> entry = gcNotificationListeners.entrySet().iterator().next();
       try {
@@ -111,6 +297,14 @@ public class HeapUsageMonitor implements AutoCloseable {
         throw new RuntimeException("unable to remove GC monitor", e);
       }
     }
+    for (int i = 0; i < oldGenPools.size(); i++) {
+      MemoryPoolMXBean pool = oldGenPools.get(i);
+      long[] thresholds = previousPoolThresholds.get(i);
+      pool.setUsageThreshold(thresholds[0]);
+      pool.setCollectionUsageThreshold(thresholds[1]);
+    }
+    oldGenPools.clear();
+    previousPoolThresholds.clear();
     logger.debug("uninstalled GC monitors.");
   }
 }
@@ -0,0 +1,43 @@
+package overflowdb;
+
+/**
+ * Hands out ids for nodes that are added without an explicit id, see {@link Graph#addNode(String, Object...)}.
+ * Ids should be dense (i.e. start at 0 and have few gaps), because {@link overflowdb.util.NodesList} resolves those by
+ * array indexing rather than via a hash map.
+ *
+ * Can be passed as {@link BatchedUpdate.KeyPool} to {@link BatchedUpdate#applyDiff}, but that's the same as passing no
+ * key pool at all. Conversely, ids that are handed out by a separate key pool are added as explicit ids, and the graph
+ * {@link #reserve}s them, so that they're not handed out again.
+ */
+public interface IdAllocator extends BatchedUpdate.KeyPool {
+
+  /** @return a new id */
+  @Override
+  long next();
+
+  /** @return the first of `count` new consecutive ids */
+  long nextRange(int count);
+
+  /**
+   * Ensures that the given id will not be handed out from now on, e.g. because a node with that id was added
+   * explicitly. Ids below it may still be handed out.
+   */
+  void reserve(long id);
+
+  /** one shared counter, i.e. ids are handed out in order */
+  static IdAllocator sequential() {
+    return new SequentialIdAllocator();
+  }
+
+  /**
+   * Each thread leases blocks of `blockSize` consecutive ids from a shared counter, and hands out ids from its current
+   * block without any synchronization, i.e. concurrent importers don't contend on id assignment. The id space has gaps
+   * of at most `blockSize` ids per thread, e.g. for the unused rest of blocks of threads that stopped adding nodes.
+   *
+   * n.b. {@link #reserve} only affects blocks that are leased afterwards: explicit ids must not be mixed with allocated
+   * ids while other threads are still allocating from their current blocks.
+   */
+  static IdAllocator perThreadBlocks(int blockSize) {
+    return new BlockIdAllocator(blockSize);
+  }
+}
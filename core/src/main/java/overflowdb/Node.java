@@ -4,6 +4,7 @@ import overflowdb.util.PropertyHelper;
 
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public abstract class Node extends Element implements NodeOrDetachedNode {
@@ -66,6 +67,18 @@ public abstract class Node extends Element implements NodeOrDetachedNode {
   /* adjacent OUT/IN nodes for given labels */
   public abstract Iterator<Node> both(String... edgeLabels);
 
+  /* visit adjacent OUT nodes for given label, without allocating an iterator */
+  public abstract void forEachOut(String edgeLabel, Consumer<NodeRef> visitor);
+
+  /* visit adjacent IN nodes for given label, without allocating an iterator */
+  public abstract void forEachIn(String edgeLabel, Consumer<NodeRef> visitor);
+
+  /* cursor over OUT edges for given labels (all labels if none are given), without instantiating an edge each */
+  public abstract EdgeCursor outEdgeCursor(String... edgeLabels);
+
+  /* cursor over IN edges for given labels (all labels if none are given), without instantiating an edge each */
+  public abstract EdgeCursor inEdgeCursor(String... edgeLabels);
+
   /* adjacent OUT edges (all labels) */
   public abstract Iterator<Edge> outE();
 
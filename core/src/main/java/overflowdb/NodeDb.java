@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Holds node properties and edges to adjacent nodes (including edge properties).
@@ -45,7 +46,27 @@ public abstract class NodeDb extends Node {
    */
   private volatile boolean dirty;
 
+  /**
+   * Per label block (by offset position): index of the adjacent nodes for blocks with many edges, or `null` if there
+   * are none yet - see {@link BlockOffsetIndex}. Copy on write, replaced under the monitor.
+   */
+  private volatile BlockOffsetIndex[] blockOffsetIndexes;
+
+  /**
+   * Number of removed edges per label block (by offset position), whose slots are still in the adjacent nodes array,
+   * or `null` if there are none - see {@link #trim()} and {@link #compactIfSparse()}. Guarded by the monitor.
+   */
+  private int[] removedEdgeCounts;
+
+  /** size of the serialized properties, as of the last time this node was serialized or deserialized */
+  private int lastSerializedPropertiesSize;
+
   private static final String[] ALL_LABELS = new String[0];
+  private static final int[] NO_PROPERTY_OFFSETS = new int[0];
+
+  /** rough overheads for {@link #estimatedSizeInBytes()}: object header and fields, and per property (field + boxing) */
+  private static final int ESTIMATED_BASE_SIZE = 64;
+  private static final int ESTIMATED_SIZE_PER_PROPERTY = 16;
 
   protected NodeDb(NodeRef ref) {
     this.ref = ref;
@@ -253,11 +274,18 @@ public abstract class NodeDb extends Node {
     if (propertyPosition == -1) {
       throw new RuntimeException("Edge " + edgeLabel + " does not support property `" + key + "`.");
     }
-    adjacentNodesTmp.nodesWithEdgeProperties[propertyPosition] = value;
+    adjacentNodesTmp.nodesWithEdgeProperties[propertyPosition] = internIfString(value);
     /* marking as dirty *after* we updated - if node gets serialized before we finish, it'll be marked as dirty */
     this.markAsDirty();
   }
 
+  /** edge property values are often repeated across many edges, e.g. names or kinds: share one instance for all of them */
+  private Object internIfString(Object value) {
+    return value instanceof String && ref.graph != null
+        ? ref.graph.getStringInterner().intern((String) value)
+        : value;
+  }
+
   public void removeEdgeProperty(Direction direction, String edgeLabel, String key, int blockOffset) {
     setEdgeProperty(direction, edgeLabel, key, null, blockOffset);
   }
@@ -345,11 +373,7 @@ public abstract class NodeDb extends Node {
   /* adjacent IN nodes (all labels) */
   @Override
   public Iterator<Node> in() {
-    final MultiIterator<Node> multiIterator = new MultiIterator<>();
-    for (String label : layoutInformation().allowedInEdgeLabels()) {
-      multiIterator.addIterator(in(label));
-    }
-    return multiIterator;
+    return createAdjacentNodeIterator(Direction.IN, ALL_LABELS);
   }
 
   /* adjacent IN nodes for given labels */
@@ -361,19 +385,65 @@ public abstract class NodeDb extends Node {
   /* adjacent OUT/IN nodes (all labels) */
   @Override
   public Iterator<Node> both() {
-    final MultiIterator<Node> multiIterator = new MultiIterator<>();
-    multiIterator.addIterator(out());
-    multiIterator.addIterator(in());
-    return multiIterator;
+    return createAdjacentNodeIterator(Direction.BOTH, ALL_LABELS);
   }
 
   /* adjacent OUT/IN nodes for given labels */
   @Override
   public Iterator<Node> both(String... edgeLabels) {
-    final MultiIterator<Node> multiIterator = new MultiIterator<>();
-    multiIterator.addIterator(out(edgeLabels));
-    multiIterator.addIterator(in(edgeLabels));
-    return multiIterator;
+    return createAdjacentNodeIterator(Direction.BOTH, edgeLabels);
+  }
+
+  /**
+   * Calls the visitor for each adjacent OUT node via the given label - like {@link #out(String...)}, but without
+   * allocating an iterator.
+   */
+  public void forEachOut(String edgeLabel, Consumer<NodeRef> visitor) {
+    forEachAdjacentNode(getPositionInEdgeOffsets(Direction.OUT, edgeLabel), visitor);
+  }
+
+  /**
+   * Calls the visitor for each adjacent IN node via the given label - like {@link #in(String...)}, but without
+   * allocating an iterator.
+   */
+  public void forEachIn(String edgeLabel, Consumer<NodeRef> visitor) {
+    forEachAdjacentNode(getPositionInEdgeOffsets(Direction.IN, edgeLabel), visitor);
+  }
+
+  /* cursor over OUT edges for given labels (all labels if none are given) */
+  @Override
+  public EdgeCursor outEdgeCursor(String... edgeLabels) {
+    return new EdgeCursor(ref, this.adjacentNodes, layoutInformation(), offsetPositions(Direction.OUT, edgeLabels));
+  }
+
+  /* cursor over IN edges for given labels (all labels if none are given) */
+  @Override
+  public EdgeCursor inEdgeCursor(String... edgeLabels) {
+    return new EdgeCursor(ref, this.adjacentNodes, layoutInformation(), offsetPositions(Direction.IN, edgeLabels));
+  }
+
+  /** offset positions for the given labels and direction, or for all labels of that direction if none are given */
+  private final int[] offsetPositions(Direction direction, String[] labels) {
+    final String[] labelsToFollow = labels.length == 0 ? allowedLabelsByDirection(direction) : labels;
+    final int[] offsetPositions = new int[labelsToFollow.length];
+    for (int i = 0; i < labelsToFollow.length; i++) {
+      offsetPositions[i] = getPositionInEdgeOffsets(direction, labelsToFollow[i]);
+    }
+    return offsetPositions;
+  }
+
+  private final void forEachAdjacentNode(int offsetPos, Consumer<NodeRef> visitor) {
+    if (offsetPos == -1) return;
+    final AdjacentNodes adjacentNodesTmp = this.adjacentNodes;
+    final Object[] array = adjacentNodesTmp.nodesWithEdgeProperties;
+    final int start = startIndex(adjacentNodesTmp, offsetPos);
+    final int end = start + blockLength(adjacentNodesTmp, offsetPos);
+    final int strideSize = layoutInformation().getEdgePropertyCountByOffsetPos(offsetPos) + 1;
+    for (int i = start; i < end; i += strideSize) {
+      final Object adjacentNode = array[i];
+      // n.b. may be `null`, e.g. if an edge was deleted
+      if (adjacentNode != null) visitor.accept((NodeRef) adjacentNode);
+    }
   }
 
   /* adjacent OUT edges (all labels) */
@@ -428,20 +498,26 @@ public abstract class NodeDb extends Node {
 
   protected int outEdgeCount() {
     int count = 0;
-    AdjacentNodes adjacentNodesTmp = this.adjacentNodes;
     for (String label : layoutInformation().allowedOutEdgeLabels()) {
-      int offsetPos = getPositionInEdgeOffsets(Direction.OUT, label);
-      if (offsetPos != -1) {
-        int start = startIndex(adjacentNodesTmp, offsetPos);
-        int length = blockLength(adjacentNodesTmp, offsetPos);
-        int strideSize = getStrideSize(label);
-        int exclusiveEnd = start + length;
-        for (int i = start;
-             i < adjacentNodesTmp.nodesWithEdgeProperties.length && i < exclusiveEnd;
-             i += strideSize) {
-          if (adjacentNodesTmp.nodesWithEdgeProperties[i] != null) {
-            count++;
-          }
+      count += outEdgeCount(label);
+    }
+    return count;
+  }
+
+  protected int outEdgeCount(String label) {
+    int count = 0;
+    AdjacentNodes adjacentNodesTmp = this.adjacentNodes;
+    int offsetPos = getPositionInEdgeOffsets(Direction.OUT, label);
+    if (offsetPos != -1) {
+      int start = startIndex(adjacentNodesTmp, offsetPos);
+      int length = blockLength(adjacentNodesTmp, offsetPos);
+      int strideSize = getStrideSize(label);
+      int exclusiveEnd = start + length;
+      for (int i = start;
+           i < adjacentNodesTmp.nodesWithEdgeProperties.length && i < exclusiveEnd;
+           i += strideSize) {
+        if (adjacentNodesTmp.nodesWithEdgeProperties[i] != null) {
+          count++;
         }
       }
     }
@@ -467,7 +543,14 @@ public abstract class NodeDb extends Node {
     Object[] adjacentNodesWithEdgeProperties = adjacentNodesTmp.nodesWithEdgeProperties;
 
     int occurrenceCount = -1;
-    for (int i = start; i <= start + blockOffset; i += strideSize) {
+    int scanFrom = 0;
+    BlockOffsetIndex index = blockOffsetIndex(adjacentNodesTmp, offsetPos, strideSize);
+    if (index != null) {
+      occurrenceCount += index.countOccurrences(adjacentNodesWithEdgeProperties, start, strideSize, otherNode,
+          Integer.min(blockOffset + 1, blockLength(adjacentNodesTmp, offsetPos)));
+      scanFrom = index.indexedLength();
+    }
+    for (int i = start + scanFrom; i <= start + blockOffset; i += strideSize) {
       final NodeRef adjacentNodeWithProperty = (NodeRef) adjacentNodesWithEdgeProperties[i];
       if (adjacentNodeWithProperty != null &&
           adjacentNodeWithProperty.id() == otherNode.id()) {
@@ -501,8 +584,16 @@ public abstract class NodeDb extends Node {
 
     Object[] adjacentNodesWithEdgeProperties = adjacentNodesTmp.nodesWithEdgeProperties;
     int currentOccurrence = 0;
+    int scanFrom = 0;
+    BlockOffsetIndex index = blockOffsetIndex(adjacentNodesTmp, offsetPos, strideSize);
+    if (index != null) {
+      int blockOffset = index.findOccurrence(adjacentNodesWithEdgeProperties, start, strideSize, adjacentNode, occurrence, length);
+      if (blockOffset >= 0) return blockOffset;
+      currentOccurrence = -1 - blockOffset;
+      scanFrom = index.indexedLength();
+    }
     int exclusiveEnd = start + length;
-    for (int i = start; i < exclusiveEnd; i += strideSize) {
+    for (int i = start + scanFrom; i < exclusiveEnd; i += strideSize) {
       final NodeRef adjacentNodeWithProperty = (NodeRef) adjacentNodesWithEdgeProperties[i];
       if (adjacentNodeWithProperty != null &&
           adjacentNodeWithProperty.id() == adjacentNode.id()) {
@@ -518,21 +609,67 @@ public abstract class NodeDb extends Node {
         + label + " edge to node " + adjacentNode.id());
   }
 
+  /**
+   * @return index for translating between blockOffset and occurrence in the given block, or `null` if the block has
+   * too few edges to be worth it - built on demand, and rebuilt once it covers too little of the block
+   */
+  private final BlockOffsetIndex blockOffsetIndex(AdjacentNodes adjacentNodesTmp, int offsetPos, int strideSize) {
+    int length = blockLength(adjacentNodesTmp, offsetPos);
+    if (length < BlockOffsetIndex.MIN_EDGES * strideSize) {
+      return null;
+    }
+    BlockOffsetIndex[] indexes = this.blockOffsetIndexes;
+    BlockOffsetIndex index = indexes == null ? null : indexes[offsetPos];
+    if (index == null || index.isOutdated(length)) {
+      index = rebuildBlockOffsetIndex(offsetPos, strideSize);
+    }
+    return index;
+  }
+
+  /** synchronized, so that an index that's built from an outdated layout can't be published after a compaction */
+  private final synchronized BlockOffsetIndex rebuildBlockOffsetIndex(int offsetPos, int strideSize) {
+    AdjacentNodes adjacentNodesTmp = this.adjacentNodes;
+    BlockOffsetIndex index = BlockOffsetIndex.build(adjacentNodesTmp.nodesWithEdgeProperties,
+        startIndex(adjacentNodesTmp, offsetPos), blockLength(adjacentNodesTmp, offsetPos), strideSize);
+    BlockOffsetIndex[] indexes = this.blockOffsetIndexes == null
+        ? new BlockOffsetIndex[adjacentNodesTmp.offsetLengths() / 2]
+        : this.blockOffsetIndexes.clone();
+    indexes[offsetPos] = index;
+    this.blockOffsetIndexes = indexes;
+    return index;
+  }
+
   /**
    * Removes an 'edge', i.e. in reality it removes the information about the adjacent node from
-   * `adjacentNodesWithEdgeProperties`. The corresponding elements will be set to `null`, i.e. we'll have holes.
+   * `adjacentNodesWithEdgeProperties`. The corresponding elements will be set to `null`, i.e. we'll have holes, which
+   * are counted per block and dropped by {@link #trim()} and {@link #compactIfSparse()}.
    * Note: this decrements the `offset` of the following edges in the same block by one, but that's ok because the only
    * thing that matters is that the offset is identical for both connected nodes (assuming thread safety).
    *
    * @param blockOffset must have been initialized
+   * @param adjacentNode the node at the other end of the edge
+   * @throws IllegalStateException if the blockOffset is outdated, see {@link #checkBlockOffset}
    */
-  protected final synchronized void removeEdge(Direction direction, String label, int blockOffset) {
+  protected final synchronized void removeEdge(Direction direction, String label, int blockOffset, NodeRef adjacentNode) {
+    checkBlockOffset(direction, label, blockOffset, adjacentNode);
     AdjacentNodes adjacentNodesTmp = this.adjacentNodes;
     int offsetPos = getPositionInEdgeOffsets(direction, label);
     int start = startIndex(adjacentNodesTmp, offsetPos) + blockOffset;
     int strideSize = getStrideSize(label);
     Object[] adjacentNodesWithEdgeProperties = adjacentNodesTmp.nodesWithEdgeProperties;
 
+    // unless it had already been removed before
+    if (adjacentNodesWithEdgeProperties[start] != null) {
+      // every edge is counted once, at its OUT node
+      if (direction == Direction.OUT) {
+        ref.graph.edgeCounts.decrement(label);
+      }
+      if (removedEdgeCounts == null) {
+        removedEdgeCounts = new int[adjacentNodesTmp.offsetLengths() / 2];
+      }
+      removedEdgeCounts[offsetPos]++;
+    }
+    // n.b. in place, starting with the node ref: concurrent readers skip the edge from then on
     for (int i = start; i < start + strideSize; i++) {
       adjacentNodesWithEdgeProperties[i] = null;
     }
@@ -541,6 +678,24 @@ public abstract class NodeDb extends Node {
     this.markAsDirty();
   }
 
+  /**
+   * Checks that the slot at `blockOffset` still refers to `adjacentNode`, or is empty because the edge was removed
+   * already. Otherwise the blockOffset is outdated, i.e. the block was trimmed or compacted since the {@link Edge} was
+   * obtained (see {@link #trim()} and {@link #compactIfSparse()}), and the slot belongs to a different edge, if any.
+   * @throws IllegalStateException if the blockOffset is outdated
+   */
+  final void checkBlockOffset(Direction direction, String label, int blockOffset, NodeRef adjacentNode) {
+    AdjacentNodes adjacentNodesTmp = this.adjacentNodes;
+    int offsetPos = getPositionInEdgeOffsets(direction, label);
+    if (blockOffset >= 0 && blockOffset < blockLength(adjacentNodesTmp, offsetPos)) {
+      final NodeRef slot = (NodeRef) adjacentNodesTmp.nodesWithEdgeProperties[startIndex(adjacentNodesTmp, offsetPos) + blockOffset];
+      if (slot == null || slot.id() == adjacentNode.id()) return;
+    }
+    throw new IllegalStateException(String.format(
+        "outdated %s edge: %s adjacent node %d of node %d isn't at blockOffset %d anymore - was the node trimmed or compacted since the edge was obtained?",
+        label, direction, adjacentNode.id(), id(), blockOffset));
+  }
+
   private Iterator<Edge> createDummyEdgeIterator(Direction direction, String... labels) {
     if (labels.length == 1) {
       return createDummyEdgeIteratorForSingleLabel(adjacentNodes, direction, labels[0]);
@@ -572,19 +727,32 @@ public abstract class NodeDb extends Node {
     }
   }
 
+  /** a single iterator over all blocks for the given labels, or all labels if none are given */
   private final <A extends Node> Iterator<A> createAdjacentNodeIterator(Direction direction, String... labels) {
-    if (labels.length == 1) {
+    if (labels.length == 1 && direction != Direction.BOTH) {
       return createAdjacentNodeIteratorByOffSet(getPositionInEdgeOffsets(direction, labels[0]));
+    } else if (labels.length == 0) {
+      // offset positions: out labels first, then in labels
+      final NodeLayoutInformation layout = layoutInformation();
+      final int outLabelCount = layout.allowedOutEdgeLabels().length;
+      final int from = direction == Direction.IN ? outLabelCount : 0;
+      final int until = direction == Direction.OUT ? outLabelCount : layout.numberOfDifferentAdjacentTypes();
+      return new AdjacentNodesIterator<>(this.adjacentNodes, layout, from, until);
     } else {
-      final String[] labelsToFollow =
-          labels.length == 0
-              ? allowedLabelsByDirection(direction)
-              : labels;
-      final MultiIterator<A> multiIterator = new MultiIterator<>();
-      for (String label : labelsToFollow) {
-        multiIterator.addIterator(createAdjacentNodeIteratorByOffSet(getPositionInEdgeOffsets(direction, label)));
+      final int[] offsetPositions;
+      if (direction == Direction.BOTH) {
+        offsetPositions = new int[labels.length * 2];
+        for (int i = 0; i < labels.length; i++) {
+          offsetPositions[i] = getPositionInEdgeOffsets(Direction.OUT, labels[i]);
+          offsetPositions[labels.length + i] = getPositionInEdgeOffsets(Direction.IN, labels[i]);
+        }
+      } else {
+        offsetPositions = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+          offsetPositions[i] = getPositionInEdgeOffsets(direction, labels[i]);
+        }
       }
-      return multiIterator;
+      return new AdjacentNodesIterator<>(this.adjacentNodes, layoutInformation(), offsetPositions);
     }
   }
 
@@ -628,14 +796,23 @@ public abstract class NodeDb extends Node {
                                 String edgeLabel,
                                 NodeRef adjacentNode,
                                 Object... edgeKeyValues) {
-    int blockOffset = storeAdjacentNode(direction, edgeLabel, adjacentNode);
-
-    /* set edge properties */
-    for (int i = 0; i < edgeKeyValues.length; i = i + 2) {
-      String key = (String) edgeKeyValues[i];
-      Object value = edgeKeyValues[i + 1];
-      setEdgeProperty(direction, edgeLabel, key, value, blockOffset);
+    int blockOffset = restoreAdjacentNode(direction, edgeLabel, adjacentNode, edgeKeyValues);
+    // every edge is counted once, at its OUT node
+    if (direction == Direction.OUT) {
+      ref.graph.edgeCounts.increment(edgeLabel);
     }
+    return blockOffset;
+  }
+
+  /**
+   * Like {@link #storeAdjacentNode(Direction, String, NodeRef, Object...)}, but for edges that are already accounted
+   * for in the graph's edge counts, i.e. when deserializing a node.
+   */
+  public synchronized int restoreAdjacentNode(Direction direction,
+                                              String edgeLabel,
+                                              NodeRef adjacentNode,
+                                              Object... edgeKeyValues) {
+    int blockOffset = appendAdjacentNode(direction, edgeLabel, adjacentNode, edgeKeyValues);
 
     /* marking as dirty *after* we updated - if node gets serialized before we finish, it'll be marked as dirty */
     this.markAsDirty();
@@ -643,17 +820,31 @@ public abstract class NodeDb extends Node {
     return blockOffset;
   }
 
-  //implicitly synchronized -- caller already holds monitor
-  private final int storeAdjacentNode(Direction direction, String edgeLabel, NodeRef nodeRef) {
+  /**
+   * Writes the adjacent node and its edge properties into free slots at the end of the label's block, which readers
+   * don't look at yet, and only then publishes them by storing a copy of the AdjacentNodes with the new block length,
+   * i.e. readers see either all or nothing of the new edge - see {@link AdjacentNodes}.
+   * implicitly synchronized -- caller already holds monitor
+   */
+  private final int appendAdjacentNode(Direction direction, String edgeLabel, NodeRef nodeRef, Object[] edgeKeyValues) {
     AdjacentNodes tmp = this.adjacentNodes; //load acquire
     int offsetPos = getPositionInEdgeOffsets(direction, edgeLabel);
     if (offsetPos == -1) {
       throw new RuntimeException(
           String.format("Edge with type='%s' with direction='%s' not supported by nodeType='%s'" , edgeLabel, direction, label()));
     }
+    // resolve all property positions before writing anything, so that an invalid key doesn't leave a partial entry
+    final int[] propertyOffsets = edgeKeyValues.length == 0 ? NO_PROPERTY_OFFSETS : new int[edgeKeyValues.length / 2];
+    for (int i = 0; i < propertyOffsets.length; i++) {
+      String key = (String) edgeKeyValues[2 * i];
+      propertyOffsets[i] = layoutInformation().getEdgePropertyOffsetRelativeToAdjacentNodeRef(edgeLabel, key);
+      if (propertyOffsets[i] == -1) {
+        throw new RuntimeException("Edge " + edgeLabel + " does not support property `" + key + "`.");
+      }
+    }
     int start = startIndex(tmp, offsetPos);
     int length = blockLength(tmp, offsetPos);
-    int strideSize = getStrideSize(edgeLabel);
+    int strideSize = layoutInformation().getEdgePropertyCountByOffsetPos(offsetPos) + 1;
 
     Object[] adjacentNodesWithEdgeProperties = tmp.nodesWithEdgeProperties;
     int edgeOffsetLengthB2 = tmp.offsetLengths() >> 1;
@@ -663,12 +854,20 @@ public abstract class NodeDb extends Node {
         || adjacentNodesWithEdgeProperties[insertAt] != null
         || (offsetPos + 1 < edgeOffsetLengthB2 && insertAt >= startIndex(tmp, offsetPos + 1))) {
       // space already occupied - grow adjacentNodesWithEdgeProperties array, leaving some room for more elements
-      tmp = growAdjacentNodesWithEdgeProperties(tmp, offsetPos, strideSize, insertAt, length);
+      tmp = growAdjacentNodesWithEdgeProperties(tmp, offsetPos, strideSize);
+      // the growth policy may have moved this block as well
+      insertAt = startIndex(tmp, offsetPos) + length;
     }
 
-    tmp.nodesWithEdgeProperties[insertAt] = nodeRef;
-    // update edgeOffset length to include the newly inserted element
-    tmp = tmp.setOffset(2 * offsetPos + 1, length + strideSize);
+    Object[] nodesWithEdgeProperties = tmp.nodesWithEdgeProperties;
+    for (int i = 0; i < propertyOffsets.length; i++) {
+      nodesWithEdgeProperties[insertAt + propertyOffsets[i]] = internIfString(edgeKeyValues[2 * i + 1]);
+    }
+    nodesWithEdgeProperties[insertAt] = nodeRef;
+    // update edgeOffset length to include the newly inserted element - in a copy, unless it's a new instance anyway
+    tmp = tmp == this.adjacentNodes
+        ? tmp.withOffset(2 * offsetPos + 1, length + strideSize)
+        : tmp.setOffset(2 * offsetPos + 1, length + strideSize);
 
     this.adjacentNodes = tmp; //store release
     int blockOffset = length;
@@ -715,30 +914,145 @@ public abstract class NodeDb extends Node {
   }
 
   /**
-   * grow the adjacentNodesWithEdgeProperties array
+   * Makes room for the given number of additional edges per label and direction up front, so that adding them doesn't
+   * grow the adjacent nodes array again and again - e.g. for bulk updates that know the degrees in advance.
+   * Reserves what's missing in a single reallocation, and not at all if there's enough room already. Blocks that need
+   * to grow get at least as much room as the graph's {@link AdjacencyGrowthPolicy} would give them, so that many small
+   * reservations in a row don't reallocate every time.
+   */
+  public synchronized void reserveAdjacentCapacity(DegreeHints degreeHints) {
+    AdjacentNodes adjacentNodesOld = this.adjacentNodes;
+    int[] edgeCounts = degreeHints.edgeCountsByOffsetPos(layoutInformation());
+    int[] lengths = blockLengths(adjacentNodesOld);
+    int[] capacities = blockCapacities(adjacentNodesOld);
+    int[] strideSizes = strideSizes(lengths.length);
+    int[] newCapacities = null;
+    for (int i = 0; i < lengths.length; i++) {
+      long required = (long) lengths[i] + (long) edgeCounts[i] * strideSizes[i];
+      if (required > capacities[i]) {
+        if (newCapacities == null) newCapacities = capacities.clone();
+        int requiredSlots = (int) Long.min(required - lengths[i], Integer.MAX_VALUE - lengths[i]);
+        int[] policyCapacities =
+            adjacencyGrowthPolicy().newCapacities(layoutInformation(), lengths, capacities, strideSizes, i, requiredSlots);
+        for (int j = 0; j < newCapacities.length; j++) {
+          newCapacities[j] = Integer.max(newCapacities[j], policyCapacities[j]);
+        }
+        newCapacities[i] = Integer.max(newCapacities[i], lengths[i] + requiredSlots);
+      }
+    }
+    if (newCapacities != null) {
+      this.adjacentNodes = relayoutAdjacentNodes(adjacentNodesOld, lengths, newCapacities); //store release
+    }
+  }
+
+  /**
+   * grow the adjacentNodesWithEdgeProperties array, so that the given block has room for at least `requiredSlots`
+   * more slots
    * <p>
    * preallocates more space than immediately necessary, so we don't need to grow the array every time
-   * (tradeoff between performance and memory).
-   * grows with the square root of the double of the current capacity.
+   * (tradeoff between performance and memory) - how much is up to the graph's {@link AdjacencyGrowthPolicy}.
+   * Lays out all blocks anew, in a new instance, i.e. concurrent readers of the old one are unaffected.
    */
   private final AdjacentNodes growAdjacentNodesWithEdgeProperties(
-      AdjacentNodes adjacentNodesOld, int offsetPos, int strideSize, int insertAt, int currentLength) {
-    int growthEmptyFactor = 2;
-    int additionalEntriesCount = (currentLength + strideSize) * growthEmptyFactor;
+      AdjacentNodes adjacentNodesOld, int offsetPos, int requiredSlots) {
+    int[] lengths = blockLengths(adjacentNodesOld);
+    int[] capacities = blockCapacities(adjacentNodesOld);
+    int[] strideSizes = strideSizes(lengths.length);
+
+    AdjacencyGrowthPolicy growthPolicy = adjacencyGrowthPolicy();
+    int[] newCapacities = growthPolicy.newCapacities(layoutInformation(), lengths, capacities, strideSizes, offsetPos, requiredSlots);
+    for (int i = 0; i < lengths.length; i++) {
+      int minCapacity = lengths[i] + (i == offsetPos ? requiredSlots : 0);
+      if (newCapacities[i] < minCapacity) {
+        throw new IllegalStateException(String.format("%s returned capacity %d for block %d, but it needs at least %d",
+            growthPolicy, newCapacities[i], i, minCapacity));
+      }
+    }
+    return relayoutAdjacentNodes(adjacentNodesOld, lengths, newCapacities);
+  }
+
+  private AdjacencyGrowthPolicy adjacencyGrowthPolicy() {
+    return ref.graph != null ? ref.graph.adjacencyGrowthPolicy : AdjacencyGrowthPolicy.DEFAULT;
+  }
+
+  private int[] strideSizes(int blockCount) {
+    int[] strideSizes = new int[blockCount];
+    for (int i = 0; i < blockCount; i++) {
+      strideSizes[i] = strideSize(i);
+    }
+    return strideSizes;
+  }
+
+  /** copies the used part of each block into a new instance, with the given capacities per block */
+  private final AdjacentNodes relayoutAdjacentNodes(AdjacentNodes adjacentNodesOld, int[] lengths, int[] newCapacities) {
+    return relayoutAdjacentNodes(adjacentNodesOld, lengths, newCapacities, null);
+  }
+
+  /**
+   * copies the used part of each block into a new instance, with the given capacities per block
+   * @param removedEdgeCounts if not null: drops the removed edges from the blocks where the count is positive, i.e.
+   *                          changes the blockOffsets of the remaining edges in those blocks
+   */
+  private final AdjacentNodes relayoutAdjacentNodes(AdjacentNodes adjacentNodesOld, int[] lengths, int[] newCapacities,
+                                                    int[] removedEdgeCounts) {
+    long newSize = 0;
+    for (int capacity : newCapacities) {
+      newSize += capacity;
+    }
+    if (newSize > Integer.MAX_VALUE - 8) {
+      throw new OutOfMemoryError("adjacent nodes of node " + id() + " would exceed the maximum array size");
+    }
+
     Object[] nodesWithEdgePropertiesOld = adjacentNodesOld.nodesWithEdgeProperties;
-    int newSize = nodesWithEdgePropertiesOld.length + additionalEntriesCount;
-    Object[] nodesWithEdgePropertiesNew = new Object[newSize];
-    System.arraycopy(nodesWithEdgePropertiesOld, 0, nodesWithEdgePropertiesNew, 0, insertAt);
-    System.arraycopy(nodesWithEdgePropertiesOld, insertAt, nodesWithEdgePropertiesNew, insertAt + additionalEntriesCount, nodesWithEdgePropertiesOld.length - insertAt);
-    AdjacentNodes res = new AdjacentNodes(nodesWithEdgePropertiesNew, adjacentNodesOld.offsets);
-    // Increment all following start offsets by `additionalEntriesCount`.
-    int until = res.offsetLengths();
-    for (int i = offsetPos + 1; 2 * i < until; i++) {
-      res = res.setOffset(2 * i, res.getOffset(2 * i) + additionalEntriesCount);
+    Object[] nodesWithEdgePropertiesNew = new Object[(int) newSize];
+    AdjacentNodes res = new AdjacentNodes(nodesWithEdgePropertiesNew, new byte[2 * lengths.length]);
+    int newStart = 0;
+    for (int i = 0; i < lengths.length; i++) {
+      int start = startIndex(adjacentNodesOld, i);
+      int newLength = lengths[i];
+      if (removedEdgeCounts != null && removedEdgeCounts[i] > 0) {
+        // only copy the edges that are still there
+        int strideSize = strideSize(i);
+        newLength = 0;
+        for (int j = start; j < start + lengths[i]; j += strideSize) {
+          if (nodesWithEdgePropertiesOld[j] != null) {
+            System.arraycopy(nodesWithEdgePropertiesOld, j, nodesWithEdgePropertiesNew, newStart + newLength, strideSize);
+            newLength += strideSize;
+          }
+        }
+      } else {
+        System.arraycopy(nodesWithEdgePropertiesOld, start, nodesWithEdgePropertiesNew, newStart, newLength);
+      }
+      res = res.setOffset(2 * i, newStart);
+      res = res.setOffset(2 * i + 1, newLength);
+      newStart += newCapacities[i];
     }
     return res;
   }
 
+  /** used slots per block, including the ones of removed edges */
+  private final int[] blockLengths(AdjacentNodes adjacentNodesTmp) {
+    int[] lengths = new int[adjacentNodesTmp.offsetLengths() / 2];
+    for (int i = 0; i < lengths.length; i++) {
+      lengths[i] = blockLength(adjacentNodesTmp, i);
+    }
+    return lengths;
+  }
+
+  /** slots per block, i.e. the distance to the start of the next block, or to the end of the array for the last one */
+  private final int[] blockCapacities(AdjacentNodes adjacentNodesTmp) {
+    int[] capacities = new int[adjacentNodesTmp.offsetLengths() / 2];
+    for (int i = 0; i < capacities.length; i++) {
+      int end = i + 1 < capacities.length ? startIndex(adjacentNodesTmp, i + 1) : adjacentNodesTmp.nodesWithEdgeProperties.length;
+      capacities[i] = end - startIndex(adjacentNodesTmp, i);
+    }
+    return capacities;
+  }
+
+  private final int strideSize(int offsetPos) {
+    return layoutInformation().getEdgePropertyCountByOffsetPos(offsetPos) + 1;
+  }
+
   /**
    * instantiate and return a dummy edge, which doesn't really exist in the graph
    */
@@ -750,38 +1064,110 @@ public abstract class NodeDb extends Node {
   }
 
   /**
-   * Trims the node to save storage: shrinks overallocations
+   * Trims the node to save storage: shrinks overallocations, and drops removed edges.
+   * If edges had been removed, the blockOffsets of the remaining edges change, i.e. {@link Edge} instances that were
+   * obtained before must not be used afterwards: where that's detectable, they throw an IllegalStateException, see
+   * {@link #checkBlockOffset}.
+   * @return the new size of the adjacent nodes array in the lower 32 bits, and the previous size in the upper 32 bits
    * */
   public synchronized long trim() {
     AdjacentNodes adjacentNodesOld = this.adjacentNodes;
+    int[] removedEdgeCounts = this.removedEdgeCounts;
+    int[] lengths = blockLengths(adjacentNodesOld);
+    int[] newCapacities = new int[lengths.length];
     int newSize = 0;
-    int until = adjacentNodesOld.offsetLengths();
-    for (int offsetPos = 0; 2 * offsetPos < until; offsetPos++) {
-      int length = blockLength(adjacentNodesOld, offsetPos);
-      newSize += length;
-    }
-    Object[] nodesWithEdgePropertiesNew = new Object[newSize];
-    AdjacentNodes res = new AdjacentNodes(nodesWithEdgePropertiesNew, new byte[until]);
-
-    int off = 0;
-    for(int offsetPos = 0; 2*offsetPos < until; offsetPos++){
-      int start = startIndex(adjacentNodesOld, offsetPos);
-      int length = blockLength(adjacentNodesOld, offsetPos);
-      System.arraycopy(adjacentNodesOld.nodesWithEdgeProperties, start, nodesWithEdgePropertiesNew, off, length);
-      res = res.setOffset(2 * offsetPos, off);
-      res = res.setOffset(2 * offsetPos + 1, length);
-      off += length;
+    for (int offsetPos = 0; offsetPos < lengths.length; offsetPos++) {
+      newCapacities[offsetPos] = lengths[offsetPos];
+      if (removedEdgeCounts != null) {
+        newCapacities[offsetPos] -= removedEdgeCounts[offsetPos] * strideSize(offsetPos);
+      }
+      newSize += newCapacities[offsetPos];
     }
     int oldSize = adjacentNodesOld.nodesWithEdgeProperties.length;
-    this.adjacentNodes = res;
+
+    if (newSize != oldSize || removedEdgeCounts != null) {
+      this.adjacentNodes = relayoutAdjacentNodes(adjacentNodesOld, lengths, newCapacities, removedEdgeCounts);
+      if (removedEdgeCounts != null) {
+        this.removedEdgeCounts = null;
+        this.blockOffsetIndexes = null;
+      }
+    }
 
     return (long) newSize + (((long) oldSize) << 32);
   }
 
+  /**
+   * Drops the removed edges from all blocks where they make up at least half of the edges, so that iterating over
+   * the edges stays proportional to the edges that are still there. Keeps the capacity of the blocks.
+   * Like {@link #trim()}, this changes the blockOffsets of the remaining edges in those blocks, i.e. {@link Edge}
+   * instances that were obtained before must not be used afterwards.
+   * @return number of removed edges that were dropped
+   */
+  public synchronized int compactIfSparse() {
+    int[] removedEdgeCounts = this.removedEdgeCounts;
+    if (removedEdgeCounts == null) {
+      return 0;
+    }
+    AdjacentNodes adjacentNodesOld = this.adjacentNodes;
+    int[] lengths = blockLengths(adjacentNodesOld);
+    int[] toDrop = null;
+    int[] remaining = null;
+    int dropped = 0;
+    for (int offsetPos = 0; offsetPos < lengths.length; offsetPos++) {
+      int removed = removedEdgeCounts[offsetPos];
+      if (removed > 0 && removed * 2 >= lengths[offsetPos] / strideSize(offsetPos)) {
+        if (toDrop == null) {
+          toDrop = new int[lengths.length];
+          remaining = removedEdgeCounts.clone();
+        }
+        toDrop[offsetPos] = removed;
+        remaining[offsetPos] = 0;
+        dropped += removed;
+      }
+    }
+
+    if (toDrop != null) {
+      this.adjacentNodes = relayoutAdjacentNodes(adjacentNodesOld, lengths, blockCapacities(adjacentNodesOld), toDrop);
+      this.removedEdgeCounts = dropped == sum(removedEdgeCounts) ? null : remaining;
+      this.blockOffsetIndexes = null;
+    }
+    return dropped;
+  }
+
+  private static int sum(int[] values) {
+    int sum = 0;
+    for (int value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+
   public final boolean isDirty() {
     return dirty;
   }
 
+  /**
+   * This function is really package-private, and only formally public to simplify internal organization of overflowdb.
+   * Called by the serializer and deserializer.
+   */
+  public void setLastSerializedPropertiesSize(int lastSerializedPropertiesSize) {
+    this.lastSerializedPropertiesSize = lastSerializedPropertiesSize;
+  }
+
+  /**
+   * Cheap estimate of the heap memory that clearing this node would free up, in bytes.
+   * Based on the size of the adjacent nodes array, the number of properties and the size of the properties in the last
+   * serialized representation, which serves as a proxy for the size of the property values. The serialized edges are
+   * not included, since they're already covered by the adjacent nodes array. Nodes that have never been serialized
+   * are underestimated.
+   */
+  public int estimatedSizeInBytes() {
+    return ESTIMATED_BASE_SIZE
+        + adjacentNodes.estimatedSizeInBytes()
+        + ESTIMATED_SIZE_PER_PROPERTY * propertyKeys().size()
+        + lastSerializedPropertiesSize;
+  }
+
   @Override
   public int hashCode() {
     /* NodeRef compares by id. We need the hash computation to be fast and allocation-free; but we don't need it
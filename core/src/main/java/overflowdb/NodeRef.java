@@ -5,6 +5,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -58,7 +59,11 @@ public abstract class NodeRef<N extends NodeDb> extends Node {
    * To not pollute the public api (esp. for console users) we made this method static instead.
    * */
   public static void clear(NodeRef ref) {
+    final NodeDb node = ref.node;
     ref.node = null;
+    if (node != null && ref.graph.clearedNodesCache != null) {
+      ref.graph.clearedNodesCache.put(ref.id, node);
+    }
   }
 
   protected byte[] serializeWhenDirty() {
@@ -98,6 +103,9 @@ public abstract class NodeRef<N extends NodeDb> extends Node {
     /* checking again, in case another thread came here first and deserialized the node from disk */
     if (ref != null) {
       return ref;
+    } else if (graph.clearedNodesCache != null && recoverFromCache()) {
+      graph.registerNodeRef(this);
+      return this.node;
     } else {
       final N node = readFromDisk();
       if (node == null) throw new IllegalStateException("unable to read node from disk; id=" + id);
@@ -107,6 +115,12 @@ public abstract class NodeRef<N extends NodeDb> extends Node {
     }
   }
 
+  /** @return estimated heap usage of the underlying node if it's in memory, otherwise 0 - see {@link NodeDb#estimatedSizeInBytes()} */
+  int residentSizeInBytes() {
+    final N node = this.node;
+    return node != null ? node.estimatedSizeInBytes() : 0;
+  }
+
   public final Optional<N> getOption() {
     return Optional.ofNullable(node);
   }
@@ -115,6 +129,14 @@ public abstract class NodeRef<N extends NodeDb> extends Node {
     this.node = node;
   }
 
+  /** @return true if the node was still available in {@link ClearedNodesCache}, i.e. we don't need to read it from disk */
+  private final boolean recoverFromCache() {
+    final N cachedNode = (N) graph.clearedNodesCache.take(id);
+    if (cachedNode == null) return false;
+    this.node = cachedNode;
+    return true;
+  }
+
   private final N readFromDisk() throws IOException {
     byte[] bytes = graph.storage.getSerializedNode(this.id);
     return (N) graph.nodeDeserializer.deserialize(bytes, this);
@@ -134,7 +156,8 @@ public abstract class NodeRef<N extends NodeDb> extends Node {
   @Override
   protected void removeImpl() {
     get().removeInternal();
-    NodeRef.clear(this);
+    // not using `NodeRef.clear` here: a removed node must not end up in ClearedNodesCache
+    this.node = null;
   }
 
   @Override
@@ -259,6 +282,26 @@ public abstract class NodeRef<N extends NodeDb> extends Node {
     return this.get().both(edgeLabels);
   }
 
+  @Override
+  public void forEachOut(String edgeLabel, Consumer<NodeRef> visitor) {
+    this.get().forEachOut(edgeLabel, visitor);
+  }
+
+  @Override
+  public void forEachIn(String edgeLabel, Consumer<NodeRef> visitor) {
+    this.get().forEachIn(edgeLabel, visitor);
+  }
+
+  @Override
+  public EdgeCursor outEdgeCursor(String... edgeLabels) {
+    return this.get().outEdgeCursor(edgeLabels);
+  }
+
+  @Override
+  public EdgeCursor inEdgeCursor(String... edgeLabels) {
+    return this.get().inEdgeCursor(edgeLabels);
+  }
+
   /* adjacent OUT edges (all labels) */
   @Override
   public Iterator<Edge> outE() {
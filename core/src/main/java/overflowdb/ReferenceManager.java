@@ -7,11 +7,16 @@ import overflowdb.storage.OdbStorage;
 import overflowdb.util.NamedThreadFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * can clear references to disk and apply backpressure when creating new nodes, both to avoid an OutOfMemoryError
@@ -25,11 +30,17 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
   private final Logger logger = LoggerFactory.getLogger(getClass());
 
   public final int releaseCount = 100000;
+  /** if positive: clear the oldest refs until their estimated size adds up to this, rather than `releaseCount` refs */
+  private long releaseBytes = 0;
   private AtomicInteger totalReleaseCount = new AtomicInteger(0);
   private final ExecutorService executorService;
   private final boolean shutdownExecutorOnClose;
-  private int clearingProcessCount = 0;
+  private volatile int clearingProcessCount = 0;
   private final Object backPressureSyncObject = new Object();
+  /** between 0 (no backpressure) and 1 (block until clearing completed), derived from the heap usage */
+  private volatile float backpressureLevel = 0f;
+  private long maxBackpressureDelayNanos = TimeUnit.MICROSECONDS.toNanos(Config.DEFAULT_MAX_BACKPRESSURE_DELAY_MICROS);
+  private final AtomicLong totalBackpressureNanos = new AtomicLong(0);
   private final OdbStorage storage;
   private final NodesWriter nodesWriter;
   private final List<NodeRef> clearableRefs = Collections.synchronizedList(new ArrayList<>());
@@ -63,87 +74,200 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
     clearableRefs.add(ref);
   }
 
+  /* Register many NodeRefs at once, i.e. only taking the lock once */
+  public void registerRefs(Collection<NodeRef> refs) {
+    clearableRefs.addAll(refs);
+  }
+
+  /**
+   * Upper bound for the delay that {@link #applyBackpressureMaybe()} applies per invocation while references are being
+   * cleared. The actual delay is proportional to the heap pressure, only a critically full heap blocks callers until
+   * the clearing has completed.
+   */
+  public void setMaxBackpressureDelayMicros(int maxDelayMicros) {
+    if (maxDelayMicros < 0) {
+      throw new IllegalArgumentException("maxDelayMicros must not be negative, but is " + maxDelayMicros);
+    }
+    this.maxBackpressureDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+  }
+
+  /**
+   * Target the bytes rather than the number of references to clear whenever we're running low on memory, based on
+   * {@link NodeDb#estimatedSizeInBytes()}. 0 means: clear a fixed number of references, see {@link #releaseCount}.
+   */
+  public void setReleaseBytes(long releaseBytes) {
+    if (releaseBytes < 0) {
+      throw new IllegalArgumentException("releaseBytes must not be negative, but is " + releaseBytes);
+    }
+    this.releaseBytes = releaseBytes;
+  }
+
   /**
    * When we're running low on heap memory we'll serialize some elements to disk. To ensure we're not creating new ones
    * faster than old ones are serialized away, we're applying some backpressure to those newly created ones.
+   * The backpressure is graduated: while the heap is only moderately above the threshold we slow callers down by a
+   * delay proportional to the heap pressure, and only if the heap is critically full we block them until the clearing
+   * has completed.
    */
   public void applyBackpressureMaybe() {
-    synchronized (backPressureSyncObject) {
-      while (clearingProcessCount > 0) {
-        try {
-          logger.trace("wait until ref clearing completed");
-          backPressureSyncObject.wait();
-          logger.trace("continue");
-        } catch (InterruptedException e) {
-          throw new RuntimeException(e);
+    if (clearingProcessCount == 0) {
+      return;
+    }
+
+    final long startNanos = System.nanoTime();
+    final float level = backpressureLevel;
+    if (level >= 1f) {
+      synchronized (backPressureSyncObject) {
+        while (clearingProcessCount > 0) {
+          try {
+            logger.trace("wait until ref clearing completed");
+            backPressureSyncObject.wait();
+            logger.trace("continue");
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
         }
       }
+    } else {
+      final long delayNanos = (long) (level * maxBackpressureDelayNanos);
+      if (delayNanos > 0) {
+        LockSupport.parkNanos(backPressureSyncObject, delayNanos);
+      }
     }
+    totalBackpressureNanos.addAndGet(System.nanoTime() - startNanos);
+  }
+
+  /** total time that all callers of {@link #applyBackpressureMaybe()} spent waiting, in nanoseconds */
+  public long getTotalBackpressureNanos() {
+    return totalBackpressureNanos.get();
   }
 
   @Override
-  public void notifyHeapAboveThreshold() {
-    if (clearingProcessCount > 0) {
+  public void notifyHeapAboveThreshold(float heapPressure) {
+    backpressureLevel = Float.max(0f, Float.min(1f, heapPressure));
+    if (clearableRefs.isEmpty()) {
+      logger.info("no refs to clear at the moment, i.e. the heap is used by other components");
+    } else if (!tryStartClearing()) {
       logger.debug("cleaning in progress, will only queue up more references to clear after that's completed");
-    } else if (clearableRefs.isEmpty()) {
+    } else {
+      int releaseCount = Integer.min(this.releaseCount, clearableRefs.size());
+      logger.info("scheduled to clear " + describeRelease(releaseCount) + " (asynchronously)");
+      try {
+        executorService.submit(() -> syncClearReferences(releaseCount));
+      } catch (RejectedExecutionException e) {
+        finishClearing();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * heap is above the hard threshold: block all callers of {@link #applyBackpressureMaybe()} and clear references on
+   * the calling thread, unless a clearing is already in progress
+   */
+  @Override
+  public void notifyHeapAboveHardThreshold() {
+    backpressureLevel = 1f;
+    if (clearableRefs.isEmpty()) {
       logger.info("no refs to clear at the moment, i.e. the heap is used by other components");
+    } else if (!tryStartClearing()) {
+      logger.debug("cleaning in progress, will not clear any more references synchronously");
     } else {
       int releaseCount = Integer.min(this.releaseCount, clearableRefs.size());
-      logger.info("scheduled to clear " + releaseCount + " references (asynchronously)");
-      executorService.submit(() -> syncClearReferences(releaseCount));
+      logger.info("clearing " + describeRelease(releaseCount) + " (synchronously)");
+      syncClearReferences(releaseCount);
+    }
+  }
+
+  private String describeRelease(int releaseCount) {
+    return releaseBytes > 0 ? "references worth " + releaseBytes + " bytes" : releaseCount + " references";
+  }
+
+  /**
+   * Checks whether a clearing is in progress and starts one if not, atomically - so that notifications that arrive at
+   * the same time, e.g. a soft and a hard one, start only one clearing round between them.
+   * The backpressure applies from here on, i.e. already while the clearing is scheduled and collects the refs to clear.
+   * @return false if a clearing is in progress already
+   */
+  private boolean tryStartClearing() {
+    synchronized (backPressureSyncObject) {
+      if (clearingProcessCount > 0) {
+        return false;
+      }
+      clearingProcessCount += 1;
+      return true;
+    }
+  }
+
+  private void finishClearing() {
+    synchronized (backPressureSyncObject) {
+      clearingProcessCount -= 1;
+      if (clearingProcessCount == 0) {
+        backpressureLevel = 0f;
+        backPressureSyncObject.notifyAll();
+      }
     }
   }
 
   /**
-   * run clearing of references asynchronously to not block the gc notification thread
-   * using executor with one thread and capacity=1, drop `clearingInProgress` flag
+   * clears the oldest references, expects that the caller has started the clearing, see {@link #tryStartClearing()}
    */
   private void syncClearReferences(final int releaseCount) {
-    final List<NodeRef> refsToClear = collectRefsToClear(releaseCount);
+    final List<NodeRef> refsToClear;
+    try {
+      refsToClear = collectRefsToClear(releaseCount);
+    } catch (RuntimeException e) {
+      finishClearing();
+      throw e;
+    }
+    safelyClearReferences(refsToClear);
     if (!refsToClear.isEmpty()) {
-      safelyClearReferences(refsToClear);
       logger.info("completed clearing of " + refsToClear.size() + " references");
       logger.debug("remaining clearable references: " + clearableRefs.size());
       logger.trace("references cleared in total: " + totalReleaseCount);
     }
   }
 
+  /**
+   * takes the oldest `releaseCount` refs, or as many as needed to free up `releaseBytes` if that's configured
+   * n.b. removing them one by one from the head of the list would be O(n^2)
+   */
   private List<NodeRef> collectRefsToClear(int releaseCount) {
-    final List<NodeRef> refsToClear = new ArrayList<>(releaseCount);
-
-    while (releaseCount > 0) {
-      if (clearableRefs.isEmpty()) {
-        break;
-      }
-      final NodeRef ref = clearableRefs.remove(0);
-      if (ref != null) {
-        refsToClear.add(ref);
-      }
-      releaseCount--;
+    synchronized (clearableRefs) {
+      final int count = releaseBytes > 0 ? countRefsForReleaseBytes() : Integer.min(releaseCount, clearableRefs.size());
+      final List<NodeRef> oldestRefs = clearableRefs.subList(0, count);
+      final List<NodeRef> refsToClear = new ArrayList<>(oldestRefs);
+      oldestRefs.clear();
+      return refsToClear;
     }
+  }
 
-    return refsToClear;
+  /** number of oldest refs that add up to `releaseBytes`, expects that the caller holds the lock on `clearableRefs` */
+  private int countRefsForReleaseBytes() {
+    long bytes = 0;
+    int count = 0;
+    for (NodeRef ref : clearableRefs) {
+      if (bytes >= releaseBytes) break;
+      bytes += ref.residentSizeInBytes();
+      count++;
+    }
+    logger.debug(String.format("collected %d references with an estimated size of %d bytes", count, bytes));
+    return count;
   }
 
   /**
    * clear references, ensuring no exception is raised
+   * expects that the caller has started the clearing, see {@link #tryStartClearing()}
    */
   private void safelyClearReferences(final List<NodeRef> refsToClear) {
     try {
-      synchronized (backPressureSyncObject) {
-        clearingProcessCount += 1;
-      }
       nodesWriter.writeAndClearBatched(refsToClear.spliterator(), refsToClear.size());
       storage.flush();
     } catch (Exception e) {
       logger.error("error while trying to clear references", e);
     } finally {
-      synchronized (backPressureSyncObject) {
-        clearingProcessCount -= 1;
-        if (clearingProcessCount == 0) {
-          backPressureSyncObject.notifyAll();
-        }
-      }
+      finishClearing();
+      logger.debug("time spent in backpressure so far: " + TimeUnit.NANOSECONDS.toMillis(totalBackpressureNanos.get()) + "ms");
     }
   }
 
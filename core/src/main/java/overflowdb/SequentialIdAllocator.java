@@ -0,0 +1,23 @@
+package overflowdb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+class SequentialIdAllocator implements IdAllocator {
+  private final AtomicLong nextId = new AtomicLong(0);
+
+  @Override
+  public long next() {
+    return nextId.getAndIncrement();
+  }
+
+  @Override
+  public long nextRange(int count) {
+    return nextId.getAndAdd(count);
+  }
+
+  @Override
+  public void reserve(long id) {
+    // n.b. only write if necessary: explicit ids are usually below the ones that were handed out already
+    if (nextId.get() <= id) nextId.accumulateAndGet(id + 1, Long::max);
+  }
+}
@@ -42,7 +42,9 @@ public class NodeDeserializer extends BookKeeper {
     MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(bytes);
     final long id = unpacker.unpackLong();
     final int labelStringId = unpacker.unpackInt();
+    final long propertiesStart = unpacker.getTotalReadBytes();
     final Object[] properties = unpackProperties(unpacker);
+    final int propertiesSize = (int) (unpacker.getTotalReadBytes() - propertiesStart);
 
     final String label = storage.reverseLookupStringToIntMapping(labelStringId);
     NodeDb node = getNodeFactory(label).createNode(graph, id, ref);
@@ -50,8 +52,11 @@ public class NodeDeserializer extends BookKeeper {
 
     deserializeEdges(unpacker, node, Direction.OUT);
     deserializeEdges(unpacker, node, Direction.IN);
+    // the edges were added one by one, which preallocated some spare capacity
+    node.trim();
 
     node.markAsClean();
+    node.setLastSerializedPropertiesSize(propertiesSize);
 
     if (statsEnabled) recordStatistics(startTimeNanos);
     return node;
@@ -69,7 +74,7 @@ public class NodeDeserializer extends BookKeeper {
         // hack for flatgraph->odb converter, see `maybeReviseKeyForFlatgraph` below
         Set<String> allowedEdgePropertyKeys = node.layoutInformation().edgePropertyKeys(edgeLabel);
         Object[] edgeProperties = unpackProperties(unpacker, allowedEdgePropertyKeys);
-        node.storeAdjacentNode(direction, edgeLabel, adjacentNode, edgeProperties);
+        node.restoreAdjacentNode(direction, edgeLabel, adjacentNode, edgeProperties);
       }
     }
   }
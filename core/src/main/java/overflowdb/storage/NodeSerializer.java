@@ -42,7 +42,9 @@ public class NodeSerializer extends BookKeeper {
       final int labelId = storage.lookupOrCreateStringToIntMapping(layoutInformation.label);
       packer.packInt(labelId);
 
+      final long propertiesStart = packer.getTotalWrittenBytes();
       packProperties(packer, node.propertiesMapForStorage());
+      node.setLastSerializedPropertiesSize((int) (packer.getTotalWrittenBytes() - propertiesStart));
       packEdges(packer, node);
 
       if (statsEnabled) recordStatistics(startTimeNanos);
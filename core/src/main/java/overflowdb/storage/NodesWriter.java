@@ -13,12 +13,14 @@ import java.util.stream.StreamSupport;
 
 /**
  * Persists collections of nodes in bulk to disk. Used either by ReferenceManager (if overflow to disk is enabled),
- * or alternatively when closing the graph (if storage to disk is enabled).
+ * or alternatively when closing the graph (if storage to disk is enabled). Also used by {@link WriteBehindFlusher}
+ * to persist dirty nodes in the background.
  */
 public class NodesWriter {
   private final Logger logger = LoggerFactory.getLogger(getClass());
   private final NodeSerializer nodeSerializer;
   private final OdbStorage storage;
+  private final Object writeLock = new Object();
 
   public NodesWriter(NodeSerializer nodeSerializer, OdbStorage storage) {
     this.nodeSerializer = nodeSerializer;
@@ -26,55 +28,82 @@ public class NodesWriter {
   }
 
   /**
-   * Writes all references to storage, blocks until complete.
+   * Writes all references to storage and clears them, blocks until complete.
    * Serialization happens in parallel, however writing to storage happens sequentially, to avoid lock contention in mvstore.
+   * Nodes that are clean (i.e. haven't changed since they've last been persisted) are cleared without writing them again.
    */
   public void writeAndClearBatched(Spliterator<? extends Node> nodes, int estimatedTotalCount) {
     if (estimatedTotalCount > 0)
       logger.info(String.format("serializing and persisting %d nodes (this may take a while)", estimatedTotalCount));
 
-    AtomicInteger count = new AtomicInteger(0);
-
-    StreamSupport.stream(nodes, true)
-        .map(this::serializeIfDirty)
-        .sequential()
-        .forEach(serializedNode -> {
-          if (serializedNode != null) {
-            storage.persist(serializedNode.id, serializedNode.data);
-
-            /** counting only for printing statistics - this is rafher slow, but since persisting to disk is much slower
-             * and also disk-bound, it doesn't really matter... */
-            int currCount = count.incrementAndGet();
-            if (currCount % 100_000 == 0) {
-               float progressPercent = 100f * currCount / estimatedTotalCount;
-               logger.debug(String.format("progress of writing nodes to storage: %.2f%s", Float.min(100f, progressPercent), "%"));
-            }
-          }
-        });
+    write(nodes, estimatedTotalCount, true);
 
     if (estimatedTotalCount > 0)
       logger.info(String.format("finished serializing and persisting %d nodes", estimatedTotalCount));
   }
-  private SerializedNode serializeIfDirty(Node node) {
-    NodeDb nodeDb = null;
-    NodeRef ref = null;
-    if (node instanceof NodeDb) {
-      nodeDb = (NodeDb) node;
-      ref = nodeDb.ref;
-    } else if (node instanceof NodeRef) {
-      ref = (NodeRef) node;
-      if (ref.isSet()) nodeDb = ref.get();
+
+  /**
+   * Writes all dirty nodes to storage, but doesn't clear them, blocks until complete.
+   * The nodes are clean afterwards, i.e. they can be cleared cheaply later on.
+   * @return number of nodes that have been written
+   */
+  public int writeBatched(Spliterator<? extends Node> nodes, int estimatedTotalCount) {
+    return write(nodes, estimatedTotalCount, false);
+  }
+
+  /**
+   * Serializing marks a node as clean, but it's only persisted a little later. Holding the lock while doing both
+   * ensures that nobody clears a clean node before it's actually in storage.
+   */
+  private int write(Spliterator<? extends Node> nodes, int estimatedTotalCount, boolean clearAfterWrite) {
+    AtomicInteger count = new AtomicInteger(0);
+
+    synchronized (writeLock) {
+      StreamSupport.stream(nodes, true)
+          .map(node -> serializeIfDirty(node, clearAfterWrite))
+          .sequential()
+          .forEach(serializedNode -> {
+            if (serializedNode != null) {
+              storage.persist(serializedNode.id, serializedNode.data);
+
+              /** counting only for printing statistics - this is rafher slow, but since persisting to disk is much slower
+               * and also disk-bound, it doesn't really matter... */
+              int currCount = count.incrementAndGet();
+              if (currCount % 100_000 == 0) {
+                 float progressPercent = 100f * currCount / estimatedTotalCount;
+                 logger.debug(String.format("progress of writing nodes to storage: %.2f%s", Float.min(100f, progressPercent), "%"));
+              }
+            }
+          });
     }
 
-    if (nodeDb != null && nodeDb.isDirty()) {
+    return count.get();
+  }
+
+  private SerializedNode serializeIfDirty(Node node, boolean clearAfterWrite) {
+    NodeDb nodeDb = residentNodeDb(node);
+    if (nodeDb == null) return null;
+
+    SerializedNode serializedNode = null;
+    if (nodeDb.isDirty()) {
       try {
-        byte[] data = nodeSerializer.serialize(nodeDb);
-        NodeRef.clear(ref);
-        return new SerializedNode(ref.id(), data);
+        serializedNode = new SerializedNode(nodeDb.ref.id(), nodeSerializer.serialize(nodeDb));
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
+    if (clearAfterWrite) NodeRef.clear(nodeDb.ref);
+    return serializedNode;
+  }
+
+  /** @return the underlying NodeDb if it's currently in memory, otherwise null */
+  static NodeDb residentNodeDb(Node node) {
+    if (node instanceof NodeDb) {
+      return (NodeDb) node;
+    } else if (node instanceof NodeRef) {
+      NodeRef ref = (NodeRef) node;
+      if (ref.isSet()) return ref.get();
+    }
     return null;
   }
 
@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -26,6 +27,9 @@ public class OdbStorage implements AutoCloseable {
   public static final String METADATA_KEY_STRING_TO_INT_MAX_ID = "STRING_TO_INT_MAX_ID";
   public static final String METADATA_KEY_LIBRARY_VERSIONS_MAX_ID = "LIBRARY_VERSIONS_MAX_ID";
   public static final String METADATA_PREFIX_LIBRARY_VERSIONS = "LIBRARY_VERSIONS_ENTRY_";
+  /** only present if the edge counts (with prefix below) match the persisted nodes, i.e. after a regular shutdown */
+  public static final String METADATA_KEY_EDGE_COUNTS_VALID = "EDGE_COUNTS_VALID";
+  public static final String METADATA_PREFIX_EDGE_COUNT = "EDGE_COUNT_";
   private static final String INDEX_PREFIX = "index_";
 
   private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -294,6 +298,39 @@ public class OdbStorage implements AutoCloseable {
     getMetaDataMVMap().put(key, version);
   }
 
+  /** persist the number of edges by label - must only be called once all nodes are persisted */
+  public void persistEdgeCounts(Map<String, Long> countByLabel) {
+    invalidateEdgeCounts();
+    MVMap<String, String> metaData = getMetaDataMVMap();
+    countByLabel.forEach((label, count) -> metaData.put(METADATA_PREFIX_EDGE_COUNT + label, Long.toString(count)));
+    metaData.put(METADATA_KEY_EDGE_COUNTS_VALID, "true");
+  }
+
+  /** @return the number of edges by label, if they have been persisted during the last regular shutdown */
+  public Optional<Map<String, Long>> getEdgeCounts() {
+    MVMap<String, String> metaData = getMetaDataMVMap();
+    if (!metaData.containsKey(METADATA_KEY_EDGE_COUNTS_VALID)) return Optional.empty();
+
+    Map<String, Long> countByLabel = new HashMap<>();
+    metaData.forEach((key, count) -> {
+      if (key.startsWith(METADATA_PREFIX_EDGE_COUNT)) {
+        countByLabel.put(key.substring(METADATA_PREFIX_EDGE_COUNT.length()), Long.parseLong(count));
+      }
+    });
+    return Optional.of(countByLabel);
+  }
+
+  /** to be called once the graph is modified, i.e. the persisted edge counts can no longer be relied upon */
+  public void invalidateEdgeCounts() {
+    MVMap<String, String> metaData = getMetaDataMVMap();
+    metaData.remove(METADATA_KEY_EDGE_COUNTS_VALID);
+    List<String> edgeCountKeys = new ArrayList<>();
+    metaData.keySet().forEach(key -> {
+      if (key.startsWith(METADATA_PREFIX_EDGE_COUNT)) edgeCountKeys.add(key);
+    });
+    edgeCountKeys.forEach(metaData::remove);
+  }
+
   public ArrayList<Map<String, String>> getAllLibraryVersions() {
     Map<Integer, Map<String, String>> libraryVersionsByRunId = new HashMap<>();
     getMetaDataMVMap().forEach((key, version) -> {
@@ -0,0 +1,97 @@
+package overflowdb.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import overflowdb.Node;
+import overflowdb.NodeDb;
+import overflowdb.util.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Periodically persists dirty nodes that are currently in memory, without clearing them. That way they're clean
+ * afterwards, i.e. ReferenceManager can clear them cheaply, and closing the graph has less work to do.
+ * Nodes are written in chunks, so that we never block the ReferenceManager for long.
+ */
+public class WriteBehindFlusher implements AutoCloseable {
+  public static final int CHUNK_SIZE = 10_000;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final NodesWriter nodesWriter;
+  private final Supplier<Iterator<Node>> nodes;
+  private final ScheduledExecutorService executor;
+  private final AtomicLong writtenNodeCount = new AtomicLong(0);
+  private volatile boolean closed = false;
+
+  /**
+   * @param nodes supplies an iterator over all nodes of the graph on every run
+   * @param intervalMillis delay between the end of one run and the start of the next one
+   */
+  public WriteBehindFlusher(NodesWriter nodesWriter, Supplier<Iterator<Node>> nodes, long intervalMillis) {
+    if (intervalMillis <= 0) {
+      throw new IllegalArgumentException("write-behind interval must be positive, but was " + intervalMillis);
+    }
+    this.nodesWriter = nodesWriter;
+    this.nodes = nodes;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("overflowdb-write-behind"));
+    executor.scheduleWithFixedDelay(this::runSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void runSafely() {
+    try {
+      int count = flush();
+      if (count > 0) logger.debug(String.format("write-behind: persisted %d dirty nodes", count));
+    } catch (Exception e) {
+      // don't let the exception propagate, otherwise the executor would silently stop scheduling further runs
+      logger.error("write-behind: error while persisting dirty nodes", e);
+    }
+  }
+
+  /**
+   * Persists all dirty nodes that are in memory right now, without clearing them. Blocks until complete.
+   * @return number of nodes that have been written
+   */
+  public int flush() {
+    final Iterator<Node> iter = nodes.get();
+    final ArrayList<Node> chunk = new ArrayList<>(CHUNK_SIZE);
+    int count = 0;
+    while (iter.hasNext() && !closed) {
+      NodeDb nodeDb = NodesWriter.residentNodeDb(iter.next());
+      if (nodeDb != null && nodeDb.isDirty()) {
+        chunk.add(nodeDb);
+        if (chunk.size() == CHUNK_SIZE) {
+          count += nodesWriter.writeBatched(chunk.spliterator(), chunk.size());
+          chunk.clear();
+        }
+      }
+    }
+    if (!chunk.isEmpty() && !closed) {
+      count += nodesWriter.writeBatched(chunk.spliterator(), chunk.size());
+    }
+    writtenNodeCount.addAndGet(count);
+    return count;
+  }
+
+  /** total number of nodes persisted by write-behind so far */
+  public long getWrittenNodeCount() {
+    return writtenNodeCount.get();
+  }
+
+  /** stops the background thread and waits for a running flush to finish - the remaining dirty nodes are left for the caller */
+  @Override
+  public void close() {
+    closed = true;
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package overflowdb.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Number of edges by label, maintained while edges are added and removed, so that we don't need to iterate over (and
+ * potentially deserialize) all nodes in order to count them.
+ * Uses striped counters, so that adding edges from multiple threads doesn't contend on a single counter.
+ */
+public class EdgeCounts {
+  private final ConcurrentHashMap<String, LongAdder> countByLabel = new ConcurrentHashMap<>();
+
+  public void increment(String label) {
+    counter(label).increment();
+  }
+
+  public void decrement(String label) {
+    counter(label).decrement();
+  }
+
+  public void add(String label, long delta) {
+    counter(label).add(delta);
+  }
+
+  public long count(String label) {
+    LongAdder counter = countByLabel.get(label);
+    return counter != null ? counter.sum() : 0;
+  }
+
+  public long totalCount() {
+    long total = 0;
+    for (LongAdder counter : countByLabel.values()) {
+      total += counter.sum();
+    }
+    return total;
+  }
+
+  /** @return counts by label, only including labels that have edges */
+  public Map<String, Long> countByLabel() {
+    Map<String, Long> ret = new HashMap<>(countByLabel.size());
+    countByLabel.forEach((label, counter) -> {
+      long count = counter.sum();
+      if (count > 0) ret.put(label, count);
+    });
+    return ret;
+  }
+
+  public void clear() {
+    countByLabel.clear();
+  }
+
+  private LongAdder counter(String label) {
+    // n.b. `get` first, because `computeIfAbsent` may lock even if the key is present
+    LongAdder counter = countByLabel.get(label);
+    return counter != null ? counter : countByLabel.computeIfAbsent(label, l -> new LongAdder());
+  }
+}
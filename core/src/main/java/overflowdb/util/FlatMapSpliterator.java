@@ -0,0 +1,56 @@
+package overflowdb.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Spliterator equivalent of {@link IteratorUtils#flatMap}: splits along the underlying spliterator, e.g. to iterate over
+ * all edges of a range of nodes.
+ * The size estimate is the one of the underlying spliterator, i.e. it assumes one element per underlying element.
+ * Not ORDERED: when splitting, the elements of the current underlying element remain in this spliterator, but they
+ * precede the ones in the split off prefix.
+ */
+public class FlatMapSpliterator<S, E> implements Spliterator<E> {
+  private final Spliterator<S> underlying;
+  private final Function<S, Iterator<E>> function;
+  private Iterator<E> currentIterator = Collections.emptyIterator();
+
+  public FlatMapSpliterator(Spliterator<S> underlying, Function<S, Iterator<E>> function) {
+    this.underlying = underlying;
+    this.function = function;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super E> action) {
+    while (!currentIterator.hasNext()) {
+      if (!underlying.tryAdvance(s -> currentIterator = function.apply(s))) return false;
+    }
+    action.accept(currentIterator.next());
+    return true;
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super E> action) {
+    currentIterator.forEachRemaining(action);
+    underlying.forEachRemaining(s -> function.apply(s).forEachRemaining(action));
+  }
+
+  @Override
+  public Spliterator<E> trySplit() {
+    final Spliterator<S> prefix = underlying.trySplit();
+    return prefix != null ? new FlatMapSpliterator<>(prefix, function) : null;
+  }
+
+  @Override
+  public long estimateSize() {
+    return underlying.estimateSize();
+  }
+
+  @Override
+  public int characteristics() {
+    return underlying.characteristics() & (NONNULL | CONCURRENT);
+  }
+}
@@ -0,0 +1,245 @@
+package overflowdb.util;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Maps node ids to slots in {@link NodesList}. Slots are stored as unsigned ints, i.e. up to {@link #MAX_SLOTS} slots
+ * can be addressed without paying for a long per id.
+ *
+ * Ids that are handed out by {@link overflowdb.Graph} are dense, i.e. they start at 0 and increase by one. As long as
+ * that's the case we resolve them by direct array indexing: the dense part consists of chunks for consecutive id
+ * ranges, starting at id 0. A chunk is only allocated if all chunks before it exist, i.e. a contiguous prefix of the
+ * id space is covered. That's 4 bytes per id, rather than ~25 bytes in a hash map.
+ * Ids that are handed out in blocks, e.g. to different threads, are added out of order: the id allocator announces
+ * each block via {@link #reserveDense}, so that all chunks up to the block's end exist before its first id is added.
+ *
+ * All other ids go into a hash map, which is striped by id, so that parallel adds don't contend on a single lock.
+ * Lookups are lock-free in the common case: they optimistically read the stripe and only fall back to taking the read
+ * lock if it was modified concurrently.
+ * The hash maps are either on-heap (Trove), or off-heap (see {@link OffHeapLongIntMap}), which is more compact and
+ * isn't traversed by the garbage collector, i.e. it's preferable for very large graphs with sparse ids.
+ */
+class NodeIdIndex {
+  static final long NO_SLOT = -1;
+  /** number of addressable slots: the unsigned int that's all ones is the `no entry` value of the sparse maps */
+  static final long MAX_SLOTS = 0xFFFFFFFFL;
+  private static final int MAP_NO_ENTRY = -1;
+  private static final int STRIPE_BITS = 6;
+  private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+  private static final int DENSE_CHUNK_BITS = 14;
+  private static final int DENSE_CHUNK_SIZE = 1 << DENSE_CHUNK_BITS;
+  private static final int DENSE_CHUNK_MASK = DENSE_CHUNK_SIZE - 1;
+  private static final int MAX_DENSE_CHUNKS = 1 << (32 - DENSE_CHUNK_BITS);
+
+  /** dense part: chunks of `slot + 1` (unsigned) for consecutive ids, 0 means `absent` */
+  private volatile AtomicReferenceArray<AtomicIntegerArray> denseChunks = new AtomicReferenceArray<>(16);
+  private volatile int denseChunkCount = 0;
+
+  /** sparse part */
+  private final LongIntMap[] maps = new LongIntMap[STRIPE_COUNT];
+  private final StampedLock[] locks = new StampedLock[STRIPE_COUNT];
+  private final AtomicInteger sparseCount = new AtomicInteger(0);
+
+  NodeIdIndex() {
+    this(false);
+  }
+
+  NodeIdIndex(boolean offHeap) {
+    // the stripes start small: they're only used for sparse ids
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      maps[i] = offHeap
+          ? new OffHeapLongIntMap(Constants.DEFAULT_CAPACITY, MAP_NO_ENTRY)
+          : new OnHeapLongIntMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, Constants.DEFAULT_LONG_NO_ENTRY_VALUE, MAP_NO_ENTRY);
+      locks[i] = new StampedLock();
+    }
+  }
+
+  /** @return the slot for the given id, or {@link #NO_SLOT} */
+  long get(long id) {
+    final int chunkIndex = denseChunkIndex(id);
+    // n.b. reading the count before the chunks, so we're guaranteed to see the chunk
+    if (chunkIndex < denseChunkCount && chunkIndex >= 0) {
+      final int value = denseChunks.get(chunkIndex).get((int) id & DENSE_CHUNK_MASK);
+      // ids that were added before their chunk was allocated are in the sparse part
+      if (value != 0 || sparseCount.get() == 0) return fromDenseValue(value);
+    }
+    return getSparse(id);
+  }
+
+  private long getSparse(long id) {
+    final int stripe = stripe(id);
+    final StampedLock lock = locks[stripe];
+    final long optimisticStamp = lock.tryOptimisticRead();
+    if (optimisticStamp != 0) {
+      try {
+        final int value = maps[stripe].get(id);
+        if (lock.validate(optimisticStamp)) return fromMapValue(value);
+      } catch (RuntimeException e) {
+        // the map was being rehashed while we read it - retry below while holding the read lock
+      }
+    }
+
+    final long stamp = lock.readLock();
+    try {
+      return fromMapValue(maps[stripe].get(id));
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /** @return {@link #NO_SLOT} if the id wasn't present yet, otherwise the slot of the existing entry (which is left untouched) */
+  long putIfAbsent(long id, long slot) {
+    final int chunkIndex = denseChunkIndex(id);
+    if (chunkIndex >= 0 && (chunkIndex < denseChunkCount || tryAllocateDenseChunk(chunkIndex))) {
+      if (sparseCount.get() > 0) {
+        final long existingSlot = getSparse(id);
+        if (existingSlot != NO_SLOT) return existingSlot;
+      }
+      final AtomicIntegerArray chunk = denseChunks.get(chunkIndex);
+      final int offset = (int) id & DENSE_CHUNK_MASK;
+      return chunk.compareAndSet(offset, 0, toDenseValue(slot)) ? NO_SLOT : fromDenseValue(chunk.get(offset));
+    }
+
+    final int stripe = stripe(id);
+    final long stamp = locks[stripe].writeLock();
+    try {
+      final long existingSlot = fromMapValue(maps[stripe].putIfAbsent(id, toMapValue(slot)));
+      if (existingSlot == NO_SLOT) sparseCount.incrementAndGet();
+      return existingSlot;
+    } finally {
+      locks[stripe].unlockWrite(stamp);
+    }
+  }
+
+  /** maps an id that's already present to a different slot, e.g. when the node was moved by compaction */
+  void replace(long id, long slot) {
+    final int chunkIndex = denseChunkIndex(id);
+    if (chunkIndex < denseChunkCount && chunkIndex >= 0) {
+      final AtomicIntegerArray chunk = denseChunks.get(chunkIndex);
+      final int offset = (int) id & DENSE_CHUNK_MASK;
+      if (chunk.get(offset) != 0) {
+        chunk.set(offset, toDenseValue(slot));
+        return;
+      }
+    }
+
+    final int stripe = stripe(id);
+    final long stamp = locks[stripe].writeLock();
+    try {
+      maps[stripe].put(id, toMapValue(slot));
+    } finally {
+      locks[stripe].unlockWrite(stamp);
+    }
+  }
+
+  /** @return the slot that the id was mapped to, or {@link #NO_SLOT} */
+  long remove(long id) {
+    final int chunkIndex = denseChunkIndex(id);
+    if (chunkIndex < denseChunkCount && chunkIndex >= 0) {
+      final int value = denseChunks.get(chunkIndex).getAndSet((int) id & DENSE_CHUNK_MASK, 0);
+      if (value != 0) return fromDenseValue(value);
+    }
+
+    final int stripe = stripe(id);
+    final long stamp = locks[stripe].writeLock();
+    try {
+      final long slot = fromMapValue(maps[stripe].remove(id));
+      if (slot != NO_SLOT) sparseCount.decrementAndGet();
+      return slot;
+    } finally {
+      locks[stripe].unlockWrite(stamp);
+    }
+  }
+
+  private static int toDenseValue(long slot) {
+    return (int) (slot + 1);
+  }
+
+  private static long fromDenseValue(int value) {
+    return Integer.toUnsignedLong(value) - 1;
+  }
+
+  private static int toMapValue(long slot) {
+    return (int) slot;
+  }
+
+  private static long fromMapValue(int value) {
+    return value == MAP_NO_ENTRY ? NO_SLOT : Integer.toUnsignedLong(value);
+  }
+
+  /** @return index of the dense chunk for the given id, or -1 if it's outside of the range that the dense part can cover */
+  private static int denseChunkIndex(long id) {
+    return (id >= 0 && id < ((long) MAX_DENSE_CHUNKS << DENSE_CHUNK_BITS)) ? (int) (id >>> DENSE_CHUNK_BITS) : -1;
+  }
+
+  /** allocates the given chunk if it's the next one, i.e. if the dense part stays contiguous */
+  private synchronized boolean tryAllocateDenseChunk(int chunkIndex) {
+    final int chunkCount = denseChunkCount;
+    if (chunkIndex < chunkCount) return true; // another thread was faster
+    if (chunkIndex > chunkCount) return false;
+    allocateNextDenseChunk();
+    return true;
+  }
+
+  /**
+   * Ids from `firstId` (inclusive) to `endId` (exclusive) are about to be added, in any order: if they continue the
+   * dense part (i.e. the first one is at most one chunk beyond it), allocate all chunks up to the last one.
+   * Otherwise, e.g. after a large explicit id, they go into the sparse part like all other ids.
+   */
+  synchronized void reserveDense(long firstId, long endId) {
+    final int firstChunk = denseChunkIndex(firstId);
+    final int lastChunk = denseChunkIndex(Long.min(endId - 1, ((long) MAX_DENSE_CHUNKS << DENSE_CHUNK_BITS) - 1));
+    if (firstChunk == -1 || lastChunk == -1 || firstChunk > denseChunkCount) return;
+    while (denseChunkCount <= lastChunk) allocateNextDenseChunk();
+  }
+
+  /** number of ids in the sparse part, i.e. the ones that are resolved via hash map rather than by array indexing */
+  int sparseCount() {
+    return sparseCount.get();
+  }
+
+  /** expects that the caller holds the monitor */
+  private void allocateNextDenseChunk() {
+    final int chunkCount = denseChunkCount;
+    final int chunkIndex = chunkCount;
+    AtomicReferenceArray<AtomicIntegerArray> chunks = denseChunks;
+    if (chunkIndex == chunks.length()) {
+      final AtomicReferenceArray<AtomicIntegerArray> grown =
+          new AtomicReferenceArray<>(Integer.min(MAX_DENSE_CHUNKS, chunks.length() * 2));
+      for (int i = 0; i < chunkCount; i++) grown.set(i, chunks.get(i));
+      denseChunks = chunks = grown;
+    }
+    chunks.set(chunkIndex, new AtomicIntegerArray(DENSE_CHUNK_SIZE));
+    denseChunkCount = chunkCount + 1;
+  }
+
+  /** the operations we need from the hash maps for the sparse part - values are slots as unsigned ints */
+  interface LongIntMap {
+    /** @return the value for the given key, or the `noEntryValue` */
+    int get(long key);
+    /** @return the existing value, or the `noEntryValue` if the given value was inserted */
+    int putIfAbsent(long key, int value);
+    /** @return the previous value, or the `noEntryValue` */
+    int put(long key, int value);
+    /** @return the previous value, or the `noEntryValue` */
+    int remove(long key);
+  }
+
+  private static final class OnHeapLongIntMap extends TLongIntHashMap implements LongIntMap {
+    OnHeapLongIntMap(int initialCapacity, float loadFactor, long noEntryKey, int noEntryValue) {
+      super(initialCapacity, loadFactor, noEntryKey, noEntryValue);
+    }
+  }
+
+  private static int stripe(long id) {
+    // node ids are often sequential: mix the bits, so that consecutive ids end up in different stripes
+    final int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return hash >>> (32 - STRIPE_BITS);
+  }
+}
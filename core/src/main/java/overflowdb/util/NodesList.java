@@ -1,239 +1,956 @@
 package overflowdb.util;
 
-import gnu.trove.map.TLongIntMap;
-import gnu.trove.map.TMap;
-import gnu.trove.map.hash.THashMap;
-import gnu.trove.map.hash.TLongIntHashMap;
 import overflowdb.Node;
 import overflowdb.storage.NodesWriter;
 
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Holds all nodes of a graph, indexed by id and label.
+ *
+ * Safe for concurrent use, e.g. by parallel importers: `add` only takes a shared lock, claims its slot and its position
+ * in the label index via atomic counters and then locks a single stripe of the id index. `nodeById` is lock-free in the
+ * common case.
+ * Only structural modifications (`remove` and `compact`) take an exclusive lock.
+ *
+ * Compaction happens in place and incrementally: once there are many empty slots, every `remove` moves a bounded number
+ * of nodes from the end into empty slots, and releases the then empty segments at the end.
+ *
+ * Slots are addressed by long, up to {@link NodeIdIndex#MAX_SLOTS} (i.e. more than 4 billion nodes). The per-label
+ * lists are addressed by int though, i.e. there can't be more than `Integer.MAX_VALUE` nodes with the same label.
+ */
 public class NodesList {
-  private Node[] nodes;
-  private int size = 0;
+  private final Slots slots;
+
+  //index into `slots` by node id
+  private final NodeIdIndex nodeIndexByNodeId;
+  /**
+   * maintained incrementally: every slot knows the position of its node in here, so that removal is O(1).
+   * Replaced by a compacted copy once it contains many removed nodes, see {@link #removeFromLabelIndex}.
+   */
+  private final Map<String, LabelIndex> nodesByLabel = new ConcurrentHashMap<>(10);
+
+  /** shared for `add`, exclusive for `remove` and `compact` */
+  private final StampedLock structureLock = new StampedLock();
 
-  //index into `nodes` array by node id
-  private TLongIntMap nodeIndexByNodeId;
-  private TMap<String, ArrayList<Node>> nodesByLabel;
+  /** list of available slots. slots become available after nodes have been removed. guarded by itself */
+  private final LongBitSet emptySlots = new LongBitSet();
+  private volatile long emptySlotCount = 0;
 
-  /** list of available slots in `nodes` array. slots become available after nodes have been removed */
-  private final BitSet emptySlots;
+  /** nodes moved by compaction, for concurrent iterators - see {@link SlotsSpliterator}. guarded by the exclusive lock */
+  private volatile MovedNodes lastMovedNodes = new MovedNodes(0);
+  private volatile long compactionPauseNanos = 0;
+  private volatile long maxCompactionPauseNanos = 0;
 
-  private static final int DEFAULT_CAPACITY = 10000;
+  public static final int DEFAULT_CAPACITY = 10000;
+  /** upper bound for the number of nodes that are moved while holding the exclusive lock, in order to bound the pause */
+  private static final int MAX_MOVES_PER_COMPACTION_STEP = 4096;
 
   public NodesList() {
     this(DEFAULT_CAPACITY);
   }
 
   public NodesList(int initialCapacity) {
-    nodes = new Node[initialCapacity];
-    emptySlots = new BitSet(initialCapacity);
-    nodeIndexByNodeId = new TLongIntHashMap(initialCapacity);
-    nodesByLabel = new THashMap<>(10);
+    this(initialCapacity, false);
+  }
+
+  /** @param offHeapIdIndex keep the hash maps for sparse ids outside of the heap, see {@link NodeIdIndex} */
+  public NodesList(int initialCapacity, boolean offHeapIdIndex) {
+    slots = new Slots(initialCapacity);
+    nodeIndexByNodeId = new NodeIdIndex(offHeapIdIndex);
   }
 
   /** store Node in internal collections */
-  public synchronized void add(Node node) {
-    verifyUniqueId(node);
-    int index = tryClaimEmptySlot();
-    if (index == -1) {
-      // no empty spot available - append to nodes array instead
-      index = size;
-      ensureCapacity(size + 1);
+  public void add(Node node) {
+    final long stamp = structureLock.readLock();
+    try {
+      verifyUniqueId(node, nodeIndexByNodeId.get(node.id()));
+      final Slots slots = this.slots;
+      long index = tryClaimEmptySlot();
+      if (index == -1) {
+        // no empty spot available - append instead
+        index = slots.claim();
+      }
+
+      slots.set(index, node);
+      final long existingIndex = nodeIndexByNodeId.putIfAbsent(node.id(), index);
+      if (existingIndex != NodeIdIndex.NO_SLOT) {
+        // another thread added a node with the same id in the meantime
+        slots.set(index, null);
+        releaseSlot(index);
+        verifyUniqueId(node, existingIndex);
+      }
+
+      slots.setLabelPosition(index, labelIndex(node.label()).add(node));
+    } finally {
+      structureLock.unlockRead(stamp);
     }
+  }
 
-    nodes[index] = node;
-    nodeIndexByNodeId.put(node.id(), index);
-    if(nodesByLabel != null) {
-      nodesByLabel(node.label()).add(node);
+  /**
+   * Store many nodes at once, which is cheaper than adding them one by one: they go into consecutive slots at the end,
+   * that are claimed in one go, and so are their positions in the label index, once per label (or rather, per sequence
+   * of nodes with the same label).
+   */
+  public void addAll(List<? extends Node> newNodes) {
+    final int count = newNodes.size();
+    if (count == 0) return;
+    final long stamp = structureLock.readLock();
+    try {
+      final long firstIndex = slots.claim(count);
+      int runStart = 0;
+      while (runStart < count) {
+        final String label = newNodes.get(runStart).label();
+        int runEnd = runStart;
+        long existingIndex = NodeIdIndex.NO_SLOT;
+        while (runEnd < count && existingIndex == NodeIdIndex.NO_SLOT && label.equals(newNodes.get(runEnd).label())) {
+          final Node node = newNodes.get(runEnd);
+          slots.set(firstIndex + runEnd, node);
+          existingIndex = nodeIndexByNodeId.putIfAbsent(node.id(), firstIndex + runEnd);
+          if (existingIndex == NodeIdIndex.NO_SLOT) runEnd++;
+        }
+
+        final LabelIndex labelIndex = labelIndex(label);
+        final int firstPosition = labelIndex.claim(runEnd - runStart);
+        for (int i = runStart; i < runEnd; i++) {
+          final int position = firstPosition + i - runStart;
+          labelIndex.set(position, newNodes.get(i));
+          slots.setLabelPosition(firstIndex + i, position);
+        }
+
+        if (existingIndex != NodeIdIndex.NO_SLOT) {
+          // a node with the same id exists already: the remaining slots stay empty
+          for (int i = runEnd; i < count; i++) {
+            slots.set(firstIndex + i, null);
+            releaseSlot(firstIndex + i);
+          }
+          verifyUniqueId(newNodes.get(runEnd), existingIndex);
+        }
+        runStart = runEnd;
+      }
+    } finally {
+      structureLock.unlockRead(stamp);
     }
-    size++;
   }
 
-  private void verifyUniqueId(Node node) {
-    if (nodeIndexByNodeId.containsKey(node.id())) {
-      Node existingNode = nodeById(node.id());
+  private void verifyUniqueId(Node node, long existingIndex) {
+    if (existingIndex != NodeIdIndex.NO_SLOT) {
+      Node existingNode = slots.get(existingIndex);
       throw new AssertionError("different Node with same id already exists in this NodesList: " + existingNode);
     }
   }
 
   /** @return -1 if no available empty slots, otherwise the successfully claimed slot */
-  private int tryClaimEmptySlot() {
-    final int nextEmptySlot = emptySlots.nextSetBit(0);
-    if (nextEmptySlot != -1) {
-      emptySlots.clear(nextEmptySlot);
+  private long tryClaimEmptySlot() {
+    if (emptySlotCount == 0) return -1; // fast path without locking
+
+    synchronized (emptySlots) {
+      final long nextEmptySlot = emptySlots.nextSetBit(0);
+      if (nextEmptySlot != -1) {
+        emptySlots.clear(nextEmptySlot);
+        emptySlotCount--;
+      }
+      return nextEmptySlot;
+    }
+  }
+
+  private void releaseSlot(long index) {
+    synchronized (emptySlots) {
+      emptySlots.set(index);
+      emptySlotCount++;
     }
-    return nextEmptySlot;
+  }
+
+  /**
+   * Ids from `firstId` (inclusive) to `endId` (exclusive) are about to be added, possibly concurrently and out of order,
+   * e.g. a block of ids that's leased by one thread: prepare the id index, so that they're resolved by array indexing.
+   */
+  public void reserveDenseIds(long firstId, long endId) {
+    nodeIndexByNodeId.reserveDense(firstId, endId);
+  }
+
+  /** number of nodes whose ids are resolved via hash map rather than by array indexing, see {@link NodeIdIndex} */
+  public int sparseIdCount() {
+    return nodeIndexByNodeId.sparseCount();
   }
 
   public boolean contains(long id) {
-    return nodeIndexByNodeId.containsKey(id);
+    return nodeIndexByNodeId.get(id) != NodeIdIndex.NO_SLOT;
   }
 
   public Node nodeById(long id) {
-    if (nodeIndexByNodeId.containsKey(id)) {
-      return nodes[nodeIndexByNodeId.get(id)];
+    final long index = nodeIndexByNodeId.get(id);
+    if (index == NodeIdIndex.NO_SLOT) return null;
+
+    final Node node = slots.get(index);
+    if (node != null && node.id() == id) {
+      return node;
     } else {
-      return null;
+      // the node was moved by a concurrent compaction, or removed - retry while holding the lock
+      final long stamp = structureLock.readLock();
+      try {
+        final long currentIndex = nodeIndexByNodeId.get(id);
+        return currentIndex == NodeIdIndex.NO_SLOT ? null : slots.get(currentIndex);
+      } finally {
+        structureLock.unlockRead(stamp);
+      }
     }
   }
 
-  public synchronized void remove(Node node) {
-    int index = nodeIndexByNodeId.remove(node.id());
-    nodes[index] = null;
-    emptySlots.set(index);
+  public void remove(Node node) {
+    final long stamp = structureLock.writeLock();
+    try {
+      long index = nodeIndexByNodeId.remove(node.id());
+      if (index == NodeIdIndex.NO_SLOT) return;
+      removeFromLabelIndex(node, slots.labelPosition(index));
+      slots.set(index, null);
+      releaseSlot(index);
+
+      compactMaybe();
+    } finally {
+      structureLock.unlockWrite(stamp);
+    }
+  }
 
-    /** We drop the entire `nodesByLabel` index and will rebuild it on the next index lookup...
-      * Context: we don't know the exact position of this node in the `nodesByLabel` index, and
-      * searching it is O(n).
-      * We considered using a separate TLongIntMap for the Id->Index mapping, but that would
-      * consume 12-20b per node */
-    this.nodesByLabel = null;
+  public long size() {
+    return slots.claimedCount() - emptySlotCount;
+  }
 
-    size--;
-    compactMaybe();
+  /**
+   * Leaves an empty position behind, so that the other nodes keep their positions and running iterators don't skip any
+   * of them. Once at least half of the positions are empty, the label index is replaced by a compacted copy: iterators
+   * that have been created before carry on with the old one.
+   * expects that the caller holds the exclusive lock
+   */
+  private void removeFromLabelIndex(Node node, int position) {
+    final String label = node.label();
+    final LabelIndex labelIndex = labelIndex(label);
+    if (position >= labelIndex.size() || labelIndex.get(position) != node) {
+      throw new AssertionError("inconsistent label index for node " + node + " at position " + position);
+    }
+    labelIndex.removeAt(position);
+    if (labelIndex.isSparse()) {
+      final LabelIndex compacted = labelIndex.compacted();
+      for (int i = 0; i < compacted.size(); i++) {
+        slots.setLabelPosition(nodeIndexByNodeId.get(compacted.get(i).id()), i);
+      }
+      nodesByLabel.put(label, compacted);
+    }
   }
 
-  public int size() {
-    return size;
+  /** Copy of all nodes with the given label, in insertion order. Use {@link #labelIterator(String)} to iterate without copying. */
+  public ArrayList<Node> nodesByLabel(String label) {
+    final ArrayList<Node> ret = new ArrayList<>(cardinality(label));
+    labelIterator(label).forEachRemaining(ret::add);
+    return ret;
   }
 
-  private TMap<String, ArrayList<Node>> getNodesByLabel() {
-    TMap<String, ArrayList<Node>> nodesByLabel = this.nodesByLabel;
-    if (nodesByLabel != null) {
-      return nodesByLabel;
-    } else {
-      initialiseNodesByLabel();
-      return getNodesByLabel();
-    }
+  private LabelIndex labelIndex(String label) {
+    return nodesByLabel.computeIfAbsent(label, l -> new LabelIndex());
   }
 
-  private synchronized void initialiseNodesByLabel(){
-    if (nodesByLabel == null) {
-      TMap<String, ArrayList<Node>> tmp = new THashMap<>();
-      for (Node node : nodes) {
-        if (node != null) {
-          ArrayList<Node> nodelist = tmp.get(node.label());
-          if (nodelist == null) {
-            nodelist = new ArrayList<>();
-            tmp.put(node.label(), nodelist);
-          }
-          nodelist.add(node);
+  /**
+   * Iterates over all nodes with the given label, in insertion order. Weakly consistent like {@link #iterator()}: safe to
+   * use while nodes are added or removed, and returns every node that is present for the entire iteration exactly once.
+   * Doesn't copy or lock anything, see {@link LabelIndex}.
+   */
+  public Iterator<Node> labelIterator(String label) {
+    final LabelIndex labelIndex = labelIndex(label);
+    return new Iterator<Node>() {
+      int idx = 0;
+      Node nextPeeked = null;
+
+      @Override
+      public boolean hasNext() {
+        // removed nodes leave empty positions behind
+        while (nextPeeked == null && idx < labelIndex.size()) {
+          nextPeeked = labelIndex.get(idx++);
         }
+        return nextPeeked != null;
       }
-      this.nodesByLabel = tmp;
-    }
-  }
 
-  public ArrayList<Node> nodesByLabel(String label) {
-    TMap<String, ArrayList<Node>> nodesByLabel = getNodesByLabel();
-    ArrayList<Node> nodelist = nodesByLabel.get(label);
-    if (nodelist == null){
-      nodelist = new ArrayList<>();
-      nodesByLabel.put(label, nodelist);
-    }
-    return nodelist;
+      @Override
+      public Node next() {
+        if (!hasNext()) throw new NoSuchElementException("next on empty iterator");
+        final Node ret = nextPeeked;
+        nextPeeked = null;
+        return ret;
+      }
+    };
   }
 
   public Set<String> nodeLabels() {
-    TMap<String, ArrayList<Node>> nodesByLabel = getNodesByLabel();
     Set<String> ret = new HashSet<>(nodesByLabel.size());
     nodesByLabel.entrySet().forEach(entry -> {
-      if (!entry.getValue().isEmpty()) {
+      if (entry.getValue().cardinality() > 0) {
         ret.add(entry.getKey());
       }
     });
     return ret;
   }
 
-  public synchronized Iterator<Node> iterator() {
-    return new NodesIterator(Arrays.copyOf(nodes, nodes.length));
+  /**
+   * Weakly consistent iterator over the live slots, i.e. doesn't copy anything and never throws
+   * {@link ConcurrentModificationException}. Returns every node that is present for the entire iteration exactly once,
+   * may or may not return nodes that are added or removed concurrently.
+   * Nodes that are moved by a concurrent compaction are accounted for, see {@link SlotsSpliterator}.
+   * Covers the slots that have been claimed at the time of this call, i.e. adding a node for every node returned
+   * terminates.
+   */
+  public Iterator<Node> iterator() {
+    return Spliterators.iterator(spliterator());
+  }
+
+  /**
+   * Weakly consistent like {@link #iterator()}, splits along ranges of slots, e.g. for parallel streams.
+   * Covers the slots that have been claimed at the time of this call.
+   */
+  public Spliterator<Node> spliterator() {
+    return new SlotsSpliterator(0, slots.claimedCount(), density());
+  }
+
+  /** share of non-empty slots */
+  private float density() {
+    final long claimedCount = slots.claimedCount();
+    return claimedCount == 0 ? 1f : Float.min(1f, (float) size() / claimedCount);
+  }
+
+  /** Splits along ranges of the label index, e.g. for parallel streams. Weakly consistent like {@link #labelIterator}. */
+  public Spliterator<Node> labelSpliterator(String label) {
+    final LabelIndex labelIndex = labelIndex(label);
+    return new LabelSpliterator(labelIndex, 0, labelIndex.size());
   }
 
-  private void ensureCapacity(int minCapacity) {
-    if (nodes.length < minCapacity) grow(minCapacity);
+  /** Iterator over a copy of all slots, i.e. it isn't affected by any subsequent changes at all. */
+  public Iterator<Node> snapshotIterator() {
+    return new NodesIterator(snapshot());
   }
 
-  /** compact if there are many empty slots, and they make up >= 30% of the node array */
+  /** copy of all slots, including empty ones */
+  private Node[] snapshot() {
+    final long stamp = structureLock.readLock();
+    try {
+      return slots.toArray();
+    } finally {
+      structureLock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * compact one step if there are many empty slots, and they make up >= 30% of the claimed slots
+   * otherwise only release the empty slots at the end, which is cheap
+   * expects that the caller holds the exclusive lock
+   */
   private void compactMaybe() {
-    final int emptyCount = emptySlots.cardinality();
+    final long emptyCount = emptySlotCount;
     if (emptyCount > 10000 &&
-        emptyCount * 100 / nodes.length >= 30) {
-      compact();
+        emptyCount * 100L / slots.claimedCount() >= 30) {
+      compactStep(MAX_MOVES_PER_COMPACTION_STEP);
+    } else {
+      synchronized (emptySlots) {
+        releaseTrailingEmptySlots();
+      }
     }
   }
 
   /** Trims down internal collections to just about the necessary size, in order to allow the remainder to be
-   * garbage collected. Creates a new `nodes` array which contains all existing nodes.  */
-  synchronized void compact() {
-    final ArrayList<Node> newNodes = new ArrayList<>(size);
-    Iterator<Node> iter = iterator();
-    while (iter.hasNext()) {
-      newNodes.add(iter.next());
+   * garbage collected. Moves all nodes into the empty slots in one step, i.e. the pause is not bounded. */
+  void compact() {
+    final long stamp = structureLock.writeLock();
+    try {
+      compactStep(Integer.MAX_VALUE);
+    } finally {
+      structureLock.unlockWrite(stamp);
     }
-    nodes = newNodes.toArray(new Node[size]);
+  }
 
-    //reindex helper collections
-    emptySlots.clear();
-    nodeIndexByNodeId = new TLongIntHashMap(this.nodes.length);
+  /**
+   * Moves up to `maxMoves` nodes from the end into the first empty slots, and updates the indexes in place.
+   * expects that the caller holds the exclusive lock
+   */
+  private void compactStep(int maxMoves) {
+    final long startNanos = System.nanoTime();
+    synchronized (emptySlots) {
+      final MovedNodes moved = new MovedNodes((int) Long.min(maxMoves, emptySlotCount));
+      long last = emptySlots.previousClearBit(slots.claimedCount() - 1);
+      long hole = emptySlots.nextSetBit(0);
+      while (moved.count < moved.nodes.length && hole != -1 && hole < last) {
+        final Node node = slots.get(last);
+        // order matters for the lock-free `nodeById`: the node must always be reachable via the index
+        slots.set(hole, node);
+        slots.setLabelPosition(hole, slots.labelPosition(last));
+        nodeIndexByNodeId.replace(node.id(), hole);
+        slots.set(last, null);
+        moved.add(node, last, hole);
+
+        emptySlots.clear(hole);
+        emptySlots.set(last);
+        last = emptySlots.previousClearBit(last - 1);
+        hole = emptySlots.nextSetBit(hole + 1);
+      }
 
-    int idx = 0;
-    while (idx < this.nodes.length) {
-      Node node = this.nodes[idx];
-      nodeIndexByNodeId.put(node.id(), idx);
-      idx++;
+      if (moved.count > 0) {
+        lastMovedNodes.next = moved;
+        lastMovedNodes = moved;
+      }
+      releaseTrailingEmptySlots();
     }
+
+    final long pauseNanos = System.nanoTime() - startNanos;
+    compactionPauseNanos += pauseNanos;
+    if (pauseNanos > maxCompactionPauseNanos) maxCompactionPauseNanos = pauseNanos;
   }
 
-  /** The maximum size of array to allocate.
-   * Some VMs reserve some header words in an array.
-   * Attempts to allocate larger arrays may result in
-   * OutOfMemoryError: Requested array size exceeds VM limit
-   * @see java.util.ArrayList (copied from there)
-   */
-  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
-
-  /** Increases the capacity to ensure that it can hold at least the
-   * number of elements specified by the minimum capacity argument.
-   * @see java.util.ArrayList (copied from there) */
-  private synchronized void grow(int minCapacity) {
-    // overflow-conscious code
-    int oldCapacity = nodes.length;
-    int newCapacity = oldCapacity + (oldCapacity >> 1);
-    if (newCapacity - minCapacity < 0)
-      newCapacity = minCapacity;
-    if (newCapacity - MAX_ARRAY_SIZE > 0)
-      newCapacity = hugeCapacity(minCapacity);
-    // minCapacity is usually close to size, so this is a win:
-    nodes = Arrays.copyOf(nodes, newCapacity);
-  }
-
- /** @see java.util.ArrayList (copied from there) */
-  private static int hugeCapacity(int minCapacity) {
-    if (minCapacity < 0) // overflow
-      throw new OutOfMemoryError();
-    return (minCapacity > MAX_ARRAY_SIZE) ?
-        Integer.MAX_VALUE :
-        MAX_ARRAY_SIZE;
+  /** expects that the caller holds the exclusive lock and the `emptySlots` monitor */
+  private void releaseTrailingEmptySlots() {
+    final long claimedCount = slots.claimedCount();
+    final long newClaimedCount = emptySlots.previousClearBit(claimedCount - 1) + 1;
+    if (newClaimedCount < claimedCount) {
+      emptySlots.clear(newClaimedCount, claimedCount);
+      emptySlotCount -= claimedCount - newClaimedCount;
+      slots.truncate(newClaimedCount);
+    }
+  }
+
+  /** total time that compaction held the exclusive lock, i.e. blocked all other writers, in nanoseconds */
+  public long getCompactionPauseNanos() {
+    return compactionPauseNanos;
+  }
+
+  /** longest time that a single compaction step held the exclusive lock, in nanoseconds */
+  public long getMaxCompactionPauseNanos() {
+    return maxCompactionPauseNanos;
   }
 
   /** just for unit test */
-  protected int _elementDataSize() {
-    return nodes.length;
+  protected long _elementDataSize() {
+    return slots.capacity();
   }
 
   /** cardinality of nodes for given label */
   public int cardinality(String label) {
-    TMap<String, ArrayList<Node>> nodesByLabel = getNodesByLabel();
-    if (nodesByLabel.containsKey(label))
-      return nodesByLabel.get(label).size();
-    else
-      return 0;
+    LabelIndex labelIndex = nodesByLabel.get(label);
+    return labelIndex != null ? labelIndex.cardinality() : 0;
   }
 
-  public synchronized void persistAll(NodesWriter nodesWriter) {
-    nodesWriter.writeAndClearBatched(Arrays.spliterator(nodes), nodes.length);
+  public void persistAll(NodesWriter nodesWriter) {
+    nodesWriter.writeAndClearBatched(spliterator(), (int) Long.min(Integer.MAX_VALUE, size()));
+  }
+
+  /**
+   * Storage for the nodes, organised in segments that are never moved or copied once they're allocated, so that
+   * concurrent adds don't need to coordinate when we grow: segment 0 has `2^baseBits` slots, and every subsequent segment
+   * doubles the overall capacity - until the segments reach `2^30` slots (the largest power of two that fits into an
+   * array), from then on all segments have that size. The segment for a given slot can therefor be derived from the
+   * slot's highest bit, or for the fixed size segments from the slot divided by their size.
+   */
+  static final class Slots {
+    private static final int MIN_BASE_BITS = 4;
+    private static final int MAX_SEGMENT_BITS = 30;
+    /** first slot of the first segment that doesn't double the capacity any more */
+    private static final long FIXED_SEGMENTS_START = 1L << (MAX_SEGMENT_BITS + 1);
+    private static final int MAX_SEGMENTS = 32;
+
+    final int baseBits;
+    /** the last segment that doubles the capacity, i.e. the first one with `2^MAX_SEGMENT_BITS` slots */
+    private final int lastDoublingSegment;
+    private final AtomicReferenceArray<Node[]> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    /** position of the node in its {@link LabelIndex}, same layout as `segments` */
+    private final AtomicReferenceArray<int[]> labelPositions = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final AtomicLong claimedCount = new AtomicLong(0);
+
+    Slots(int minBaseCapacity) {
+      this.baseBits = Integer.min(MAX_SEGMENT_BITS,
+          Integer.max(MIN_BASE_BITS, 32 - Integer.numberOfLeadingZeros(Integer.max(1, minBaseCapacity) - 1)));
+      this.lastDoublingSegment = MAX_SEGMENT_BITS + 1 - baseBits;
+      labelPositions.set(0, new int[1 << baseBits]);
+      segments.set(0, new Node[1 << baseBits]);
+    }
+
+    /** claims `count` consecutive slots at the end, allocates new segments if necessary
+     * @return the first of the claimed slots */
+    long claim(int count) {
+      final long index = claimedCount.getAndAdd(count);
+      if (index + count > NodeIdIndex.MAX_SLOTS) {
+        claimedCount.addAndGet(-count);
+        throw new OutOfMemoryError("NodesList cannot hold more than " + NodeIdIndex.MAX_SLOTS + " nodes");
+      }
+      for (int segmentIndex = segmentIndex(index); segmentIndex <= segmentIndex(index + count - 1); segmentIndex++) {
+        if (segments.get(segmentIndex) == null) allocateSegment(segmentIndex);
+      }
+      return index;
+    }
+
+    /** claims the next free slot at the end, allocates a new segment if necessary */
+    long claim() {
+      final long index = claimedCount.getAndIncrement();
+      if (index >= NodeIdIndex.MAX_SLOTS) {
+        claimedCount.decrementAndGet();
+        throw new OutOfMemoryError("NodesList cannot hold more than " + NodeIdIndex.MAX_SLOTS + " nodes");
+      }
+      final int segmentIndex = segmentIndex(index);
+      if (segments.get(segmentIndex) == null) allocateSegment(segmentIndex);
+      return index;
+    }
+
+    /**
+     * releases all slots from `newClaimedCount` on, which must be empty. keeps at most one empty segment at the end, so
+     * that we don't allocate and release segments over and over again if the number of nodes fluctuates.
+     * expects that no slots are claimed concurrently
+     */
+    synchronized void truncate(long newClaimedCount) {
+      claimedCount.set(newClaimedCount);
+      for (int segmentIndex = MAX_SEGMENTS - 1; segmentIndex > 0; segmentIndex--) {
+        if (segments.get(segmentIndex) != null && segmentStart(segmentIndex - 1) >= newClaimedCount) {
+          segments.set(segmentIndex, null);
+          labelPositions.set(segmentIndex, null);
+        }
+      }
+    }
+
+    private synchronized void allocateSegment(int segmentIndex) {
+      if (segments.get(segmentIndex) == null) {
+        labelPositions.set(segmentIndex, new int[segmentLength(segmentIndex)]);
+        segments.set(segmentIndex, new Node[segmentLength(segmentIndex)]);
+      }
+    }
+
+    Node get(long index) {
+      final int segmentIndex = segmentIndex(index);
+      final Node[] segment = segments.get(segmentIndex);
+      return segment != null ? segment[offsetInSegment(index, segmentIndex)] : null;
+    }
+
+    void set(long index, Node node) {
+      final int segmentIndex = segmentIndex(index);
+      segments.get(segmentIndex)[offsetInSegment(index, segmentIndex)] = node;
+    }
+
+    int labelPosition(long index) {
+      final int segmentIndex = segmentIndex(index);
+      return labelPositions.get(segmentIndex)[offsetInSegment(index, segmentIndex)];
+    }
+
+    void setLabelPosition(long index, int position) {
+      final int segmentIndex = segmentIndex(index);
+      labelPositions.get(segmentIndex)[offsetInSegment(index, segmentIndex)] = position;
+    }
+
+    long claimedCount() {
+      return claimedCount.get();
+    }
+
+    /** number of allocated slots */
+    long capacity() {
+      long capacity = 0;
+      for (int i = 0; i < MAX_SEGMENTS; i++) {
+        Node[] segment = segments.get(i);
+        if (segment == null) break;
+        capacity += segment.length;
+      }
+      return capacity;
+    }
+
+    /** all slots up to the highest claimed one, including empty ones */
+    Node[] toArray() {
+      final long claimed = Long.min(claimedCount.get(), capacity());
+      if (claimed > Integer.MAX_VALUE - 8) {
+        throw new OutOfMemoryError("cannot copy " + claimed + " slots into a single array");
+      }
+      final Node[] ret = new Node[(int) claimed];
+      int copied = 0;
+      for (int segmentIndex = 0; copied < claimed; segmentIndex++) {
+        final Node[] segment = segments.get(segmentIndex);
+        final int length = (int) Long.min(segment.length, claimed - copied);
+        System.arraycopy(segment, 0, ret, copied, length);
+        copied += length;
+      }
+      return ret;
+    }
+
+    int segmentIndex(long index) {
+      if (index < FIXED_SEGMENTS_START) {
+        return 64 - Long.numberOfLeadingZeros(index >>> baseBits);
+      }
+      return lastDoublingSegment + 1 + (int) ((index - FIXED_SEGMENTS_START) >>> MAX_SEGMENT_BITS);
+    }
+
+    private int offsetInSegment(long index, int segmentIndex) {
+      return (int) (index - segmentStart(segmentIndex));
+    }
+
+    long segmentStart(int segmentIndex) {
+      if (segmentIndex == 0) return 0;
+      if (segmentIndex <= lastDoublingSegment) return 1L << (baseBits + segmentIndex - 1);
+      return FIXED_SEGMENTS_START + ((long) (segmentIndex - lastDoublingSegment - 1) << MAX_SEGMENT_BITS);
+    }
+
+    int segmentLength(int segmentIndex) {
+      if (segmentIndex == 0) return 1 << baseBits;
+      if (segmentIndex <= lastDoublingSegment) return 1 << (baseBits + segmentIndex - 1);
+      return 1 << MAX_SEGMENT_BITS;
+    }
+  }
+
+  /**
+   * All nodes with the same label. Like {@link Slots}, the nodes are stored in segments that are never moved or copied
+   * once they're allocated: segment 0 has `2^BASE_BITS` positions, and every subsequent segment doubles the capacity.
+   * That way concurrent adds only need to claim their positions via an atomic counter, and readers don't need to
+   * synchronize with writers at all. Removed nodes leave an empty position behind, i.e. positions never change.
+   * Positions that have been claimed but not written yet are empty as well.
+   * Removing requires the exclusive lock of the NodesList.
+   */
+  static final class LabelIndex {
+    private static final int BASE_BITS = 4;
+    private static final int MAX_SEGMENTS = 32 - BASE_BITS;
+
+    private final AtomicReferenceArray<Node[]> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final AtomicInteger claimedCount = new AtomicInteger(0);
+    /** number of removed nodes, whose positions are empty */
+    private volatile int removedCount = 0;
+
+    /** @return the position of the node */
+    int add(Node node) {
+      final int position = claim(1);
+      set(position, node);
+      return position;
+    }
+
+    /** claims `count` consecutive positions at the end, allocates new segments if necessary
+     * @return the first of the claimed positions */
+    int claim(int count) {
+      final int position = claimedCount.getAndAdd(count);
+      if (position < 0 || position + count < 0) {
+        claimedCount.addAndGet(-count);
+        throw new OutOfMemoryError("NodesList cannot hold more than " + Integer.MAX_VALUE + " nodes with the same label");
+      }
+      for (int segmentIndex = segmentIndex(position); segmentIndex <= segmentIndex(position + count - 1); segmentIndex++) {
+        if (segments.get(segmentIndex) == null) allocateSegment(segmentIndex);
+      }
+      return position;
+    }
+
+    private synchronized void allocateSegment(int segmentIndex) {
+      if (segments.get(segmentIndex) == null) {
+        segments.set(segmentIndex, new Node[segmentLength(segmentIndex)]);
+      }
+    }
+
+    /** expects that the caller holds the exclusive lock */
+    void removeAt(int position) {
+      set(position, null);
+      removedCount++;
+    }
+
+    /** @return true if at least half of the positions are empty */
+    boolean isSparse() {
+      return removedCount * 2L >= size() && removedCount > 0;
+    }
+
+    /** @return a new LabelIndex with the same nodes in the same order, without empty positions */
+    LabelIndex compacted() {
+      final LabelIndex compacted = new LabelIndex();
+      final int size = size();
+      for (int position = 0; position < size; position++) {
+        final Node node = get(position);
+        if (node != null) compacted.add(node);
+      }
+      return compacted;
+    }
+
+    /** @return the node at the given position, or null if there is none */
+    Node get(int position) {
+      final int segmentIndex = segmentIndex(position);
+      final Node[] segment = segments.get(segmentIndex);
+      return segment != null ? segment[position - segmentStart(segmentIndex)] : null;
+    }
+
+    /** expects that `position` has been claimed */
+    void set(int position, Node node) {
+      final int segmentIndex = segmentIndex(position);
+      segments.get(segmentIndex)[position - segmentStart(segmentIndex)] = node;
+    }
+
+    /** number of claimed positions, including empty ones */
+    int size() {
+      return claimedCount.get();
+    }
+
+    /** number of nodes, including the ones that are about to be written by concurrent adds */
+    int cardinality() {
+      return size() - removedCount;
+    }
+
+    private static int segmentIndex(int position) {
+      return 32 - Integer.numberOfLeadingZeros(position >>> BASE_BITS);
+    }
+
+    private static int segmentStart(int segmentIndex) {
+      return segmentIndex == 0 ? 0 : 1 << (BASE_BITS + segmentIndex - 1);
+    }
+
+    private static int segmentLength(int segmentIndex) {
+      return segmentIndex == 0 ? 1 << BASE_BITS : 1 << (BASE_BITS + segmentIndex - 1);
+    }
+  }
+
+  /** {@link BitSet} with long indexes, made of segments of `2^30` bits that are allocated on demand. Not thread safe. */
+  static final class LongBitSet {
+    private static final int SEGMENT_BITS = 30;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private BitSet[] segments = new BitSet[1];
+
+    void set(long index) {
+      final int segmentIndex = segmentIndex(index);
+      if (segmentIndex >= segments.length) segments = Arrays.copyOf(segments, segmentIndex + 1);
+      if (segments[segmentIndex] == null) segments[segmentIndex] = new BitSet();
+      segments[segmentIndex].set(offset(index));
+    }
+
+    void clear(long index) {
+      final BitSet segment = segment(segmentIndex(index));
+      if (segment != null) segment.clear(offset(index));
+    }
+
+    /** clears the bits from `fromIndex` (inclusive) to `toIndex` (exclusive) */
+    void clear(long fromIndex, long toIndex) {
+      while (fromIndex < toIndex) {
+        final int segmentIndex = segmentIndex(fromIndex);
+        final long segmentStart = (long) segmentIndex << SEGMENT_BITS;
+        final long until = Long.min(toIndex, segmentStart + (1L << SEGMENT_BITS));
+        final BitSet segment = segment(segmentIndex);
+        if (segment != null) segment.clear(offset(fromIndex), (int) (until - segmentStart));
+        fromIndex = until;
+      }
+    }
+
+    /** @return the first set bit at or after `fromIndex`, or -1 */
+    long nextSetBit(long fromIndex) {
+      int offset = offset(fromIndex);
+      for (int segmentIndex = segmentIndex(fromIndex); segmentIndex < segments.length; segmentIndex++) {
+        final BitSet segment = segments[segmentIndex];
+        if (segment != null) {
+          final int next = segment.nextSetBit(offset);
+          if (next != -1) return ((long) segmentIndex << SEGMENT_BITS) + next;
+        }
+        offset = 0;
+      }
+      return -1;
+    }
+
+    /** @return the last clear bit at or before `fromIndex`, or -1 if there is none (or `fromIndex` is -1) */
+    long previousClearBit(long fromIndex) {
+      if (fromIndex < 0) return -1;
+      int offset = offset(fromIndex);
+      for (int segmentIndex = segmentIndex(fromIndex); segmentIndex >= 0; segmentIndex--) {
+        final BitSet segment = segment(segmentIndex);
+        if (segment == null) return ((long) segmentIndex << SEGMENT_BITS) + offset;
+        final int previous = segment.previousClearBit(offset);
+        if (previous != -1) return ((long) segmentIndex << SEGMENT_BITS) + previous;
+        offset = SEGMENT_MASK;
+      }
+      return -1;
+    }
+
+    private BitSet segment(int segmentIndex) {
+      return segmentIndex < segments.length ? segments[segmentIndex] : null;
+    }
+
+    private static int segmentIndex(long index) {
+      return (int) (index >>> SEGMENT_BITS);
+    }
+
+    private static int offset(long index) {
+      return (int) index & SEGMENT_MASK;
+    }
+  }
+
+  /** nodes that have been moved by one compaction step */
+  private static final class MovedNodes {
+    final Node[] nodes;
+    final long[] from;
+    final long[] to;
+    int count = 0;
+    volatile MovedNodes next;
+
+    MovedNodes(int capacity) {
+      nodes = new Node[capacity];
+      from = new long[capacity];
+      to = new long[capacity];
+    }
+
+    void add(Node node, long fromSlot, long toSlot) {
+      nodes[count] = node;
+      from[count] = fromSlot;
+      to[count] = toSlot;
+      count++;
+    }
+  }
+
+  /** ranges smaller than this aren't split any further */
+  private static final int MIN_SPLIT_SIZE = 1024;
+
+  /**
+   * Iterates over a range of slots without locking. Since compaction moves nodes from the end into empty slots in front,
+   * we'd skip nodes that are moved from a slot ahead of us to a slot behind us. To account for that, compaction records
+   * all moves in a log, and we check it before reading each slot: the nodes that are moved out of our remaining range
+   * are returned by us separately. Nodes that are moved into our remaining range from elsewhere are skipped, they're
+   * returned by whoever covers their previous slot (or have been returned already).
+   * Reading a slot is validated against the structure lock, so that we never read a slot during a compaction step.
+   * n.b. this holds on to the log entries since its creation, i.e. don't keep unfinished iterators around forever.
+   */
+  private final class SlotsSpliterator implements Spliterator<Node> {
+    private long index;
+    private final long end;
+    /** share of non-empty slots, for the size estimate */
+    private final float density;
+    private MovedNodes lastSeenMovedNodes = lastMovedNodes;
+    /** nodes moved out of our remaining range, which we still need to return */
+    private ArrayDeque<Node> movedOut;
+    /** nodes we need to skip if we find them in our remaining range: they're either in `movedOut`, or not ours */
+    private Set<Node> skip;
+
+    private SlotsSpliterator(long index, long end, float density) {
+      this.index = index;
+      this.end = end;
+      this.density = density;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Node> action) {
+      while (true) {
+        while (movedOut != null && !movedOut.isEmpty()) {
+          final Node node = movedOut.poll();
+          // may have been removed after it was moved
+          if (contains(node.id())) {
+            action.accept(node);
+            return true;
+          }
+        }
+
+        final long stamp = structureLock.tryOptimisticRead();
+        if (stamp == 0) {
+          // exclusively locked - wait until that's done
+          structureLock.unlockRead(structureLock.readLock());
+          continue;
+        }
+        processMovedNodes();
+        if (movedOut != null && !movedOut.isEmpty()) continue;
+        if (index >= end) {
+          if (structureLock.validate(stamp)) return false;
+          else continue;
+        }
+        final Node node = slots.get(index);
+        if (!structureLock.validate(stamp)) continue;
+
+        index++;
+        if (node != null && (skip == null || !skip.contains(node))) {
+          action.accept(node);
+          return true;
+        }
+      }
+    }
+
+    private void processMovedNodes() {
+      MovedNodes moved;
+      while ((moved = lastSeenMovedNodes.next) != null) {
+        for (int i = 0; i < moved.count; i++) {
+          final Node node = moved.nodes[i];
+          if (skip != null && skip.contains(node)) continue; // already taken care of
+          final boolean fromRemaining = isRemaining(moved.from[i]);
+          final boolean toRemaining = isRemaining(moved.to[i]);
+          if (fromRemaining && !toRemaining) {
+            if (movedOut == null) movedOut = new ArrayDeque<>();
+            movedOut.add(node);
+            skip().add(node);
+          } else if (!fromRemaining && toRemaining) {
+            skip().add(node);
+          }
+        }
+        lastSeenMovedNodes = moved;
+      }
+    }
+
+    private boolean isRemaining(long slot) {
+      return slot >= index && slot < end;
+    }
+
+    private Set<Node> skip() {
+      if (skip == null) skip = Collections.newSetFromMap(new IdentityHashMap<>());
+      return skip;
+    }
+
+    @Override
+    public Spliterator<Node> trySplit() {
+      if (end - index < MIN_SPLIT_SIZE) return null;
+      final long mid = (index + end) >>> 1;
+      final SlotsSpliterator prefix = new SlotsSpliterator(index, mid, density);
+      // the prefix doesn't know about the moves we've seen so far - share what's relevant for it
+      prefix.lastSeenMovedNodes = lastSeenMovedNodes;
+      if (skip != null) prefix.skip().addAll(skip);
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      final long remainingSlots = Long.max(0, end - index);
+      return (long) Math.ceil(remainingSlots * density) + (movedOut != null ? movedOut.size() : 0);
+    }
+
+    @Override
+    public int characteristics() {
+      return NONNULL | CONCURRENT;
+    }
+  }
+
+  private static final class LabelSpliterator implements Spliterator<Node> {
+    private final LabelIndex labelIndex;
+    private int index;
+    private final int end;
+
+    private LabelSpliterator(LabelIndex labelIndex, int index, int end) {
+      this.labelIndex = labelIndex;
+      this.index = index;
+      this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Node> action) {
+      Node node = null;
+      // the list may shrink concurrently
+      while (node == null && index < end && index < labelIndex.size()) {
+        node = labelIndex.get(index++);
+      }
+      if (node == null) return false;
+      action.accept(node);
+      return true;
+    }
+
+    @Override
+    public Spliterator<Node> trySplit() {
+      if (end - index < MIN_SPLIT_SIZE) return null;
+      final int mid = (index + end) >>> 1;
+      final Spliterator<Node> prefix = new LabelSpliterator(labelIndex, index, mid);
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return Integer.max(0, end - index);
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | NONNULL | CONCURRENT;
+    }
   }
 
   public static class NodesIterator implements Iterator<Node> {
@@ -0,0 +1,150 @@
+package overflowdb.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Hash map from long keys to int values (any but -1, e.g. unsigned slots), stored outside of the heap in a direct
+ * {@link ByteBuffer}, i.e. it doesn't need to be traversed by the garbage collector. Direct memory is limited by
+ * `-XX:MaxDirectMemorySize` though (which defaults to the max heap size), and the buffers that are replaced when the map
+ * grows are only released once they're garbage collected.
+ * Open addressing with linear probing, 12 bytes per entry (key and `value + 1`, where 0 marks an empty entry). Removal
+ * shifts the following entries back, so there are no tombstones.
+ * Not thread safe.
+ */
+class OffHeapLongIntMap implements NodeIdIndex.LongIntMap {
+  private static final int ENTRY_SIZE = 12;
+  private static final int VALUE_OFFSET = 8;
+  /** largest power of two that still fits into a single ByteBuffer */
+  private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / ENTRY_SIZE);
+  private static final float MAX_LOAD_FACTOR = 0.7f;
+
+  private final int noEntryValue;
+  private ByteBuffer buffer;
+  private int mask;
+  private int size = 0;
+
+  OffHeapLongIntMap(int initialCapacity, int noEntryValue) {
+    this.noEntryValue = noEntryValue;
+    allocate(Integer.max(16, Integer.highestOneBit(Integer.max(1, initialCapacity) - 1) << 1));
+  }
+
+  @Override
+  public int get(long key) {
+    final ByteBuffer buffer = this.buffer;
+    final int mask = this.mask;
+    // n.b. bounded, because this may be called concurrently with modifications (and the result is discarded in that case)
+    for (int i = hash(key) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+      final int storedValue = buffer.getInt(i * ENTRY_SIZE + VALUE_OFFSET);
+      if (storedValue == 0) return noEntryValue;
+      if (buffer.getLong(i * ENTRY_SIZE) == key) return storedValue - 1;
+    }
+    return noEntryValue;
+  }
+
+  @Override
+  public int putIfAbsent(long key, int value) {
+    final int existing = get(key);
+    if (existing != noEntryValue) return existing;
+    insert(key, value);
+    return noEntryValue;
+  }
+
+  @Override
+  public int put(long key, int value) {
+    final int index = indexOf(key);
+    if (index != -1) {
+      final int previous = buffer.getInt(index * ENTRY_SIZE + VALUE_OFFSET) - 1;
+      buffer.putInt(index * ENTRY_SIZE + VALUE_OFFSET, value + 1);
+      return previous;
+    }
+    insert(key, value);
+    return noEntryValue;
+  }
+
+  @Override
+  public int remove(long key) {
+    int index = indexOf(key);
+    if (index == -1) return noEntryValue;
+    final int previous = buffer.getInt(index * ENTRY_SIZE + VALUE_OFFSET) - 1;
+
+    // shift back all following entries of the same cluster that wouldn't be found any more otherwise
+    int next = index;
+    while (true) {
+      next = (next + 1) & mask;
+      if (buffer.getInt(next * ENTRY_SIZE + VALUE_OFFSET) == 0) break;
+      final int home = hash(buffer.getLong(next * ENTRY_SIZE)) & mask;
+      final boolean homeIsBetween = index <= next
+          ? index < home && home <= next
+          : index < home || home <= next;
+      if (!homeIsBetween) {
+        copyEntry(next, index);
+        index = next;
+      }
+    }
+    buffer.putInt(index * ENTRY_SIZE + VALUE_OFFSET, 0);
+    size--;
+    return previous;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** @return index of the entry for the given key, or -1 */
+  private int indexOf(long key) {
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      if (buffer.getInt(i * ENTRY_SIZE + VALUE_OFFSET) == 0) return -1;
+      if (buffer.getLong(i * ENTRY_SIZE) == key) return i;
+    }
+  }
+
+  /** expects that the key isn't present yet */
+  private void insert(long key, int value) {
+    if (size + 1 > (mask + 1) * MAX_LOAD_FACTOR) grow();
+    int i = hash(key) & mask;
+    while (buffer.getInt(i * ENTRY_SIZE + VALUE_OFFSET) != 0) {
+      i = (i + 1) & mask;
+    }
+    buffer.putLong(i * ENTRY_SIZE, key);
+    buffer.putInt(i * ENTRY_SIZE + VALUE_OFFSET, value + 1);
+    size++;
+  }
+
+  private void grow() {
+    final int capacity = mask + 1;
+    if (capacity >= MAX_CAPACITY) {
+      throw new OutOfMemoryError(getClass().getSimpleName() + " cannot hold more than " + (int) (MAX_CAPACITY * MAX_LOAD_FACTOR) + " entries");
+    }
+    final ByteBuffer oldBuffer = buffer;
+    allocate(capacity * 2);
+    size = 0;
+    for (int i = 0; i < capacity; i++) {
+      final int storedValue = oldBuffer.getInt(i * ENTRY_SIZE + VALUE_OFFSET);
+      if (storedValue != 0) insert(oldBuffer.getLong(i * ENTRY_SIZE), storedValue - 1);
+    }
+    // the old buffer's memory is released once it's garbage collected
+  }
+
+  private void allocate(int capacity) {
+    // n.b. concurrent optimistic readers may see the new buffer with the old mask or vice versa, which may throw an
+    // IndexOutOfBoundsException - they need to validate and retry, see NodeIdIndex
+    buffer = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE).order(ByteOrder.nativeOrder());
+    mask = capacity - 1;
+  }
+
+  private void copyEntry(int from, int to) {
+    buffer.putLong(to * ENTRY_SIZE, buffer.getLong(from * ENTRY_SIZE));
+    buffer.putInt(to * ENTRY_SIZE + VALUE_OFFSET, buffer.getInt(from * ENTRY_SIZE + VALUE_OFFSET));
+  }
+
+  private static int hash(long key) {
+    // murmur3 finalizer - the stripes in NodeIdIndex are selected by a different hash, so we need all bits mixed
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
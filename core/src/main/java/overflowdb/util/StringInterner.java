@@ -6,7 +6,10 @@ public class StringInterner {
   private ConcurrentHashMap<String, String> internedStrings = new ConcurrentHashMap<>();
 
   public String intern(String s){
-    String interned = internedStrings.putIfAbsent(s, s);
+    // n.b. `get` first, because `putIfAbsent` locks even if the key is present
+    String interned = internedStrings.get(s);
+    if (interned != null) return interned;
+    interned = internedStrings.putIfAbsent(s, s);
     return interned == null ? s : interned;
   }
 
@@ -8,6 +8,7 @@ import java.nio.file.{Path, Paths}
 trait Importer {
   protected val logger = LoggerFactory.getLogger(getClass)
 
+  /** n.b. trims the graph at the end, see [[Graph.trimAll]] */
   def runImport(graph: Graph, inputFiles: Seq[Path]): Unit
 
   def runImport(graph: Graph, inputFile: Path): Unit =
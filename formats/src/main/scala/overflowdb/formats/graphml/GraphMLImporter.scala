@@ -33,6 +33,7 @@ object GraphMLImporter extends Importer {
         addEdge(graph, edge, edgePropertyContextById)
       }
     }
+    graph.trimAll()
   }
 
   private def parsePropertyEntries(forElementType: String, keyEntries: NodeSeq): Map[String, PropertyContext] = {
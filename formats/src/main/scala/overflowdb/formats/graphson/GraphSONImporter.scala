@@ -22,6 +22,7 @@ object GraphSONImporter extends Importer {
       graphSON.`@value`.vertices.foreach(n => addNode(n, graph))
       graphSON.`@value`.edges.foreach(e => addEdge(e, graph))
     }
+    graph.trimAll()
   }
 
   private def addNode(n: Vertex, graph: Graph): Unit = {
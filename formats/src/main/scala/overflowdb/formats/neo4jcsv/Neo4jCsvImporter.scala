@@ -55,6 +55,7 @@ object Neo4jCsvImporter extends Importer {
         }
       }
     logger.info(s"imported $importedNodeCount nodes")
+    graph.trimAll()
   }
 
   private def groupInputFiles(inputFiles: Seq[Path]): Seq[HeaderAndDataFile] = {
@@ -6,7 +6,7 @@ import overflowdb._
 import overflowdb.traversal.filter.P
 import overflowdb.traversal.testdomains.simple.Connection.Properties.Distance
 import overflowdb.traversal.testdomains.simple.Thing.Properties.Name
-import overflowdb.traversal.testdomains.simple.{Connection, ExampleGraphSetup, Thing}
+import overflowdb.traversal.testdomains.simple.{Connection, ExampleGraphSetup, Thing, ThingDb}
 import ChainedImplicitsTemp._
 
 import scala.jdk.CollectionConverters.IteratorHasAsScala
@@ -162,6 +162,42 @@ class GenericGraphTraversalTests extends AnyWordSpec with ExampleGraphSetup {
       l2.start.inE(nonExistingLabel).outV.toSetMutable shouldBe Set.empty
     }
 
+    "step outEProperty" in {
+      center.start.outEProperty(Connection.Label, Distance).l.sorted shouldBe center.start.outE(Connection.Label).property(Distance).l.sorted
+      graph.V.outEProperty(Connection.Label, Distance).l.sorted shouldBe graph.E.property(Distance).l.sorted
+      graph.V.outEProperty(nonExistingLabel, Distance).size shouldBe 0
+    }
+
+    "step inEProperty" in {
+      graph.V.inEProperty(Connection.Label, Distance).l.sorted shouldBe graph.E.property(Distance).l.sorted
+      l2.start.inEProperty(Connection.Label, Distance).l shouldBe l2.start.inE(Connection.Label).property(Distance).l
+    }
+
+    "steps outEProperty and inEProperty with edge property defaults" in {
+      val connectionWithDefaultDistance = new EdgeFactory[Connection] {
+        override def forLabel(): String = Connection.Label
+        override def createEdge(graph: Graph, outNode: NodeRef[NodeDb], inNode: NodeRef[NodeDb]): Connection =
+          new Connection(graph, outNode.asInstanceOf[NodeRef[ThingDb]], inNode.asInstanceOf[NodeRef[ThingDb]]) {
+            override def propertyDefaultValue(propertyKey: String): AnyRef =
+              if (propertyKey == Distance.name) Integer.valueOf(-1) else super.propertyDefaultValue(propertyKey)
+          }
+      }
+      val graph = Graph.open(
+        Config.withoutOverflow,
+        java.util.Arrays.asList(Thing.factory),
+        java.util.Arrays.asList(connectionWithDefaultDistance)
+      )
+      val node1 = graph.addNode(Thing.Label)
+      val node2 = graph.addNode(Thing.Label)
+      node1.addEdge(Connection.Label, node2, Distance.name, Integer.valueOf(5))
+      node1.addEdge(Connection.Label, node2)
+
+      node1.start.outEProperty(Connection.Label, Distance).l shouldBe node1.start.outE(Connection.Label).property(Distance).l
+      node1.start.outEProperty(Connection.Label, Distance).l shouldBe List(5, -1)
+      node2.start.inEProperty(Connection.Label, Distance).l shouldBe List(5, -1)
+      graph.close()
+    }
+
     "step bothE" in {
       /* L3 <- L2 <- L1 <- Center -> R1 -> R2 -> R3 -> R4 */
       l2.start.bothE.size shouldBe 2
@@ -35,6 +35,21 @@ class TraversalSourceTest extends AnyWordSpec {
     verifyTraversalResults()
   }
 
+  "label starter step doesn't skip nodes when earlier ones are removed meanwhile" in {
+    val graph = SimpleDomain.newGraph
+    val things = (0 until 20).map(i => graph + (Thing.Label, Name.of(s"thing$i")))
+
+    val visited = Seq.newBuilder[Node]
+    var previous: Node = null
+    SimpleDomain.traversal(graph).label(Thing.Label).foreach { thing =>
+      visited += thing
+      if (previous != null) previous.remove()
+      previous = thing
+    }
+    visited.result() shouldBe things
+    graph.nodeCount(Thing.Label) shouldBe 1
+  }
+
   private class Fixture {
     val graph = SimpleDomain.newGraph
 
@@ -4,16 +4,17 @@ import overflowdb.Graph
 
 import scala.jdk.CollectionConverters.IteratorHasAsScala
 
-class InitialTraversal[+A <: overflowdb.Node] private (graph: Graph, label: String, arr: java.util.ArrayList[A])
+/** all nodes with the given label, based on `NodesList.labelIterator`, i.e. doesn't copy or lock anything */
+class InitialTraversal[+A <: overflowdb.Node] private (graph: Graph, label: String, iter: java.util.Iterator[A])
     extends Iterator[A] {
   private[overflowdb] var idx = 0
 
-  override def hasNext: Boolean = idx < arr.size()
+  override def hasNext: Boolean = iter.hasNext
 
   override def next(): A = {
-    if (!hasNext) throw new NoSuchElementException()
+    val ret = iter.next()
     idx = idx + 1
-    arr.get(idx - 1)
+    ret
   }
 
   // we can only do this if the iterator itself is virgin, e.g. `val trav = cpg.method; trav.next; trav.fullNameExact(...)` cannot use the index
@@ -33,8 +34,8 @@ object InitialTraversal {
   def from[A <: overflowdb.Node](graph: Graph, label: String): InitialTraversal[A] = {
     val tmp = overflowdb.Misc
       .extractNodesList(graph)
-      .nodesByLabel(label)
-      .asInstanceOf[java.util.ArrayList[A]]
+      .labelIterator(label)
+      .asInstanceOf[java.util.Iterator[A]]
     new InitialTraversal(graph, label, tmp)
   }
 }
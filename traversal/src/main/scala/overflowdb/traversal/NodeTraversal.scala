@@ -1,7 +1,7 @@
 package overflowdb.traversal
 
 import overflowdb.traversal.help.Doc
-import overflowdb.{Edge, Node}
+import overflowdb.{Edge, EdgeCursor, Node, PropertyKey}
 
 import scala.jdk.CollectionConverters.IteratorHasAsScala
 
@@ -80,4 +80,37 @@ class NodeTraversal[E <: Node](val traversal: Iterator[E]) extends AnyVal {
   def bothE(labels: String*): Traversal[Edge] =
     traversal.flatMap(_.bothE(labels: _*).asScala)
 
+  /** property values of outgoing edges of given label - like `outE(label).property(key)`, but reads them directly from
+    * the adjacent nodes rather than instantiating an edge each
+    */
+  def outEProperty[A](label: String, key: PropertyKey[A]): Traversal[A] =
+    traversal.flatMap(node => NodeTraversal.edgePropertyValues[A](node.outEdgeCursor(label), key.name))
+
+  /** property values of incoming edges of given label - like `inE(label).property(key)`, but reads them directly from
+    * the adjacent nodes rather than instantiating an edge each
+    */
+  def inEProperty[A](label: String, key: PropertyKey[A]): Traversal[A] =
+    traversal.flatMap(node => NodeTraversal.edgePropertyValues[A](node.inEdgeCursor(label), key.name))
+
+}
+
+object NodeTraversal {
+
+  /** values (or defaults) of the given property for all edges of the cursor, skipping edges that have neither */
+  private def edgePropertyValues[A](cursor: EdgeCursor, key: String): Iterator[A] =
+    new Iterator[A] {
+      private var nextValue: AnyRef = null
+
+      override def hasNext: Boolean = {
+        while (nextValue == null && cursor.advance()) nextValue = cursor.property[AnyRef](key)
+        nextValue != null
+      }
+
+      override def next(): A = {
+        if (!hasNext) throw new NoSuchElementException
+        val value = nextValue.asInstanceOf[A]
+        nextValue = null
+        value
+      }
+    }
 }